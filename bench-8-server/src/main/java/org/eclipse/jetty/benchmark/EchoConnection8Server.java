@@ -51,8 +51,7 @@ public class EchoConnection8Server
     {
         Buffer _buffer;
         final Buffers _bufferPool;
-        int _fills;
-        long _filled;
+        final AdaptiveBufferSize _sizes = new AdaptiveBufferSize();
         
         public EchoConnection(EndPoint endp, Buffers pool)
         {
@@ -69,10 +68,17 @@ public class EchoConnection8Server
             try
             {
                 if (_buffer==null)
-                    _buffer=_bufferPool.getBuffer();
+                    _buffer=_bufferPool.getBuffer(_sizes.getSize());
                     
                 while(true)
                 {
+                    // The buffer has been flushed, so swap it for one of the adapted size
+                    if (_buffer.capacity()!=_sizes.getSize())
+                    {
+                        _bufferPool.returnBuffer(_buffer);
+                        _buffer=_bufferPool.getBuffer(_sizes.getSize());
+                    }
+
                     EndPoint endp=getEndPoint();
                     int len=endp.fill(_buffer);
                     if (len<0)
@@ -81,8 +87,7 @@ public class EchoConnection8Server
                     if (len<=0)
                         break;
 
-                    _fills++;
-                    _filled+=len;
+                    _sizes.filled(len,_buffer.capacity());
 
                     while (_buffer.hasContent())
                     {
@@ -121,7 +126,9 @@ public class EchoConnection8Server
         @Override
         public void onClose()
         {
-            System.err.println("Filled "+_filled+" bytes in "+_fills+" fills");
+            System.err.println(_sizes);
+            System.err.println(_sizes.getHistogram());
+            _sizes.emit("EchoConnection8Server");
             __helper.stopStatistics();
             
         }
@@ -1,6 +1,7 @@
 package org.eclipse.jetty.benchmark;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpParser;
@@ -36,11 +37,24 @@ public class Jetty8HttpParserBenchmark
         bm.test(100000);
         bm.test(1000000);
         bm.test(10000000);
+
+        // Pipelined corpora, with and without bodies, delivered in fragments
+        for (int body : new int[]{0,1024})
+        {
+            RequestCorpus corpus = new RequestCorpus(100,body,0);
+            int iterations = Math.max(1,50_000_000/corpus.getBytes().length);
+            for (RequestCorpus.Split split : RequestCorpus.Split.values())
+            {
+                bm.testCorpus(corpus,split,iterations);
+                bm.testCorpus(corpus,split,iterations);
+            }
+        }
     }
 
     private void test(int iterations) throws IOException
     {
         helper.startStatistics();
+        long begin=System.nanoTime();
         try
         {
             ByteArrayBuffer buffer = new ByteArrayBuffer(request,false);
@@ -62,6 +76,12 @@ public class Jetty8HttpParserBenchmark
             }
             System.err.println("requests "+requests);
             System.err.println("headers  "+headers);
+            long elapsed=System.nanoTime()-begin;
+            new Measurement("HttpParser")
+                .param("iterations",iterations)
+                .elapsed(elapsed)
+                .throughput(requests,elapsed,"req/s")
+                .emit();
         }
         finally
         {
@@ -69,6 +89,66 @@ public class Jetty8HttpParserBenchmark
         }
     }
 
+    private void testCorpus(RequestCorpus corpus, RequestCorpus.Split split, int iterations) throws IOException
+    {
+        // The Jetty 8 parser keeps views of the buffer, so rather than copying each chunk
+        // in, the whole corpus is wrapped and the put index is advanced a chunk at a time.
+        byte[] bytes=corpus.getBytes();
+        int[] chunks=corpus.split(split);
+        ByteArrayBuffer buffer = new ByteArrayBuffer(bytes,0,0,Buffer.READWRITE);
+        HttpParser parser = new HttpParser(buffer,new MyHandler());
+        requests=0;
+        headers=0;
+        System.err.printf("%s split %s into %,d chunks x %,d%n",corpus,split,chunks.length,iterations);
+
+        helper.startStatistics();
+        long begin=System.nanoTime();
+        try
+        {
+            for (int i=0;i<iterations;i++)
+            {
+                buffer.setGetIndex(0);
+                buffer.setPutIndex(0);
+                int put=0;
+                for (int chunk : chunks)
+                {
+                    put+=chunk;
+                    buffer.setPutIndex(put);
+                    while (buffer.length()>0)
+                    {
+                        int progress=parser.parseNext();
+                        if (parser.isState(HttpParser.STATE_END))
+                        {
+                            parser.setState(HttpParser.STATE_START);
+                            headers+=fields.size();
+                            fields.clear();
+                        }
+                        else if (progress<=0)
+                            break;
+                    }
+                }
+            }
+            long elapsed=System.nanoTime()-begin;
+            long parsed=(long)bytes.length*iterations;
+            if (requests!=(long)corpus.getRequests()*iterations)
+                System.err.printf("parsed %,d of %,d requests%n",requests,(long)corpus.getRequests()*iterations);
+            System.err.printf("%,d requests, %,d headers, %,d bytes in %,d ms: %,d req/s %,.1f MB/s%n",
+                requests,headers,parsed,TimeUnit.NANOSECONDS.toMillis(elapsed),
+                requests*TimeUnit.SECONDS.toNanos(1)/elapsed,parsed*1000.0/elapsed);
+            new Measurement("HttpParserCorpus")
+                .param("requests",corpus.getRequests())
+                .param("bytes",bytes.length)
+                .param("split",split)
+                .elapsed(elapsed)
+                .throughput(requests,elapsed,"req/s")
+                .metric("bytes",parsed*(double)TimeUnit.SECONDS.toNanos(1)/elapsed,"bytes/s",true)
+                .emit();
+        }
+        finally
+        {
+            helper.stopStatistics();
+        }
+    }
 
     private class MyHandler extends HttpParser.EventHandler
     {
@@ -0,0 +1,336 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+
+/**
+ * A {@link ByteBufferPool} that bounds the memory it retains, split into shards so that
+ * threads do not contend on the same buckets.
+ * <p>
+ * Capacities are rounded up to a multiple of a factor, as by
+ * {@link org.eclipse.jetty.io.ArrayByteBufferPool}, and buffers larger than the maximum
+ * size are not pooled. A thread acquires from and releases to the shard of its id, so a
+ * shard is mostly used by the same few threads, and its lock is almost never contended.
+ * Only on a miss does a thread look for a buffer in the other shards, before it allocates.
+ * <p>
+ * Each shard retains at most its share of the maximum retained bytes. A release that
+ * would exceed it first evicts the buffers of the shard's buckets that were used the
+ * longest ago, which are typically those of a size that a burst needed once, and discards
+ * the buffer released if that is not enough.
+ */
+public class BoundedByteBufferPool implements ByteBufferPool
+{
+    private final int _factor;
+    private final int _maxSize;
+    private final long _maxRetained;
+    private final Shard[] _shards;
+
+    public BoundedByteBufferPool()
+    {
+        this(1024,64*1024,64L*1024*1024,Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param factor The capacities are multiples of this factor
+     * @param maxSize The maximum capacity that is pooled, a multiple of the factor
+     * @param maxRetained The maximum number of bytes retained by all the shards
+     * @param shards The number of shards, eg the number of cores
+     * @throws IllegalArgumentException if the maximum size is not a multiple of the factor
+     */
+    public BoundedByteBufferPool(int factor, int maxSize, long maxRetained, int shards)
+    {
+        if (factor<=0 || maxSize%factor!=0)
+            throw new IllegalArgumentException("Max size "+maxSize+" is not a multiple of factor "+factor);
+        _factor=factor;
+        _maxSize=maxSize;
+        _maxRetained=maxRetained;
+        _shards=new Shard[shards];
+        for (int i=0;i<shards;i++)
+            _shards[i]=new Shard(maxSize/factor,maxRetained/shards);
+    }
+
+    @Override
+    public ByteBuffer acquire(int size, boolean direct)
+    {
+        int index=index(size);
+        if (index<0)
+        {
+            shard().oversized();
+            return direct?BufferUtil.allocateDirect(size):BufferUtil.allocate(size);
+        }
+
+        Shard shard=shard();
+        ByteBuffer buffer=shard.acquire(index,direct);
+        if (buffer!=null)
+            return buffer;
+
+        for (Shard other : _shards)
+        {
+            if (other==shard)
+                continue;
+            buffer=other.steal(index,direct);
+            if (buffer!=null)
+            {
+                shard.stolen();
+                return buffer;
+            }
+        }
+
+        shard.missed();
+        int capacity=(index+1)*_factor;
+        return direct?BufferUtil.allocateDirect(capacity):BufferUtil.allocate(capacity);
+    }
+
+    @Override
+    public void release(ByteBuffer buffer)
+    {
+        if (buffer==null)
+            return;
+        int capacity=buffer.capacity();
+        if (capacity%_factor!=0 || capacity>_maxSize)
+            return;
+        BufferUtil.clear(buffer);
+        shard().release(capacity/_factor-1,buffer);
+    }
+
+    private int index(int size)
+    {
+        if (size>_maxSize)
+            return -1;
+        return size==0?0:(size-1)/_factor;
+    }
+
+    private Shard shard()
+    {
+        return _shards[(int)(Thread.currentThread().getId()%_shards.length)];
+    }
+
+    public void clear()
+    {
+        for (Shard shard : _shards)
+            shard.clear();
+    }
+
+    /**
+     * @return The number of buffers acquired from the shard of the acquiring thread
+     */
+    public long getHits()
+    {
+        long hits=0;
+        for (Shard shard : _shards)
+        {
+            synchronized (shard)
+            {
+                hits+=shard._hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * @return The number of buffers acquired from the shard of another thread
+     */
+    public long getSteals()
+    {
+        long steals=0;
+        for (Shard shard : _shards)
+        {
+            synchronized (shard)
+            {
+                steals+=shard._steals;
+            }
+        }
+        return steals;
+    }
+
+    /**
+     * @return The number of buffers allocated because no shard had one
+     */
+    public long getMisses()
+    {
+        long misses=0;
+        for (Shard shard : _shards)
+        {
+            synchronized (shard)
+            {
+                misses+=shard._misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * @return The number of buffers evicted or discarded to bound the retained bytes
+     */
+    public long getEvictions()
+    {
+        long evictions=0;
+        for (Shard shard : _shards)
+        {
+            synchronized (shard)
+            {
+                evictions+=shard._evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * @return The number of buffers allocated, and not pooled, because they were larger than the maximum size
+     */
+    public long getOversized()
+    {
+        long oversized=0;
+        for (Shard shard : _shards)
+        {
+            synchronized (shard)
+            {
+                oversized+=shard._oversized;
+            }
+        }
+        return oversized;
+    }
+
+    /**
+     * @return The number of bytes retained by all the shards
+     */
+    public long getRetained()
+    {
+        long retained=0;
+        for (Shard shard : _shards)
+        {
+            synchronized (shard)
+            {
+                retained+=shard._retained;
+            }
+        }
+        return retained;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{shards=%d,retained=%d/%d,hits=%d,steals=%d,misses=%d,evictions=%d,oversized=%d}",
+            getClass().getSimpleName(),hashCode(),_shards.length,getRetained(),_maxRetained,
+            getHits(),getSteals(),getMisses(),getEvictions(),getOversized());
+    }
+
+    private static class Shard
+    {
+        private final ArrayDeque<ByteBuffer>[] _heap;
+        private final ArrayDeque<ByteBuffer>[] _direct;
+        // The tick of the last use of each bucket, heap then direct
+        private final long[] _used;
+        private final long _maxRetained;
+        private long _tick;
+        private long _retained;
+        private long _hits;
+        private long _steals;
+        private long _misses;
+        private long _evictions;
+        private long _oversized;
+
+        @SuppressWarnings("unchecked")
+        Shard(int buckets, long maxRetained)
+        {
+            _heap=new ArrayDeque[buckets];
+            _direct=new ArrayDeque[buckets];
+            for (int i=0;i<buckets;i++)
+            {
+                _heap[i]=new ArrayDeque<>();
+                _direct[i]=new ArrayDeque<>();
+            }
+            _used=new long[2*buckets];
+            _maxRetained=maxRetained;
+        }
+
+        synchronized ByteBuffer acquire(int index, boolean direct)
+        {
+            ByteBuffer buffer=(direct?_direct:_heap)[index].pollFirst();
+            _used[direct?_heap.length+index:index]=++_tick;
+            if (buffer!=null)
+            {
+                _retained-=buffer.capacity();
+                _hits++;
+            }
+            return buffer;
+        }
+
+        synchronized ByteBuffer steal(int index, boolean direct)
+        {
+            // The oldest buffer, as the owner of the shard takes the newest
+            ByteBuffer buffer=(direct?_direct:_heap)[index].pollLast();
+            if (buffer!=null)
+                _retained-=buffer.capacity();
+            return buffer;
+        }
+
+        synchronized void release(int index, ByteBuffer buffer)
+        {
+            int capacity=buffer.capacity();
+            boolean direct=buffer.isDirect();
+            int bucket=direct?_heap.length+index:index;
+            _used[bucket]=++_tick;
+            while (_retained+capacity>_maxRetained)
+            {
+                if (!evict(bucket))
+                {
+                    _evictions++;
+                    return;
+                }
+            }
+            (direct?_direct:_heap)[index].offerFirst(buffer);
+            _retained+=capacity;
+        }
+
+        /**
+         * Evict a buffer from the bucket used the longest ago, other than the given one.
+         * @return False if there is no such buffer
+         */
+        private boolean evict(int except)
+        {
+            int oldest=-1;
+            for (int b=0;b<_used.length;b++)
+            {
+                if (b!=except && !bucket(b).isEmpty() && (oldest<0 || _used[b]<_used[oldest]))
+                    oldest=b;
+            }
+            if (oldest<0)
+                return false;
+            ByteBuffer evicted=bucket(oldest).pollLast();
+            _retained-=evicted.capacity();
+            _evictions++;
+            return true;
+        }
+
+        private ArrayDeque<ByteBuffer> bucket(int b)
+        {
+            return b<_heap.length?_heap[b]:_direct[b-_heap.length];
+        }
+
+        synchronized void stolen()
+        {
+            _steals++;
+        }
+
+        synchronized void missed()
+        {
+            _misses++;
+        }
+
+        synchronized void oversized()
+        {
+            _oversized++;
+        }
+
+        synchronized void clear()
+        {
+            for (int b=0;b<_used.length;b++)
+                bucket(b).clear();
+            _retained=0;
+        }
+    }
+}
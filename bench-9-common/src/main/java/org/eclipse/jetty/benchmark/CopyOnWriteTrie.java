@@ -0,0 +1,129 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import org.eclipse.jetty.util.ArrayTernaryTrie;
+import org.eclipse.jetty.util.Trie;
+
+/**
+ * A {@link Trie} for read mostly maps, such as the context paths or the MIME types,
+ * that is read by many threads without locking and updated at runtime.
+ * <p>
+ * The entries are held in an {@link ArrayTernaryTrie} that is never modified once
+ * published. A lookup is a volatile read of the current trie followed by a plain lookup,
+ * so readers share only read-only cache lines. An update copies the arrays of the
+ * current trie (growing them if it is full), modifies the copy and publishes it;
+ * updates are serialized with each other but never block the readers.
+ */
+public class CopyOnWriteTrie<V> implements Trie<V>
+{
+    private volatile ArrayTernaryTrie<V> _trie;
+
+    public CopyOnWriteTrie(boolean insensitive, int capacity)
+    {
+        _trie=new ArrayTernaryTrie<>(insensitive,capacity);
+    }
+
+    @Override
+    public synchronized boolean put(String s, V v)
+    {
+        ArrayTernaryTrie<V> copy = new ArrayTernaryTrie<>(_trie,1.0);
+        if (!copy.put(s,v))
+        {
+            copy = new ArrayTernaryTrie<>(_trie,2.0);
+            if (!copy.put(s,v))
+                return false;
+        }
+        _trie=copy;
+        return true;
+    }
+
+    @Override
+    public boolean put(V v)
+    {
+        return put(v.toString(),v);
+    }
+
+    @Override
+    public synchronized V remove(String s)
+    {
+        ArrayTernaryTrie<V> copy = new ArrayTernaryTrie<>(_trie,1.0);
+        V removed=copy.remove(s);
+        _trie=copy;
+        return removed;
+    }
+
+    @Override
+    public V get(String s)
+    {
+        return _trie.get(s);
+    }
+
+    @Override
+    public V get(String s, int offset, int len)
+    {
+        return _trie.get(s,offset,len);
+    }
+
+    @Override
+    public V get(ByteBuffer b)
+    {
+        return _trie.get(b);
+    }
+
+    @Override
+    public V get(ByteBuffer b, int offset, int len)
+    {
+        return _trie.get(b,offset,len);
+    }
+
+    @Override
+    public V getBest(String s)
+    {
+        return _trie.getBest(s);
+    }
+
+    @Override
+    public V getBest(String s, int offset, int len)
+    {
+        return _trie.getBest(s,offset,len);
+    }
+
+    @Override
+    public V getBest(byte[] b, int offset, int len)
+    {
+        return _trie.getBest(b,offset,len);
+    }
+
+    @Override
+    public V getBest(ByteBuffer b, int offset, int len)
+    {
+        return _trie.getBest(b,offset,len);
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return _trie.keySet();
+    }
+
+    @Override
+    public boolean isFull()
+    {
+        // It grows instead
+        return false;
+    }
+
+    @Override
+    public boolean isCaseInsensitive()
+    {
+        return _trie.isCaseInsensitive();
+    }
+
+    @Override
+    public String toString()
+    {
+        return _trie.toString();
+    }
+}
@@ -5,6 +5,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jetty.io.ChannelEndPoint;
 import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
@@ -15,9 +16,10 @@ import org.eclipse.jetty.util.thread.TimerScheduler;
 public class EchoChannelEndPoint9Server implements Runnable
 {
     static BenchmarkHelper __helper = new BenchmarkHelper();
+    // False to not report the statistics of each connection, eg when swept by EchoSweep
+    static boolean __statistics = true;
     final ChannelEndPoint _endp;
-    int _fills;
-    long _filled;
+    final AdaptiveBufferSize _sizes = new AdaptiveBufferSize();
     
     public EchoChannelEndPoint9Server(Scheduler scheduler, SocketChannel connection)
     {
@@ -27,21 +29,21 @@ public class EchoChannelEndPoint9Server implements Runnable
     @Override
     public void run()
     {
-        __helper.startStatistics();
+        if (__statistics)
+            __helper.startStatistics();
         try
         {
-            ByteBuffer buffer = BufferUtil.allocate(4096);
+            ByteBuffer buffer = BufferUtil.allocate(_sizes.getSize());
             
             while (_endp.isOpen())
             {
+                if (buffer.capacity()!=_sizes.getSize())
+                    buffer=BufferUtil.allocate(_sizes.getSize());
                 int len=_endp.fill(buffer);
                 if (len<0)
                     _endp.close();
-                else
-                {
-                    _fills++;
-                    _filled+=len;
-                }
+                else if (len>0)
+                    _sizes.filled(len,buffer.capacity());
                               
                 while (buffer.hasRemaining())
                     _endp.flush(buffer);
@@ -54,29 +56,45 @@ public class EchoChannelEndPoint9Server implements Runnable
         }
         finally
         {
-            System.err.println("Filled "+_filled+" bytes in "+_fills+" fills");
-            __helper.stopStatistics();
+            if (__statistics)
+            {
+                System.err.println(_sizes);
+                System.err.println(_sizes.getHistogram());
+                _sizes.emit("EchoChannelEndPoint9Server");
+                __helper.stopStatistics();
+            }
         }
     }
     
     /* ------------------------------------------------------------ */
     /**
-     * @param args
+     * @param args The threads that each connection is echoed by: "platform" (default) or
+     * "virtual", which needs Java 21
      */
     public static void main(String[] args) throws Exception
     {
+        Executor executor = ConnectionThreads.newExecutor(args.length>0?args[0]:ConnectionThreads.PLATFORM);
         ServerSocketChannel server = ServerSocketChannel.open();
         server.bind(new InetSocketAddress(8080));
         TimerScheduler scheduler = new TimerScheduler();
         scheduler.start();
-        
+        serve(server,scheduler,executor);
+        scheduler.stop();
+    }
+
+    /**
+     * Accept connections, each echoed by a thread of its own from the executor, until the server
+     * channel is closed, which fails the accept waiting with a {@link java.nio.channels.ClosedChannelException}.
+     * @param executor An executor of {@link ConnectionThreads}
+     */
+    public static void serve(ServerSocketChannel server, Scheduler scheduler, Executor executor) throws IOException
+    {
         while (server.isOpen())
         {
             SocketChannel connection = server.accept();
             
-            new Thread(new EchoChannelEndPoint9Server(scheduler,connection)).start();
+            executor.execute(new EchoChannelEndPoint9Server(scheduler,connection));
         }
-        scheduler.stop();
     }
 
 
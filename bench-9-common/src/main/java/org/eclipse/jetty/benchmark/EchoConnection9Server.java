@@ -0,0 +1,410 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.io.AbstractConnection;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.server.AbstractConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
+import org.eclipse.jetty.util.BlockingCallback;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+
+public class EchoConnection9Server
+{
+    static BenchmarkHelper __helper = new BenchmarkHelper();
+    static ByteBufferPool __bufferPool;
+    // False to not report the statistics of each connection, eg when swept by EchoSweep
+    static boolean __statistics = true;
+    
+    
+    /* ------------------------------------------------------------ */
+    /**
+     * @param args The number of buffers in the ring of each connection (default 4), or
+     * "blocking" for the connection that blocks on each write of a single buffer, then
+     * the buffer pool: "array" (default), "mapped" or "bounded"
+     */
+    public static void main(String[] args) throws Exception
+    {
+        String mode=args.length>0?args[0]:"4";
+        String pool=args.length>1?args[1]:"array";
+        Server server = new Server();
+        if ("bounded".equals(pool))
+            __bufferPool= new BoundedByteBufferPool();
+        else if ("mapped".equals(pool))
+            __bufferPool= new MappedByteBufferPool();
+        else
+            __bufferPool= new ArrayByteBufferPool();
+     
+        ServerConnector connector = new ServerConnector(server,new EchoConnectionFactory(mode));
+        connector.setPort(8080);
+        server.addConnector(connector);
+        server.start();
+        server.join();
+    }
+    
+    public static class EchoConnectionFactory extends AbstractConnectionFactory
+    {
+        // The size of the ring of each connection, or 0 for the blocking connection
+        private final int _ringSize;
+
+        public EchoConnectionFactory()
+        {
+            this("4");
+        }
+
+        /**
+         * @param mode The size of the ring of each connection, at least 1, or "blocking"
+         * @throws IllegalArgumentException if the size of the ring is less than 1
+         */
+        public EchoConnectionFactory(String mode)
+        {
+            super("echo");
+            if ("blocking".equals(mode))
+            {
+                _ringSize=0;
+            }
+            else
+            {
+                _ringSize=Integer.parseInt(mode);
+                if (_ringSize<1)
+                    throw new IllegalArgumentException("Ring size "+mode+" is less than 1");
+            }
+        }
+
+        @Override
+        public Connection newConnection(Connector connector, EndPoint endPoint)
+        {
+            if (_ringSize==0)
+                return new BlockingEchoConnection(__bufferPool,endPoint,connector.getExecutor());
+            return new EchoConnection(__bufferPool,endPoint,connector.getExecutor(),_ringSize);
+        }
+    }
+
+    /**
+     * Echoes without blocking: the bytes are filled into a ring of pooled buffers while the
+     * earlier ones are being written, and all the buffers filled since the last write are
+     * written with a single gathering write once it completes. Fill interest is only given
+     * up when all the buffers of the ring are waiting to be written, and is taken again
+     * when a write completes, so a slow reader slows the writer down without a thread ever
+     * waiting for it.
+     * <p>
+     * The ring is a circular array of slots: from the head, the buffers being written, the
+     * buffers waiting to be written, then the free slots, whose buffers are kept for the next
+     * fills and only released to the pool once the connection has nothing more to read.
+     * A free buffer is also swapped for one of the size given by the {@link AdaptiveBufferSize}
+     * of the connection, once that has changed.
+     */
+    public static class EchoConnection extends AbstractConnection
+    {
+        final ByteBufferPool _bufferPool;
+        final ByteBuffer[] _ring;
+        final int[] _sizeOf;
+        final ByteBuffer[][] _gathers;
+        final AdaptiveBufferSize _sizes = new AdaptiveBufferSize();
+        final Callback _writeCallback = new WriteCallback();
+        int _head;
+        int _writing;
+        int _pending;
+        boolean _paused;
+        boolean _closing;
+        int _writes;
+        int _pauses;
+    
+        public EchoConnection(ByteBufferPool pool, EndPoint endp, Executor executor)
+        {
+            this(pool,endp,executor,4);
+        }
+
+        /**
+         * @param ringSize The number of buffers in the ring, at least 1
+         * @throws IllegalArgumentException if the ring size is less than 1
+         */
+        public EchoConnection(ByteBufferPool pool, EndPoint endp, Executor executor, int ringSize)
+        {
+            super(endp,executor);
+            if (ringSize<1)
+                throw new IllegalArgumentException("Ring size "+ringSize+" is less than 1");
+            _bufferPool=pool;
+            _ring=new ByteBuffer[ringSize];
+            // The sizes that the buffers were acquired for, as the pool may round them up
+            _sizeOf=new int[ringSize];
+            // The arrays for gathering writes of 1 to ringSize buffers, so a write allocates none
+            _gathers=new ByteBuffer[ringSize+1][];
+            for (int i=1;i<=ringSize;i++)
+                _gathers[i]=new ByteBuffer[i];
+        }
+
+        @Override
+        public void onOpen()
+        {
+            super.onOpen();
+            if (__statistics)
+                __helper.startStatistics();
+            fillInterested();
+        }
+
+        @Override
+        public void onClose()
+        {
+            if (__statistics)
+            {
+                System.err.println(_sizes+", written in "+_writes+" writes, paused "+_pauses+" times");
+                System.err.println(_sizes.getHistogram());
+                _sizes.emit("EchoConnection9Server");
+            }
+            synchronized (this)
+            {
+                for (int i=0;i<_ring.length;i++)
+                    release(i);
+            }
+            if (__statistics)
+            {
+                if (_bufferPool instanceof BoundedByteBufferPool)
+                    System.err.println(_bufferPool);
+                __helper.stopStatistics();
+            }
+            super.onClose();
+        }
+
+        @Override
+        public void onFillable()
+        {
+            try
+            {
+                EndPoint endp=getEndPoint();
+                while (true)
+                {
+                    ByteBuffer buffer;
+                    synchronized (this)
+                    {
+                        if (_writing+_pending==_ring.length)
+                        {
+                            // Back pressure: fill again once a write has freed some buffers
+                            _paused=true;
+                            _pauses++;
+                            return;
+                        }
+                        int tail=(_head+_writing+_pending)%_ring.length;
+                        int size=_sizes.getSize();
+                        if (_sizeOf[tail]!=size)
+                            release(tail);
+                        if (_ring[tail]==null)
+                        {
+                            _ring[tail]=_bufferPool==null?BufferUtil.allocate(size):_bufferPool.acquire(size,false);
+                            _sizeOf[tail]=size;
+                        }
+                        buffer=_ring[tail];
+                    }
+
+                    // The free slot at the tail is only used by this thread
+                    int len=endp.fill(buffer);
+                    if (len<0)
+                    {
+                        boolean close;
+                        synchronized (this)
+                        {
+                            _closing=true;
+                            close=_writing+_pending==0;
+                        }
+                        if (close)
+                            endp.close();
+                        return;
+                    }
+
+                    if (len==0)
+                    {
+                        synchronized (this)
+                        {
+                            // Nothing more to read for now, so only keep the buffers still to be written
+                            for (int i=_writing+_pending;i<_ring.length;i++)
+                                release((_head+i)%_ring.length);
+                        }
+                        fillInterested();
+                        return;
+                    }
+
+                    _sizes.filled(len,buffer.capacity());
+                    synchronized (this)
+                    {
+                        _pending++;
+                    }
+                    write();
+                }
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+                getEndPoint().close();
+            }
+        }
+
+        /**
+         * Write all the pending buffers with one gathering write, unless a write is already
+         * in progress, in which case they are written once it completes.
+         */
+        private void write()
+        {
+            ByteBuffer[] gather;
+            synchronized (this)
+            {
+                if (_writing>0 || _pending==0)
+                    return;
+                gather=_gathers[_pending];
+                for (int i=0;i<gather.length;i++)
+                    gather[i]=_ring[(_head+i)%_ring.length];
+                _writing=_pending;
+                _pending=0;
+                _writes++;
+            }
+            getEndPoint().write(_writeCallback,gather);
+        }
+
+        private void release(int slot)
+        {
+            if (_ring[slot]!=null)
+            {
+                if (_bufferPool!=null)
+                    _bufferPool.release(_ring[slot]);
+                _ring[slot]=null;
+                _sizeOf[slot]=0;
+            }
+        }
+
+        private class WriteCallback implements Callback
+        {
+            @Override
+            public void succeeded()
+            {
+                boolean resume;
+                boolean close;
+                synchronized (EchoConnection.this)
+                {
+                    // The written buffers become free slots, kept for the next fills
+                    for (int i=0;i<_writing;i++)
+                        BufferUtil.clear(_ring[(_head+i)%_ring.length]);
+                    _head=(_head+_writing)%_ring.length;
+                    _writing=0;
+                    resume=_paused;
+                    _paused=false;
+                    close=_closing && _pending==0;
+                }
+                if (close)
+                    getEndPoint().close();
+                else
+                    write();
+                if (resume)
+                    fillInterested();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                x.printStackTrace();
+                getEndPoint().close();
+            }
+        }
+    }
+
+    /**
+     * Echoes each fill with a write of the single buffer that the thread blocks on.
+     */
+    public static class BlockingEchoConnection extends AbstractConnection
+    {
+        final ByteBufferPool _bufferPool;
+        ByteBuffer _buffer;
+        BlockingCallback _callback = new BlockingCallback();
+        final AdaptiveBufferSize _sizes = new AdaptiveBufferSize();
+        
+        public BlockingEchoConnection(ByteBufferPool pool, EndPoint endp, Executor executor)
+        {
+            super(endp,executor);
+            _bufferPool=pool;
+            if (_bufferPool==null)
+                _buffer = BufferUtil.allocate(_sizes.getSize());
+        }
+
+        @Override
+        public void onOpen()
+        {
+            super.onOpen();
+            if (__statistics)
+                __helper.startStatistics();
+            fillInterested();
+        }
+        
+        @Override
+        public void onClose()
+        {
+            if (__statistics)
+            {
+                System.err.println(_sizes);
+                System.err.println(_sizes.getHistogram());
+                _sizes.emit("EchoConnection9Server");
+                __helper.stopStatistics();
+            }
+            super.onClose();
+        }
+
+        @Override
+        public void onFillable()
+        {
+            try
+            {
+                if (_buffer==null)
+                    _buffer=_bufferPool.acquire(_sizes.getSize(),false);
+                    
+                while(true)
+                {
+                    // The buffer has been written, so swap it for one of the adapted size
+                    if (_buffer.capacity()!=_sizes.getSize())
+                    {
+                        if (_bufferPool==null)
+                            _buffer=BufferUtil.allocate(_sizes.getSize());
+                        else
+                        {
+                            _bufferPool.release(_buffer);
+                            _buffer=_bufferPool.acquire(_sizes.getSize(),false);
+                        }
+                    }
+
+                    EndPoint endp=getEndPoint();
+                    int len=endp.fill(_buffer);
+                    if (len<0)
+                        endp.close();
+
+                    if (len<=0)
+                        break;
+
+                    _sizes.filled(len,_buffer.capacity());
+
+                    if (_buffer.hasRemaining())
+                    {
+                        endp.write(_callback,_buffer);
+                        _callback.block();
+                    }
+                }
+
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+            }
+            if (_bufferPool!=null && _buffer!=null)
+            {
+                _bufferPool.release(_buffer);
+                _buffer=null;
+            }
+            fillInterested();
+        }
+        
+    }
+}
@@ -0,0 +1,258 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Compares how the echo servers scale with the number of connections: the selector based
+ * {@link EchoConnection9Server}, and the blocking {@link EchoChannelEndPoint9Server} with a
+ * platform thread or a virtual thread per connection, the latter only if the JVM has them
+ * (Java 21).
+ * <p>
+ * All the connections are open at once, and each sends a message and waits for its echo
+ * before it sends the next. As there cannot be a client thread per connection either, the
+ * connections are driven by a few client threads, each selecting over its share of them.
+ * The connections are bound to several loopback addresses, as the ephemeral ports of one
+ * are fewer than 100k, and are reset when closed, so that they do not hold their ports
+ * in TIME_WAIT for the next run.
+ * <p>
+ * Each connection takes two file descriptors of this JVM, so 100k connections need a
+ * <code>ulimit -n</code> above 200k. A server that cannot accept more connections, eg
+ * because it cannot start more platform threads, fails the connects with a timeout, which
+ * is recorded in the matrix instead of the throughput.
+ * <p>
+ * The connections are set by the <code>sweep.connections</code> system property (default
+ * 100,10000,100000), and the message and durations as for the {@link EchoSweep}.
+ */
+public class EchoScaleBenchmark extends EchoSweep
+{
+    static final int ADDRESSES=16;
+    static final int CONNECT_TIMEOUT=10000;
+
+    public EchoScaleBenchmark()
+    {
+        super("EchoScale");
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] connections=values("sweep.connections","100,10000,100000");
+
+        EchoScaleBenchmark benchmark = new EchoScaleBenchmark();
+        EchoConnection9Server.__statistics=false;
+        EchoChannelEndPoint9Server.__statistics=false;
+
+        List<Echo> echoes = new ArrayList<>();
+        echoes.add(new Connector(-1,-1,200,"default"));
+        echoes.add(new ThreadPerConnection(ConnectionThreads.PLATFORM));
+        if (ConnectionThreads.hasVirtualThreads())
+            echoes.add(new ThreadPerConnection(ConnectionThreads.VIRTUAL));
+        else
+            System.err.printf("No virtual threads in Java %s, they need Java 21%n",System.getProperty("java.version"));
+
+        for (Echo echo : echoes)
+            for (int c : connections)
+                benchmark.test(echo,c);
+
+        benchmark.report(connections);
+    }
+
+    @Override
+    void test(Echo echo, int connections) throws Exception
+    {
+        int port=echo.start();
+        int cpus=Runtime.getRuntime().availableProcessors();
+        Driver[] drivers = new Driver[Math.max(1,Math.min(4,cpus/2))];
+        List<SocketChannel> channels = new ArrayList<>(connections);
+        try
+        {
+            Throwable failure=null;
+            try
+            {
+                for (int i=0;i<drivers.length;i++)
+                    drivers[i]=new Driver(_message);
+                InetSocketAddress server = new InetSocketAddress("127.0.0.1",port);
+                for (int i=0;i<connections;i++)
+                {
+                    SocketChannel channel = SocketChannel.open();
+                    channels.add(channel);
+                    channel.bind(new InetSocketAddress("127.0.0."+(1+i%ADDRESSES),0));
+                    channel.socket().connect(server,CONNECT_TIMEOUT);
+                    channel.socket().setTcpNoDelay(true);
+                    drivers[i%drivers.length].add(channel);
+                }
+            }
+            catch (IOException e)
+            {
+                failure=e;
+            }
+
+            Histogram latencies = new Histogram(HIGHEST,3);
+            long requests=0;
+            if (failure==null)
+            {
+                // Measure once all the connections are open and warmed up
+                long measure=System.nanoTime()+_warmup;
+                long end=measure+_duration;
+                for (Driver driver : drivers)
+                    driver.begin(measure,end);
+                for (Driver driver : drivers)
+                {
+                    driver.join();
+                    latencies.add(driver._latencies);
+                    requests+=driver._requests;
+                    if (failure==null)
+                        failure=driver._failure;
+                }
+            }
+            else
+            {
+                System.err.printf("%s failed after %,d connections%n",echo,channels.size());
+            }
+
+            record(echo,connections,requests,latencies,failure);
+        }
+        finally
+        {
+            for (SocketChannel channel : channels)
+            {
+                try
+                {
+                    if (channel.isConnected())
+                        channel.socket().setSoLinger(true,0);
+                    channel.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+            for (Driver driver : drivers)
+                if (driver!=null)
+                    driver._selector.close();
+            echo.stop();
+        }
+    }
+
+    /**
+     * The state of the message in flight on a connection.
+     */
+    private static class Exchange
+    {
+        final ByteBuffer _request;
+        final ByteBuffer _response;
+        long _begin;
+
+        Exchange(ByteBuffer request)
+        {
+            _request=request;
+            _response=ByteBuffer.allocate(request.capacity());
+        }
+    }
+
+    /**
+     * A client thread that sends a message on each of its connections, and sends the next
+     * on each once its echo has been read.
+     */
+    private static class Driver extends Thread
+    {
+        final Selector _selector;
+        final ByteBuffer _message;
+        final Histogram _latencies = new Histogram(HIGHEST,3);
+        long _measure;
+        long _end;
+        long _requests;
+        IOException _failure;
+
+        Driver(int message) throws IOException
+        {
+            _selector=Selector.open();
+            _message=ByteBuffer.allocate(message);
+            while (_message.hasRemaining())
+                _message.put((byte)('a'+_message.position()%26));
+        }
+
+        void add(SocketChannel channel) throws IOException
+        {
+            channel.configureBlocking(false);
+            // The connections share the bytes of the message, but not its position
+            channel.register(_selector,0,new Exchange(_message.duplicate()));
+        }
+
+        void begin(long measure, long end)
+        {
+            _measure=measure;
+            _end=end;
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (SelectionKey key : _selector.keys())
+                    send(key);
+
+                while (System.nanoTime()<_end)
+                {
+                    _selector.select(100);
+                    Iterator<SelectionKey> selected=_selector.selectedKeys().iterator();
+                    while (selected.hasNext())
+                    {
+                        SelectionKey key=selected.next();
+                        selected.remove();
+                        SocketChannel channel=(SocketChannel)key.channel();
+                        Exchange exchange=(Exchange)key.attachment();
+
+                        if (key.isWritable())
+                        {
+                            channel.write(exchange._request);
+                            if (!exchange._request.hasRemaining())
+                                key.interestOps(SelectionKey.OP_READ);
+                        }
+                        else if (key.isReadable())
+                        {
+                            if (channel.read(exchange._response)<0)
+                                throw new EOFException();
+                            if (!exchange._response.hasRemaining())
+                            {
+                                if (exchange._begin>=_measure)
+                                {
+                                    long latency=System.nanoTime()-exchange._begin;
+                                    _latencies.recordValue(latency>HIGHEST?HIGHEST:latency);
+                                    _requests++;
+                                }
+                                send(key);
+                            }
+                        }
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                _failure=e;
+            }
+        }
+
+        private void send(SelectionKey key) throws IOException
+        {
+            Exchange exchange=(Exchange)key.attachment();
+            exchange._begin=System.nanoTime();
+            exchange._request.clear();
+            exchange._response.clear();
+            ((SocketChannel)key.channel()).write(exchange._request);
+            key.interestOps(exchange._request.hasRemaining()?SelectionKey.OP_WRITE:SelectionKey.OP_READ);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+
+/**
+ * Sweeps the configurations of a {@link ServerConnector} of {@link EchoConnection9Server}:
+ * the numbers of acceptors and selectors, the maximum threads of the executor, and the
+ * <code>ExecutionStrategy</code> of the selectors. Jetty 9.3 takes the strategy from a system
+ * property when the connector starts; Jetty 9.2 has no strategies, so only the default is
+ * swept there. The thread per connection {@link EchoChannelEndPoint9Server} is the baseline,
+ * with platform threads, and with virtual threads if the JVM has them.
+ * <p>
+ * Each configuration is loaded by several numbers of connections, each of which sends a
+ * message and waits for its echo before it sends the next, and the throughput and the
+ * latency of each are printed as a matrix of the configurations by the connections.
+ * <p>
+ * The sweep is set by system properties of comma separated values: <code>sweep.acceptors</code>,
+ * <code>sweep.selectors</code>, <code>sweep.threads</code>, <code>sweep.strategies</code> and
+ * <code>sweep.connections</code>, plus the <code>sweep.message</code> size in bytes and the
+ * <code>sweep.warmup</code> and <code>sweep.duration</code> in seconds. A configuration with
+ * fewer threads than its acceptors and selectors need is skipped.
+ * <pre>
+ * java -Dsweep.selectors=1,4 -Dsweep.strategies=ProduceConsume,ExecuteProduceConsume org.eclipse.jetty.benchmark.EchoSweep
+ * </pre>
+ */
+public class EchoSweep
+{
+    static final String STRATEGY_PROPERTY="org.eclipse.jetty.io.ManagedSelector$SelectorProducer.ExecutionStrategy";
+    static final String STRATEGY_PACKAGE="org.eclipse.jetty.util.thread.strategy.";
+    static final long HIGHEST=TimeUnit.SECONDS.toNanos(60);
+    static final int BACKLOG=1024;
+
+    final String _benchmark;
+    final int _message=Integer.getInteger("sweep.message",64);
+    final long _warmup=TimeUnit.SECONDS.toNanos(Integer.getInteger("sweep.warmup",2));
+    final long _duration=TimeUnit.SECONDS.toNanos(Integer.getInteger("sweep.duration",5));
+    final Map<String,Map<Integer,String>> _matrix = new LinkedHashMap<>();
+
+    public EchoSweep()
+    {
+        this("EchoSweep");
+    }
+
+    /**
+     * @param benchmark The name of the benchmark that the results are emitted as
+     */
+    protected EchoSweep(String benchmark)
+    {
+        _benchmark=benchmark;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int cpus=Runtime.getRuntime().availableProcessors();
+        int[] acceptors=values("sweep.acceptors","1,2");
+        int[] selectors=values("sweep.selectors","1,"+Math.max(1,cpus/2)+","+cpus);
+        int[] threads=values("sweep.threads","8,32,200");
+        int[] connections=values("sweep.connections","1,16,128");
+        String[] strategies=System.getProperty("sweep.strategies",hasStrategies()
+            ?"default,ProduceConsume,ProduceExecuteConsume,ExecuteProduceConsume":"default").split(",");
+
+        EchoSweep sweep = new EchoSweep();
+        EchoConnection9Server.__statistics=false;
+        EchoChannelEndPoint9Server.__statistics=false;
+
+        List<Echo> echoes = new ArrayList<>();
+        echoes.add(new ThreadPerConnection(ConnectionThreads.PLATFORM));
+        if (ConnectionThreads.hasVirtualThreads())
+            echoes.add(new ThreadPerConnection(ConnectionThreads.VIRTUAL));
+        for (int a : acceptors)
+            for (int s : selectors)
+                for (int t : threads)
+                    for (String strategy : strategies)
+                        if (t>a+s)
+                            echoes.add(new Connector(a,s,t,strategy));
+                        else
+                            System.err.printf("Skipped acceptors=%d selectors=%d with %d threads%n",a,s,t);
+
+        for (Echo echo : echoes)
+            for (int c : connections)
+                sweep.test(echo,c);
+
+        sweep.report(connections);
+    }
+
+    static int[] values(String property, String defaults)
+    {
+        String[] values=System.getProperty(property,defaults).split(",");
+        // Distinct values, in order, as the defaults may repeat for few cpus
+        int[] distinct=new int[values.length];
+        int n=0;
+        loop: for (String value : values)
+        {
+            int v=Integer.parseInt(value.trim());
+            for (int i=0;i<n;i++)
+                if (distinct[i]==v)
+                    continue loop;
+            distinct[n++]=v;
+        }
+        int[] result=new int[n];
+        System.arraycopy(distinct,0,result,0,n);
+        return result;
+    }
+
+    private static boolean hasStrategies()
+    {
+        try
+        {
+            Class.forName("org.eclipse.jetty.util.thread.ExecutionStrategy");
+            return true;
+        }
+        catch (ClassNotFoundException e)
+        {
+            return false;
+        }
+    }
+
+    void test(Echo echo, int connections) throws Exception
+    {
+        int port=echo.start();
+        try
+        {
+            Client[] clients = new Client[connections];
+            for (int i=0;i<connections;i++)
+                clients[i]=new Client(port,_message);
+
+            // Measure once all the connections are open and warmed up
+            long measure=System.nanoTime()+_warmup;
+            long end=measure+_duration;
+            for (Client client : clients)
+                client.begin(measure,end);
+
+            Histogram latencies = new Histogram(HIGHEST,3);
+            long requests=0;
+            IOException failure=null;
+            for (Client client : clients)
+            {
+                client.join();
+                latencies.add(client._latencies);
+                requests+=client._requests;
+                if (failure==null)
+                    failure=client._failure;
+            }
+
+            record(echo,connections,requests,latencies,failure);
+        }
+        finally
+        {
+            echo.stop();
+        }
+    }
+
+    /**
+     * Record the requests and the latencies measured for the duration, in the matrix and as results.
+     * @param failure The failure of the clients or the server, if any, which is recorded instead
+     */
+    void record(Echo echo, int connections, long requests, Histogram latencies, Throwable failure)
+    {
+        long elapsed=_duration;
+        String cell=failure==null
+            ?String.format("%,9d/s %,7dus",requests*TimeUnit.SECONDS.toNanos(1)/elapsed,latencies.getValueAtPercentile(99)/1000)
+            :"failed "+failure.getClass().getSimpleName();
+        System.err.printf("%s connections=%d: %s p50=%,dus%n",echo,connections,failure==null?cell:failure,latencies.getValueAtPercentile(50)/1000);
+        Map<Integer,String> row=_matrix.get(echo.toString());
+        if (row==null)
+            _matrix.put(echo.toString(),row=new LinkedHashMap<Integer,String>());
+        row.put(connections,cell);
+
+        if (failure==null)
+            echo.params(new Measurement(_benchmark))
+                .param("connections",connections)
+                .elapsed(elapsed)
+                .throughput(requests,elapsed,"requests/s")
+                .latency("p50",latencies.getValueAtPercentile(50))
+                .latency("p99",latencies.getValueAtPercentile(99))
+                .latency("max",latencies.getMaxValue())
+                .emit();
+    }
+
+    void report(int[] connections)
+    {
+        int width=0;
+        for (String echo : _matrix.keySet())
+            width=Math.max(width,echo.length());
+
+        System.err.printf("%nThroughput and p99 latency by connections:%n%-"+width+"s",Runtime.getRuntime().availableProcessors()+" cpus");
+        for (int c : connections)
+            System.err.printf(" | %20s",c);
+        System.err.println();
+        for (Map.Entry<String,Map<Integer,String>> row : _matrix.entrySet())
+        {
+            System.err.printf("%-"+width+"s",row.getKey());
+            for (int c : connections)
+                System.err.printf(" | %20s",row.getValue().get(c));
+            System.err.println();
+        }
+    }
+
+    /**
+     * A configuration of an echo server.
+     */
+    abstract static class Echo
+    {
+        /**
+         * @return The port that the server listens on
+         */
+        abstract int start() throws Exception;
+
+        abstract void stop() throws Exception;
+
+        abstract Measurement params(Measurement measurement);
+    }
+
+    static class Connector extends Echo
+    {
+        int _acceptors;
+        int _selectors;
+        final int _threads;
+        final String _strategy;
+        Server _server;
+
+        /**
+         * @param acceptors The number of acceptors, or -1 for the default of the connector
+         * @param selectors The number of selectors, or -1 for the default of the connector
+         */
+        Connector(int acceptors, int selectors, int threads, String strategy)
+        {
+            _acceptors=acceptors;
+            _selectors=selectors;
+            _threads=threads;
+            _strategy=strategy;
+        }
+
+        @Override
+        int start() throws Exception
+        {
+            if (EchoConnection9Server.__bufferPool==null)
+                EchoConnection9Server.__bufferPool=new ArrayByteBufferPool();
+            _server = new Server(new QueuedThreadPool(_threads));
+            ServerConnector connector = new ServerConnector(_server,_acceptors,_selectors,new EchoConnection9Server.EchoConnectionFactory());
+            connector.setPort(0);
+            connector.setAcceptQueueSize(BACKLOG);
+            _server.addConnector(connector);
+
+            // The selectors read the strategy when they are created, as the connector starts
+            if ("default".equals(_strategy))
+                System.clearProperty(STRATEGY_PROPERTY);
+            else
+                System.setProperty(STRATEGY_PROPERTY,STRATEGY_PACKAGE+_strategy);
+            try
+            {
+                _server.start();
+            }
+            finally
+            {
+                System.clearProperty(STRATEGY_PROPERTY);
+            }
+            _acceptors=connector.getAcceptors();
+            _selectors=connector.getSelectorManager().getSelectorCount();
+            return connector.getLocalPort();
+        }
+
+        @Override
+        void stop() throws Exception
+        {
+            _server.stop();
+        }
+
+        @Override
+        Measurement params(Measurement measurement)
+        {
+            return measurement
+                .param("server","EchoConnection9Server")
+                .param("acceptors",_acceptors)
+                .param("selectors",_selectors)
+                .param("threads",_threads)
+                .param("strategy",_strategy);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("acceptors=%d selectors=%d threads=%d %s",_acceptors,_selectors,_threads,_strategy);
+        }
+    }
+
+    static class ThreadPerConnection extends Echo
+    {
+        final String _mode;
+        Executor _executor;
+        ServerSocketChannel _channel;
+        TimerScheduler _scheduler;
+        Thread _acceptor;
+
+        /**
+         * @param mode The {@link ConnectionThreads} that each connection is echoed by
+         */
+        ThreadPerConnection(String mode)
+        {
+            _mode=mode;
+        }
+
+        @Override
+        int start() throws Exception
+        {
+            _executor=ConnectionThreads.newExecutor(_mode);
+            _scheduler = new TimerScheduler();
+            _scheduler.start();
+            _channel = ServerSocketChannel.open();
+            _channel.bind(new InetSocketAddress(0),BACKLOG);
+            _acceptor = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        EchoChannelEndPoint9Server.serve(_channel,_scheduler,_executor);
+                    }
+                    catch (ClosedChannelException e)
+                    {
+                        // Stopped
+                    }
+                    catch (IOException e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            _acceptor.start();
+            return _channel.socket().getLocalPort();
+        }
+
+        @Override
+        void stop() throws Exception
+        {
+            _channel.close();
+            _acceptor.join();
+            _scheduler.stop();
+            // The threads of the connections end as their clients close
+            if (_executor instanceof ExecutorService)
+                ((ExecutorService)_executor).shutdown();
+        }
+
+        @Override
+        Measurement params(Measurement measurement)
+        {
+            return measurement.param("server","EchoChannelEndPoint9Server").param("executor",_mode);
+        }
+
+        @Override
+        public String toString()
+        {
+            return _mode+" thread per connection";
+        }
+    }
+
+    /**
+     * A connection that sends a message and waits for its echo, then sends the next.
+     */
+    private static class Client extends Thread
+    {
+        final SocketChannel _channel;
+        final ByteBuffer _request;
+        final ByteBuffer _response;
+        final Histogram _latencies = new Histogram(HIGHEST,3);
+        long _measure;
+        long _end;
+        long _requests;
+        IOException _failure;
+
+        Client(int port, int message) throws IOException
+        {
+            _channel=SocketChannel.open(new InetSocketAddress("localhost",port));
+            _channel.socket().setTcpNoDelay(true);
+            _request=ByteBuffer.allocate(message);
+            _response=ByteBuffer.allocate(message);
+            while (_request.hasRemaining())
+                _request.put((byte)('a'+_request.position()%26));
+        }
+
+        void begin(long measure, long end)
+        {
+            _measure=measure;
+            _end=end;
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    long begin=System.nanoTime();
+                    if (begin>=_end)
+                        break;
+
+                    _request.clear();
+                    while (_request.hasRemaining())
+                        _channel.write(_request);
+                    _response.clear();
+                    while (_response.hasRemaining())
+                        if (_channel.read(_response)<0)
+                            throw new EOFException();
+
+                    if (begin>=_measure)
+                    {
+                        long latency=System.nanoTime()-begin;
+                        _latencies.recordValue(latency>HIGHEST?HIGHEST:latency);
+                        _requests++;
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                _failure=e;
+            }
+            finally
+            {
+                try
+                {
+                    _channel.close();
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+
+/**
+ * A request header parser that does not materialise the request line or the fields.
+ * <p>
+ * The Jetty <code>HttpParser</code> creates an <code>HttpField</code> with name and value strings for
+ * every header before the handler sees it, which is wasted for the fields that are
+ * never read, eg when a proxy passes them through. This parser only records where the
+ * method, URI, names and values are in the buffer. The method and the header names are
+ * resolved to constants through {@link HttpMethod#CACHE} and {@link HttpHeader#CACHE},
+ * and everything else is only decoded to a <code>String</code> when asked for, or exposed
+ * as a view of the buffer.
+ * <p>
+ * The views and offsets are only valid until the buffer is reused. Only the header
+ * block is parsed: the caller deals with any body. Folded headers are not supported.
+ */
+public class LazyRequestParser
+{
+    private final HttpHeader[] _headers;
+    private final int[] _nameStart;
+    private final int[] _nameEnd;
+    private final int[] _valueStart;
+    private final int[] _valueEnd;
+    private ByteBuffer _buffer;
+    private HttpMethod _method;
+    private int _methodStart;
+    private int _methodEnd;
+    private int _uriStart;
+    private int _uriEnd;
+    private int _fields;
+
+    /**
+     * @param maxFields The maximum number of fields of a request
+     */
+    public LazyRequestParser(int maxFields)
+    {
+        _headers=new HttpHeader[maxFields];
+        _nameStart=new int[maxFields];
+        _nameEnd=new int[maxFields];
+        _valueStart=new int[maxFields];
+        _valueEnd=new int[maxFields];
+    }
+
+    /**
+     * Parse the header block of the request at the position of the buffer.
+     * @param buffer The buffer
+     * @return true with the buffer positioned after the header block if it is complete,
+     * or false with the buffer unchanged if more bytes are needed.
+     * @throws IllegalArgumentException if the request is bad or has too many fields
+     */
+    public boolean parse(ByteBuffer buffer)
+    {
+        _buffer=buffer;
+        _fields=0;
+        int position=buffer.position();
+        int limit=buffer.limit();
+
+        // Request line
+        int eol=endOfLine(buffer,position,limit);
+        if (eol<0)
+            return false;
+        int end=trimCR(buffer,position,eol);
+        _methodStart=position;
+        _methodEnd=indexOf(buffer,position,end,' ');
+        _uriStart=_methodEnd+1;
+        _uriEnd=indexOf(buffer,_uriStart,end,' ');
+        if (_methodEnd<=position || _uriEnd<=_uriStart)
+            throw new IllegalArgumentException("Bad request line");
+        _method=HttpMethod.CACHE.getBest(buffer,0,_methodEnd-position);
+        if (_method!=null && _method.asString().length()!=_methodEnd-position)
+            _method=null;
+
+        // Fields
+        int line=eol+1;
+        while (true)
+        {
+            eol=endOfLine(buffer,line,limit);
+            if (eol<0)
+            {
+                _fields=0;
+                return false;
+            }
+            end=trimCR(buffer,line,eol);
+            if (end==line)
+                break;
+
+            byte first=buffer.get(line);
+            if (first==' ' || first=='\t')
+                throw new IllegalArgumentException("Folded header");
+            int colon=indexOf(buffer,line,end,':');
+            if (colon<=line)
+                throw new IllegalArgumentException("Bad header");
+            if (_fields==_headers.length)
+                throw new IllegalArgumentException("Too many fields");
+
+            HttpHeader header=HttpHeader.CACHE.getBest(buffer,line-position,colon-line);
+            _headers[_fields]=header!=null && header.asString().length()==colon-line?header:null;
+            _nameStart[_fields]=line;
+            _nameEnd[_fields]=colon;
+
+            int start=colon+1;
+            while (start<end && isWhitespace(buffer.get(start)))
+                start++;
+            while (end>start && isWhitespace(buffer.get(end-1)))
+                end--;
+            _valueStart[_fields]=start;
+            _valueEnd[_fields]=end;
+            _fields++;
+            line=eol+1;
+        }
+
+        buffer.position(eol+1);
+        return true;
+    }
+
+    /**
+     * @return The method, or null if it is not a well known method
+     */
+    public HttpMethod getMethod()
+    {
+        return _method;
+    }
+
+    public String getMethodString()
+    {
+        return _method!=null?_method.asString():toString(_methodStart,_methodEnd);
+    }
+
+    public String getURI()
+    {
+        return toString(_uriStart,_uriEnd);
+    }
+
+    /**
+     * @return A view of the URI in the buffer
+     */
+    public ByteBuffer getURIBuffer()
+    {
+        return view(_uriStart,_uriEnd);
+    }
+
+    /**
+     * @return The number of fields
+     */
+    public int size()
+    {
+        return _fields;
+    }
+
+    /**
+     * @return The header of the i<sup>th</sup> field, or null if it is not a well known header
+     */
+    public HttpHeader getHeader(int i)
+    {
+        return _headers[i];
+    }
+
+    public String getName(int i)
+    {
+        HttpHeader header=_headers[i];
+        return header!=null?header.asString():toString(_nameStart[i],_nameEnd[i]);
+    }
+
+    public String getValue(int i)
+    {
+        return toString(_valueStart[i],_valueEnd[i]);
+    }
+
+    /**
+     * @return A view of the value of the i<sup>th</sup> field in the buffer
+     */
+    public ByteBuffer getValueBuffer(int i)
+    {
+        return view(_valueStart[i],_valueEnd[i]);
+    }
+
+    /**
+     * @return The value of the first field with the header, or null if there is none
+     */
+    public String getValue(HttpHeader header)
+    {
+        for (int i=0;i<_fields;i++)
+            if (_headers[i]==header)
+                return getValue(i);
+        return null;
+    }
+
+    private ByteBuffer view(int start, int end)
+    {
+        ByteBuffer view=_buffer.duplicate();
+        view.limit(end);
+        view.position(start);
+        return view;
+    }
+
+    private String toString(int start, int end)
+    {
+        if (_buffer.hasArray())
+            return new String(_buffer.array(),_buffer.arrayOffset()+start,end-start,StandardCharsets.ISO_8859_1);
+        char[] chars = new char[end-start];
+        for (int i=start;i<end;i++)
+            chars[i-start]=(char)(_buffer.get(i)&0xFF);
+        return new String(chars);
+    }
+
+    private static int endOfLine(ByteBuffer buffer, int from, int limit)
+    {
+        return indexOf(buffer,from,limit,'\n');
+    }
+
+    private static int trimCR(ByteBuffer buffer, int start, int eol)
+    {
+        return eol>start && buffer.get(eol-1)=='\r'?eol-1:eol;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, char c)
+    {
+        for (int i=from;i<to;i++)
+            if (buffer.get(i)==c)
+                return i;
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b)
+    {
+        return b==' ' || b=='\t';
+    }
+}
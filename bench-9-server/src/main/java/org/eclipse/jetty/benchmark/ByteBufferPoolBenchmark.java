@@ -0,0 +1,132 @@
+package org.eclipse.jetty.benchmark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
+
+/**
+ * Acquires and releases direct buffers from several threads, to compare the throughput
+ * and the retained memory of the {@link BoundedByteBufferPool} with those of Jetty's
+ * {@link ArrayByteBufferPool} and {@link MappedByteBufferPool}.
+ * <p>
+ * The sizes are those that adaptive reads ask for, mostly 4KB and less, with some up to
+ * 64KB. In the steady pattern each thread holds a few buffers at a time, like connections
+ * that read and write; in the burst pattern each thread acquires many buffers before it
+ * releases them all, like a burst of slow clients, which unbounded pools keep forever.
+ */
+public class ByteBufferPoolBenchmark
+{
+    static Random random = new Random();
+    static final int[] SIZES = {512,1024,2048,4096,4096,4096,4096,8192,16384,65536};
+
+    final BenchmarkHelper helper = new BenchmarkHelper();
+
+    public static void main(String[] args) throws Exception
+    {
+        ByteBufferPoolBenchmark bm = new ByteBufferPoolBenchmark();
+        int cpus=Runtime.getRuntime().availableProcessors();
+        int runs=3;
+        for (String pattern : new String[]{"steady","burst"})
+            for (int threads : new int[]{1,2*cpus,8*cpus})
+                for (String pool : new String[]{"array","mapped","bounded"})
+                    for (int i=0;i<runs;i++)
+                        bm.test(pool,pattern,threads,4000000/threads);
+    }
+
+    static ByteBufferPool newPool(String pool)
+    {
+        switch (pool)
+        {
+            case "array":
+                return new ArrayByteBufferPool();
+            case "mapped":
+                return new MappedByteBufferPool();
+            default:
+                // 8MB is less than a burst of many threads, so that its eviction is measured
+                return new BoundedByteBufferPool(1024,64*1024,8*1024*1024,Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private void test(String name, String pattern, int threads, final int operations) throws Exception
+    {
+        long before=directMemoryUsed();
+        final ByteBufferPool pool=newPool(name);
+        final int held="burst".equals(pattern)?256:4;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t=0;t<threads;t++)
+        {
+            final int[] sizes = new int[1<<12];
+            for (int i=0;i<sizes.length;i++)
+                sizes[i]=SIZES[random.nextInt(SIZES.length)];
+            workers[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        ByteBuffer[] buffers = new ByteBuffer[held];
+                        start.await();
+                        for (int o=0;o<operations;)
+                        {
+                            // Acquire all the buffers held, then release them, oldest first
+                            for (int b=0;b<held;b++,o++)
+                                buffers[b]=pool.acquire(sizes[o&(sizes.length-1)],true);
+                            for (int b=0;b<held;b++)
+                                pool.release(buffers[b]);
+                        }
+                    }
+                    catch (InterruptedException x)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        helper.startStatistics();
+        long begin=System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        long elapsed=System.nanoTime()-begin;
+        helper.stopStatistics();
+
+        // The buffers discarded by the pool are only freed once they have been collected
+        long retained=directMemoryUsed()-before;
+        long acquired=(long)threads*operations;
+        System.err.printf("%s %s threads=%d: %,d acquires/s, %,d KB retained%s%n",name,pattern,threads,
+            acquired*TimeUnit.SECONDS.toNanos(1)/elapsed,retained/1024,pool instanceof BoundedByteBufferPool?" "+pool:"");
+        new Measurement("ByteBufferPool")
+            .param("pool",name)
+            .param("pattern",pattern)
+            .param("threads",threads)
+            .elapsed(elapsed)
+            .throughput(acquired,elapsed,"acquires/s")
+            .metric("retained",retained/1024.0,"KB",false)
+            .emit();
+    }
+
+    private static long directMemoryUsed() throws InterruptedException
+    {
+        System.gc();
+        Thread.sleep(100);
+        for (BufferPoolMXBean bean : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+        {
+            if ("direct".equals(bean.getName()))
+                return bean.getMemoryUsed();
+        }
+        return 0;
+    }
+}
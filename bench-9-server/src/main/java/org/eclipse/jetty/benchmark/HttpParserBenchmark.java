@@ -1,9 +1,16 @@
 package org.eclipse.jetty.benchmark;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpParser;
 import org.eclipse.jetty.http.HttpVersion;
@@ -26,6 +33,9 @@ public class HttpParserBenchmark
     final HttpFields fields = new HttpFields();
     int requests;
     int headers;
+    String host;
+    Map<HttpField,Boolean> seen;
+    long hits;
     
     public static void main(String[] args) throws Exception
     {
@@ -37,11 +47,52 @@ public class HttpParserBenchmark
         bm.test(1000000);
         bm.test(1000000);
         bm.test(10000000);
+
+        // Pipelined corpora, with and without bodies, delivered in fragments
+        for (int body : new int[]{0,1024})
+        {
+            RequestCorpus corpus = new RequestCorpus(100,body,0);
+            int iterations = Math.max(1,50_000_000/corpus.getBytes().length);
+            for (RequestCorpus.Split split : RequestCorpus.Split.values())
+            {
+                bm.testCorpus(corpus,split,iterations);
+                bm.testCorpus(corpus,split,iterations);
+            }
+        }
+
+        // Header cache sizes against synthetic corpora and any HAR or raw request files given
+        List<HeaderCorpus> corpora = new ArrayList<>();
+        for (int cardinality : new int[]{10,100,1000,10000})
+            corpora.add(HeaderCorpus.synthetic(1000,cardinality,1.0,0));
+        for (String arg : args)
+            corpora.add(HeaderCorpus.load(new File(arg)));
+        for (HeaderCorpus corpus : corpora)
+        {
+            int iterations = Math.max(1,50_000_000/corpus.getBytes().length);
+            // 9.2 cannot create an empty cache, so 1 is the smallest size
+            for (int cacheSize : new int[]{1,256,1024,4096,16384,65536})
+            {
+                bm.testHeaders(corpus,cacheSize,iterations);
+                bm.testHeaders(corpus,cacheSize,iterations);
+            }
+        }
+
+        // Allocation of the fields handler vs the lazy parser on the same corpora
+        for (HeaderCorpus corpus : corpora)
+        {
+            int iterations = Math.max(1,50_000_000/corpus.getBytes().length);
+            for (int i=0;i<2;i++)
+            {
+                bm.testLazy(corpus,false,iterations);
+                bm.testLazy(corpus,true,iterations);
+            }
+        }
     }
 
     private void test(int iterations)
     {
         helper.startStatistics();
+        long begin=System.nanoTime();
         try
         {
             ByteBuffer buf=BufferUtil.toBuffer(request);
@@ -61,6 +112,124 @@ public class HttpParserBenchmark
             }
             System.err.println("requests "+requests);
             System.err.println("headers  "+headers);
+            long elapsed=System.nanoTime()-begin;
+            new Measurement("HttpParser")
+                .param("iterations",iterations)
+                .elapsed(elapsed)
+                .throughput(requests,elapsed,"req/s")
+                .emit();
+        }
+        finally
+        {
+            helper.stopStatistics();
+        }
+    }
+
+
+    private void testCorpus(RequestCorpus corpus, RequestCorpus.Split split, int iterations)
+    {
+        // Wrap each chunk once, so that the loop does not allocate
+        byte[] bytes=corpus.getBytes();
+        int[] chunks=corpus.split(split);
+        ByteBuffer[] buffers = new ByteBuffer[chunks.length];
+        for (int c=0,offset=0;c<chunks.length;offset+=chunks[c++])
+            buffers[c]=ByteBuffer.wrap(bytes,offset,chunks[c]).slice();
+
+        HttpParser parser = new HttpParser(new MyHandler(),2048);
+        requests=0;
+        headers=0;
+        System.err.printf("%s split %s into %,d chunks x %,d%n",corpus,split,chunks.length,iterations);
+
+        helper.startStatistics();
+        long begin=System.nanoTime();
+        try
+        {
+            for (int i=0;i<iterations;i++)
+            {
+                for (ByteBuffer buffer : buffers)
+                {
+                    buffer.clear();
+                    while (buffer.hasRemaining())
+                    {
+                        int position=buffer.position();
+                        parser.parseNext(buffer);
+                        if (parser.isState(HttpParser.State.END))
+                        {
+                            parser.reset();
+                            headers+=fields.size();
+                            fields.clear();
+                        }
+                        else if (buffer.position()==position)
+                            throw new IllegalStateException("No progress in "+parser);
+                    }
+                }
+            }
+            long elapsed=System.nanoTime()-begin;
+            long parsed=(long)bytes.length*iterations;
+            if (requests!=(long)corpus.getRequests()*iterations)
+                System.err.printf("parsed %,d of %,d requests%n",requests,(long)corpus.getRequests()*iterations);
+            System.err.printf("%,d requests, %,d headers, %,d bytes in %,d ms: %,d req/s %,.1f MB/s%n",
+                requests,headers,parsed,TimeUnit.NANOSECONDS.toMillis(elapsed),
+                requests*TimeUnit.SECONDS.toNanos(1)/elapsed,parsed*1000.0/elapsed);
+            new Measurement("HttpParserCorpus")
+                .param("requests",corpus.getRequests())
+                .param("bytes",bytes.length)
+                .param("split",split)
+                .elapsed(elapsed)
+                .throughput(requests,elapsed,"req/s")
+                .metric("bytes",parsed*(double)TimeUnit.SECONDS.toNanos(1)/elapsed,"bytes/s",true)
+                .emit();
+        }
+        finally
+        {
+            helper.stopStatistics();
+        }
+    }
+
+    /**
+     * Parse a header corpus with a given header cache size.
+     * <p>
+     * A field is a cache hit if the parser delivers an instance it has delivered before,
+     * either from its static cache of well known fields or from the connection cache.
+     * The hit rate is counted on a pass after a warm up pass, then the timed passes
+     * measure the parse time and the bytes allocated by this thread per request.
+     */
+    private void testHeaders(HeaderCorpus corpus, int cacheSize, int iterations)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(corpus.getBytes());
+        HttpParser parser = new HttpParser(new MyHandler(cacheSize),2048);
+        System.err.printf("%s cache %,d x %,d%n",corpus,cacheSize,iterations);
+
+        seen = new IdentityHashMap<>();
+        parseAll(parser,buffer);
+        hits=0;
+        parseAll(parser,buffer);
+        double hitRate=100.0*hits/corpus.getFields();
+        seen=null;
+        requests=0;
+        headers=0;
+
+        helper.startStatistics();
+        long allocated=Allocation.allocatedBytes();
+        long begin=System.nanoTime();
+        try
+        {
+            for (int i=0;i<iterations;i++)
+                parseAll(parser,buffer);
+            long elapsed=System.nanoTime()-begin;
+            allocated=Allocation.allocatedBytes()-allocated;
+            if (requests!=(long)corpus.getRequests()*iterations)
+                System.err.printf("parsed %,d of %,d requests%n",requests,(long)corpus.getRequests()*iterations);
+            System.err.printf("%,d requests, %,d headers in %,d ms: hits %.1f%% %,d B/req %,d ns/req%n",
+                requests,headers,TimeUnit.NANOSECONDS.toMillis(elapsed),hitRate,allocated/requests,elapsed/requests);
+            new Measurement("HttpParserHeaders")
+                .param("corpus",corpus.getName())
+                .param("cache",cacheSize)
+                .throughput(requests,elapsed,"req/s")
+                .metric("hits",hitRate,"%",true)
+                .metric("alloc",(double)allocated/requests,"B/req",false)
+                .metric("parse",(double)elapsed/requests,"ns/req",false)
+                .emit();
         }
         finally
         {
@@ -68,14 +237,104 @@ public class HttpParserBenchmark
         }
     }
 
+    /**
+     * Parse a header corpus either with the {@link HttpParser} and the handler that
+     * collects the fields, or with the {@link LazyRequestParser}, reading only the
+     * <code>Host</code> as a routing proxy would.
+     */
+    private void testLazy(HeaderCorpus corpus, boolean lazy, int iterations)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(corpus.getBytes());
+        HttpParser parser = new HttpParser(new MyHandler(),2048);
+        LazyRequestParser lazyParser = new LazyRequestParser(256);
+        String handler = lazy?"lazy":"fields";
+        System.err.printf("%s %s x %,d%n",corpus,handler,iterations);
+        requests=0;
+        headers=0;
+
+        helper.startStatistics();
+        long allocated=Allocation.allocatedBytes();
+        long begin=System.nanoTime();
+        try
+        {
+            for (int i=0;i<iterations;i++)
+            {
+                if (lazy)
+                    parseLazy(lazyParser,buffer);
+                else
+                    parseAll(parser,buffer);
+            }
+            long elapsed=System.nanoTime()-begin;
+            allocated=Allocation.allocatedBytes()-allocated;
+            if (requests!=(long)corpus.getRequests()*iterations)
+                System.err.printf("parsed %,d of %,d requests%n",requests,(long)corpus.getRequests()*iterations);
+            System.err.printf("%,d requests, %,d headers in %,d ms: %,d B/req %,d ns/req%n",
+                requests,headers,TimeUnit.NANOSECONDS.toMillis(elapsed),allocated/requests,elapsed/requests);
+            new Measurement("HttpParserLazy")
+                .param("corpus",corpus.getName())
+                .param("handler",handler)
+                .throughput(requests,elapsed,"req/s")
+                .metric("alloc",(double)allocated/requests,"B/req",false)
+                .metric("parse",(double)elapsed/requests,"ns/req",false)
+                .emit();
+        }
+        finally
+        {
+            helper.stopStatistics();
+        }
+    }
+
+    private void parseLazy(LazyRequestParser parser, ByteBuffer buffer)
+    {
+        buffer.clear();
+        while (buffer.hasRemaining())
+        {
+            if (!parser.parse(buffer))
+                throw new IllegalStateException("Incomplete request at "+buffer.position());
+            host=parser.getValue(HttpHeader.HOST);
+            requests++;
+            headers+=parser.size();
+        }
+    }
+
+    private void parseAll(HttpParser parser, ByteBuffer buffer)
+    {
+        buffer.clear();
+        while (buffer.hasRemaining())
+        {
+            int position=buffer.position();
+            parser.parseNext(buffer);
+            if (parser.isState(HttpParser.State.END))
+            {
+                parser.reset();
+                headers+=fields.size();
+                fields.clear();
+            }
+            else if (buffer.position()==position)
+                throw new IllegalStateException("No progress in "+parser);
+        }
+    }
 
     private class MyHandler implements HttpParser.RequestHandler<ByteBuffer>
     {
+        private final int _cacheSize;
+
+        MyHandler()
+        {
+            this(256);
+        }
+
+        MyHandler(int cacheSize)
+        {
+            _cacheSize=cacheSize;
+        }
 
         @Override
         public boolean parsedHeader(HttpField field)
         {
             fields.add(field);
+            if (seen!=null && seen.put(field,Boolean.TRUE)!=null)
+                hits++;
             return false;
         }
 
@@ -123,7 +382,7 @@ public class HttpParserBenchmark
         @Override
         public int getHeaderCacheSize()
         {
-            return 256;
+            return _cacheSize;
         }
     };
 }
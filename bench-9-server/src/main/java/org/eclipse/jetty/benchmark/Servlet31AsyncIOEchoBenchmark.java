@@ -100,6 +100,12 @@ public class Servlet31AsyncIOEchoBenchmark
             test(path, payload);
         long elapsed = System.nanoTime() - start;
         System.err.printf("%s of %d bytes took %d ms%n", path, length, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        new Measurement("ServletIOEcho")
+            .param("path", path)
+            .param("length", length)
+            .elapsed(elapsed)
+            .throughput(iterations, elapsed, "req/s")
+            .emit();
     }
 
     private void test(String path, byte[] payload) throws Exception
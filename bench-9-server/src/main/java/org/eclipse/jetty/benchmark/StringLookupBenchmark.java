@@ -55,6 +55,7 @@ public class StringLookupBenchmark
         
         
         helper.startStatistics();
+        long begin=System.nanoTime();
         
         System.err.println(iterations+" "+trie);
         try
@@ -68,6 +69,13 @@ public class StringLookupBenchmark
                         System.err.println("best="+best+" for "+BufferUtil.toString(buf[t]));
                 }
             }
+            long elapsed=System.nanoTime()-begin;
+            new Measurement("StringLookup")
+                .param("trie",trie.getClass().getSimpleName())
+                .param("iterations",iterations)
+                .elapsed(elapsed)
+                .throughput((long)iterations*lookup.length,elapsed,"lookups/s")
+                .emit();
         }
         finally
         {
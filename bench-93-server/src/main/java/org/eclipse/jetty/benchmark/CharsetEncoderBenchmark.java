@@ -3,7 +3,7 @@ package org.eclipse.jetty.benchmark;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -14,41 +14,91 @@ public class CharsetEncoderBenchmark
 {
     public static void main(String[] args)
     {
-        char[] chars = new char[1024];
-        Arrays.fill(chars, 'x');
-        String data = new String(chars);
-
         Charset charset = Charset.forName("UTF-8");
-        ByteBuffer buffer = ByteBuffer.allocate(2048);
 
         int runs = 5;
         int iterations = 100_000;
-        for (int i = 0; i < runs; ++i)
-            runGetBytes(charset, data, buffer, iterations);
-        for (int i = 0; i < runs; ++i)
-            runGetBytes(charset, data, buffer, iterations);
+        for (String payload : new String[]{"ascii", "latin1", "cjk", "emoji"})
+        {
+            String data = payload(payload, 1024, new Random(0));
+
+            // getBytes() wraps an array of its own, so it does not depend on the buffer
+            for (int i = 0; i < runs; ++i)
+                runGetBytes(charset, payload, data, iterations);
+            for (int i = 0; i < runs; ++i)
+                runGetBytes(charset, payload, data, iterations);
+
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(3072), ByteBuffer.allocateDirect(3072)})
+            {
+                for (int i = 0; i < runs; ++i)
+                    runEncode(charset, payload, data, buffer, iterations);
+                for (int i = 0; i < runs; ++i)
+                    runEncode(charset, payload, data, buffer, iterations);
+
+                for (int i = 0; i < runs; ++i)
+                    runUtf8Encoder(payload, data, buffer, iterations);
+                for (int i = 0; i < runs; ++i)
+                    runUtf8Encoder(payload, data, buffer, iterations);
+            }
+        }
+    }
 
-        for (int i = 0; i < runs; ++i)
-            runEncode(charset, data, buffer, iterations);
-        for (int i = 0; i < runs; ++i)
-            runEncode(charset, data, buffer, iterations);
+    /**
+     * @param payload ascii, latin1 with a fifth of accented letters, cjk with some
+     * punctuation, or emoji, as a fifth of ASCII text
+     * @param length The number of chars
+     * @param random The source of the chars
+     * @return A string of the given kind of text
+     */
+    static String payload(String payload, int length, Random random)
+    {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length)
+        {
+            int r = random.nextInt(5);
+            switch (payload)
+            {
+                case "latin1":
+                    builder.append(r == 0 ? (char)(0xC0 + random.nextInt(0x40)) : (char)('a' + random.nextInt(26)));
+                    break;
+                case "cjk":
+                    builder.append(r == 0 ? '\u3002' : (char)(0x4E00 + random.nextInt(0x5000)));
+                    break;
+                case "emoji":
+                    if (r == 0 && builder.length() + 2 <= length)
+                        builder.appendCodePoint(0x1F600 + random.nextInt(0x50));
+                    else
+                        builder.append((char)('a' + random.nextInt(26)));
+                    break;
+                default:
+                    builder.append(r == 0 ? ' ' : (char)('a' + random.nextInt(26)));
+            }
+        }
+        return builder.toString();
     }
 
-    private static void runGetBytes(Charset charset, String data, ByteBuffer buffer, int iterations)
+    private static void runGetBytes(Charset charset, String payload, String data, int iterations)
     {
+        ByteBuffer buffer = null;
         long start = System.nanoTime();
         for (int i = 0; i < iterations; ++i)
         {
-            buffer.clear();
             // Allocates a byte[] in getBytes(), which is then wrapped.
             // Fast, but allocates a lot.
             buffer = ByteBuffer.wrap(data.getBytes(charset));
         }
         long elapsed = System.nanoTime() - start;
-        System.err.printf("GetBytes took %d ms%n", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        System.err.printf("GetBytes %s took %d ms%n", payload, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        new Measurement("CharsetEncoder")
+            .param("mode", "getBytes")
+            .param("payload", payload)
+            .param("length", data.length())
+            .elapsed(elapsed)
+            .throughput(iterations, elapsed, "strings/s")
+            .emit();
     }
 
-    private static void runEncode(Charset charset, String data, ByteBuffer buffer, int iterations)
+    private static void runEncode(Charset charset, String payload, String data, ByteBuffer buffer, int iterations)
     {
         long start = System.nanoTime();
         for (int i = 0; i < iterations; ++i)
@@ -68,6 +118,37 @@ public class CharsetEncoderBenchmark
             charset.newEncoder().encode(CharBuffer.wrap(data), buffer, true);
         }
         long elapsed = System.nanoTime() - start;
-        System.err.printf("Encoding took %d ms%n", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        System.err.printf("Encoding %s %s took %d ms%n", payload, buffer.isDirect() ? "direct" : "heap", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        new Measurement("CharsetEncoder")
+            .param("mode", "encode")
+            .param("payload", payload)
+            .param("direct", buffer.isDirect())
+            .param("length", data.length())
+            .elapsed(elapsed)
+            .throughput(iterations, elapsed, "strings/s")
+            .emit();
+    }
+
+    private static void runUtf8Encoder(String payload, String data, ByteBuffer buffer, int iterations)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+        {
+            buffer.clear();
+            // No allocation and no CharBuffer: the chars are read from
+            // the String and the bytes written to the array of a heap
+            // buffer or with absolute puts to a direct one.
+            Utf8Encoder.encode(data, 0, buffer);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.err.printf("Utf8Encoder %s %s took %d ms%n", payload, buffer.isDirect() ? "direct" : "heap", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        new Measurement("CharsetEncoder")
+            .param("mode", "utf8Encoder")
+            .param("payload", payload)
+            .param("direct", buffer.isDirect())
+            .param("length", data.length())
+            .elapsed(elapsed)
+            .throughput(iterations, elapsed, "strings/s")
+            .emit();
     }
 }
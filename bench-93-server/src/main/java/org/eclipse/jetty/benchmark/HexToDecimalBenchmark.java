@@ -1,8 +1,12 @@
 package org.eclipse.jetty.benchmark;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
+import org.eclipse.jetty.util.TypeUtil;
 
 public class HexToDecimalBenchmark
 {
@@ -25,6 +29,213 @@ public class HexToDecimalBenchmark
             bm.testBranchless(chars);
             bm.testBranching(chars);
             bm.testBranchless(chars);
+
+        // The hex of real traffic: the chunk size lines of chunked bodies, from small
+        // streamed chunks to the 16KB chunks of uploads, with and without extensions
+        int runs=3;
+        for (int chunk : new int[]{16,1024,16384})
+        {
+            for (boolean extensions : new boolean[]{false,true})
+            {
+                for (boolean direct : new boolean[]{false,true})
+                {
+                    ByteBuffer body=chunkedBody(chunk,extensions,direct,16*1024*1024);
+                    for (String mode : new String[]{"branching","branchless"})
+                        for (int i=0;i<runs;i++)
+                            bm.testChunked(mode,chunk,extensions,body);
+                }
+            }
+        }
+
+        // and the escapes of URIs, from paths with some escaped spaces to paths that are all escapes
+        for (String payload : new String[]{"ascii","latin1","cjk"})
+        {
+            for (boolean direct : new boolean[]{false,true})
+            {
+                ByteBuffer uris=percentEncodedUris(payload,direct,4096);
+                for (String mode : new String[]{"branching","branchless"})
+                    for (int i=0;i<runs;i++)
+                        bm.testPercentDecode(mode,payload,uris);
+            }
+        }
+    }
+
+    /**
+     * @return A chunked body of about the given length, in chunks of the given size with
+     * the same data, ended by the last chunk and an empty trailer
+     */
+    private static ByteBuffer chunkedBody(int chunk, boolean extensions, boolean direct, int length)
+    {
+        byte[] data = new byte[chunk];
+        random.nextBytes(data);
+        String line=Integer.toHexString(chunk)+(extensions?";name=value;q=\"a;b\"":"")+"\r\n";
+        byte[] size=line.getBytes(StandardCharsets.US_ASCII);
+        int chunks=Math.max(1,length/chunk);
+        ByteBuffer body=direct?ByteBuffer.allocateDirect(chunks*(size.length+chunk+2)+5):ByteBuffer.allocate(chunks*(size.length+chunk+2)+5);
+        for (int i=0;i<chunks;i++)
+            body.put(size).put(data).put((byte)'\r').put((byte)'\n');
+        body.put("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        body.flip();
+        return body;
+    }
+
+    private void testChunked(String mode, int chunk, boolean extensions, ByteBuffer body)
+    {
+        int iterations=Math.max(1,256*1024*1024/body.limit());
+        try
+        {
+            helper.startStatistics();
+            long content=0;
+            long begin=System.nanoTime();
+            for (int i=0;i<iterations;i++)
+            {
+                body.position(0);
+                content+="branchless".equals(mode)?dechunkBranchless(body):dechunkBranching(body);
+            }
+            long elapsed=System.nanoTime()-begin;
+            System.err.printf("Chunked %s chunk=%d extensions=%b %s content=%d took %d ms%n",mode,chunk,extensions,
+                body.isDirect()?"direct":"heap",content,TimeUnit.NANOSECONDS.toMillis(elapsed));
+            new Measurement("HexChunked")
+                .param("mode",mode)
+                .param("chunk",chunk)
+                .param("extensions",extensions)
+                .param("direct",body.isDirect())
+                .elapsed(elapsed)
+                .throughput((long)iterations*body.limit(),elapsed,"bytes/s")
+                .emit();
+        }
+        finally
+        {
+            helper.stopStatistics();
+        }
+    }
+
+    /**
+     * @return The length of the content of a whole chunked body
+     */
+    private static long dechunkBranchless(ByteBuffer body)
+    {
+        long content=0;
+        while (true)
+        {
+            long size=HexParser.parseChunkSize(body);
+            if (size<=0)
+                break;
+            content+=size;
+            body.position(body.position()+(int)size+2);
+        }
+        return content;
+    }
+
+    /**
+     * @return The length of the content of a whole chunked body, parsed one byte at a time
+     * like the CHUNK_SIZE and CHUNK_PARAMS states of Jetty's HttpParser
+     */
+    private static long dechunkBranching(ByteBuffer body)
+    {
+        long content=0;
+        while (true)
+        {
+            long size=0;
+            boolean params=false;
+            int i=body.position();
+            while (true)
+            {
+                byte b=body.get(i++);
+                if (b=='\n')
+                    break;
+                if (params || b=='\r')
+                    continue;
+                if (b==';' || b==' ')
+                    params=true;
+                else
+                {
+                    size=size*16+TypeUtil.convertHexDigit(b);
+                    if (size>Integer.MAX_VALUE)
+                        throw new IllegalArgumentException("Chunk size overflow");
+                }
+            }
+            if (size==0)
+                break;
+            content+=size;
+            body.position(i+(int)size+2);
+        }
+        return content;
+    }
+
+    /**
+     * @return The encoded bytes of URIs with paths of the given payload, one after the other
+     */
+    private static ByteBuffer percentEncodedUris(String payload, boolean direct, int count)
+    {
+        StringBuilder uris = new StringBuilder();
+        Random random = new Random(0);
+        for (int i=0;i<count;i++)
+        {
+            uris.append("/context");
+            String text=CharsetEncoderBenchmark.payload(payload,48,random);
+            for (int c=0;c<text.length();c+=8+random.nextInt(8))
+            {
+                uris.append('/');
+                for (byte b : text.substring(c,Math.min(text.length(),c+12)).getBytes(StandardCharsets.UTF_8))
+                {
+                    if (b>='a' && b<='z' || b>='A' && b<='Z' || b>='0' && b<='9' || b=='-' || b=='.' || b=='_' || b=='~')
+                        uris.append((char)b);
+                    else
+                        uris.append('%').append(TypeUtil.toHexString(b));
+                }
+            }
+        }
+        byte[] bytes=uris.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer=direct?ByteBuffer.allocateDirect(bytes.length):ByteBuffer.allocate(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    private void testPercentDecode(String mode, String payload, ByteBuffer uris)
+    {
+        ByteBuffer decoded=uris.isDirect()?ByteBuffer.allocateDirect(uris.limit()):ByteBuffer.allocate(uris.limit());
+        int iterations=Math.max(1,256*1024*1024/uris.limit());
+        try
+        {
+            helper.startStatistics();
+            long begin=System.nanoTime();
+            for (int i=0;i<iterations;i++)
+            {
+                uris.position(0);
+                decoded.clear();
+                if ("branchless".equals(mode))
+                    HexParser.percentDecode(uris,decoded);
+                else
+                    percentDecodeBranching(uris,decoded);
+            }
+            long elapsed=System.nanoTime()-begin;
+            System.err.printf("PercentDecode %s %s %s decoded=%d took %d ms%n",mode,payload,uris.isDirect()?"direct":"heap",
+                decoded.position(),TimeUnit.NANOSECONDS.toMillis(elapsed));
+            new Measurement("HexPercentDecode")
+                .param("mode",mode)
+                .param("payload",payload)
+                .param("direct",uris.isDirect())
+                .elapsed(elapsed)
+                .throughput((long)iterations*uris.limit(),elapsed,"bytes/s")
+                .emit();
+        }
+        finally
+        {
+            helper.stopStatistics();
+        }
+    }
+
+    private static void percentDecodeBranching(ByteBuffer in, ByteBuffer out)
+    {
+        while (in.hasRemaining())
+        {
+            byte b=in.get();
+            if (b=='%')
+                out.put((byte)(TypeUtil.convertHexDigit(in.get())<<4|TypeUtil.convertHexDigit(in.get())));
+            else
+                out.put(b);
+        }
     }
 
     private void testBranching(char[] chars)
@@ -34,7 +245,14 @@ public class HexToDecimalBenchmark
         try
         {
             helper.startStatistics();
+            long begin=System.nanoTime();
             System.err.println(chars.length+" branching ="+hex2decBranching(chars));
+            long elapsed=System.nanoTime()-begin;
+            new Measurement("HexToDecimal")
+                .param("mode","branching")
+                .elapsed(elapsed)
+                .throughput(chars.length,elapsed,"chars/s")
+                .emit();
         }
         finally
         {
@@ -48,7 +266,14 @@ public class HexToDecimalBenchmark
         try
         {
             helper.startStatistics();
+            long begin=System.nanoTime();
             System.err.println(chars.length+" branchless="+hex2decBranchless(chars));
+            long elapsed=System.nanoTime()-begin;
+            new Measurement("HexToDecimal")
+                .param("mode","branchless")
+                .elapsed(elapsed)
+                .throughput(chars.length,elapsed,"chars/s")
+                .emit();
         }
         finally
         {
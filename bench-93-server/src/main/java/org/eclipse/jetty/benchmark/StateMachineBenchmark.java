@@ -1,11 +1,17 @@
 package org.eclipse.jetty.benchmark;
 
+import java.lang.reflect.Field;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
 
+import sun.misc.Unsafe;
+
 public class StateMachineBenchmark
 {
     static Random random = new Random();
@@ -23,15 +29,494 @@ public class StateMachineBenchmark
 
         Machine switching = new SwitchingMachine();
         Machine polymorphic = new PolymorphicMachine();
+        Machine packed = new PackedMachine();
         
         bm.test(4, switching,chars);
         bm.test(4, polymorphic,chars);
+        bm.test(4, packed,chars);
         bm.test(4, switching,chars);
         bm.test(4, polymorphic,chars);
+        bm.test(4, packed,chars);
         bm.test(4, switching,chars);
         bm.test(4, polymorphic,chars);
+        bm.test(4, packed,chars);
         bm.test(4, switching,chars);
         bm.test(4, polymorphic,chars);
+        bm.test(4, packed,chars);
+
+        // The lifecycles, with the weight of each event in the order of the table, from
+        // mostly CAS to mostly no-ops, and with 0 (all contended) to 1000 (mostly
+        // private) iterations of work between events.
+        int cpus=Runtime.getRuntime().availableProcessors();
+        Object[][] lifecycles =
+        {
+            {fillInterest(),new int[][]{{1,1,1},{8,1,1}}},
+            {channel(),new int[][]{{1,1,1,1,1,1},{4,1,4,1,1,4}}}
+        };
+        for (int loop=0;loop<2;loop++)
+        {
+            for (Object[] lifecycle : lifecycles)
+            {
+                StateMachine.Table table=(StateMachine.Table)lifecycle[0];
+                for (int[] mix : (int[][])lifecycle[1])
+                    for (int work : new int[]{0,100,1000})
+                        for (int threads=1;threads<=Math.max(2,cpus*2);threads*=2)
+                            bm.testLifecycle(table,mix,work,threads,2000000);
+            }
+        }
+
+        // One fill interest machine per connection, with each thread firing at its own
+        // machines, which are either next to each other or next to those of other threads
+        for (int loop=0;loop<2;loop++)
+            for (String layout : new String[]{"blocked","interleaved"})
+                for (String cell : new String[]{"AtomicReference","AtomicInteger","FieldUpdater","Unsafe"})
+                    for (boolean padded : new boolean[]{false,true})
+                        for (int threads=1;threads<=Math.max(2,cpus*2);threads*=2)
+                            bm.testLayout(fillInterest(),cell,padded,layout,threads,4000000);
+    }
+
+    /**
+     * Fire random events from each thread at a single shared machine.
+     * @param table The lifecycle
+     * @param mix The weight of each event of the table
+     * @param work The iterations of private work between events, to vary the contention
+     * @param threads The number of threads
+     * @param events The number of events fired by each thread
+     */
+    private void testLifecycle(StateMachine.Table table, int[] mix, final int work, int threads, final int events) throws Exception
+    {
+        final CountingStateMachine machine = new CountingStateMachine(table);
+        int total=0;
+        for (int weight : mix)
+            total+=weight;
+        final CountDownLatch start = new CountDownLatch(1);
+        Worker[] workers = new Worker[threads];
+        for (int i=0;i<threads;i++)
+        {
+            // The events of each thread are drawn in advance, so the loop is only the machine and the work
+            final int[] sequence = new int[1<<16];
+            for (int e=0;e<sequence.length;e++)
+            {
+                int r=random.nextInt(total);
+                int event=0;
+                while (r>=mix[event])
+                    r-=mix[event++];
+                sequence[e]=event;
+            }
+            workers[i] = new Worker()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        long seed=getId()+1;
+                        for (int e=0;e<events;e++)
+                        {
+                            _actions+=machine.fire(sequence[e&(sequence.length-1)]);
+                            for (int w=0;w<work;w++)
+                            {
+                                seed^=seed<<13;
+                                seed^=seed>>>7;
+                                seed^=seed<<17;
+                            }
+                        }
+                        _actions+=seed&1;
+                    }
+                    catch (InterruptedException x)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        helper.startStatistics();
+        long begin=System.nanoTime();
+        start.countDown();
+        long failures=0;
+        for (Worker worker : workers)
+        {
+            worker.join();
+            failures+=worker._failures;
+        }
+        long elapsed=System.nanoTime()-begin;
+        helper.stopStatistics();
+
+        StringBuilder weights = new StringBuilder();
+        for (int weight : mix)
+            weights.append(weights.length()==0?"":":").append(weight);
+        long fired=(long)threads*events;
+        double rate=100.0*failures/fired;
+        System.err.printf("%s mix=%s work=%d threads=%d: %,d events/s, %.3f%% CAS failures, %s%n",
+            table.getName(),weights,work,threads,fired*TimeUnit.SECONDS.toNanos(1)/elapsed,rate,machine);
+        new Measurement("StateMachineLifecycle")
+            .param("machine",table.getName())
+            .param("mix",weights.toString())
+            .param("work",work)
+            .param("threads",threads)
+            .elapsed(elapsed)
+            .throughput(fired,elapsed,"events/s")
+            .metric("casFailures",rate,"%",false)
+            .emit();
+    }
+
+    /**
+     * The fill interest of a connection: interest registers with the selector unless
+     * already registered, or is remembered while filling; fillable starts filling;
+     * filled ends filling, registering again if interest was shown meanwhile.
+     * Spurious events are ignored.
+     */
+    static StateMachine.Table fillInterest()
+    {
+        return new StateMachine.Table("FillInterest",new String[]{"IDLE","INTERESTED","FILLING"},"REFILL")
+            .on("interest","*","*")
+            .on("fillable","*","*")
+            .on("filled","*","*")
+            .on("interest","IDLE","INTERESTED","REGISTER")
+            .on("interest","FILLING","FILLING+REFILL")
+            .on("fillable","INTERESTED","FILLING","FILL")
+            .on("filled","FILLING-REFILL","IDLE")
+            .on("filled","FILLING+REFILL","INTERESTED-REFILL","REGISTER");
+    }
+
+    /**
+     * A simplified request lifecycle of an HTTP channel: handle dispatches the request
+     * (or waits if it is already being handled); unhandle completes it or, if async was
+     * started, waits for a dispatch or complete from another thread; recycle makes the
+     * channel ready for the next request. Events that are not legal in the current state
+     * are ignored, where the real channel would throw or wait.
+     */
+    static StateMachine.Table channel()
+    {
+        return new StateMachine.Table("Channel",new String[]{"IDLE","DISPATCHED","ASYNC_WAIT","ASYNC_WOKEN","COMPLETING","COMPLETED"},"ASYNC")
+            .on("handle","*","*","WAIT")
+            .on("startAsync","*","*")
+            .on("unhandle","*","*")
+            .on("dispatch","*","*")
+            .on("complete","*","*")
+            .on("recycle","*","*")
+            .on("handle","IDLE","DISPATCHED","DISPATCH")
+            .on("handle","ASYNC_WOKEN","DISPATCHED","ASYNC_DISPATCH")
+            .on("handle","COMPLETING","COMPLETED","COMPLETE")
+            .on("startAsync","DISPATCHED","DISPATCHED+ASYNC")
+            .on("unhandle","DISPATCHED+ASYNC","ASYNC_WAIT-ASYNC","WAIT")
+            .on("unhandle","DISPATCHED-ASYNC","COMPLETING","COMPLETE")
+            .on("dispatch","ASYNC_WAIT","ASYNC_WOKEN","SCHEDULE")
+            .on("complete","ASYNC_WAIT","COMPLETING","SCHEDULE")
+            .on("recycle","COMPLETED","IDLE");
+    }
+
+    /**
+     * Fire random events at machines that are private to each thread, to measure the
+     * cost of the indirection to a separate atomic object and of false sharing between
+     * machines that are allocated next to each other, like the state of connections.
+     * @param table The lifecycle
+     * @param cell The way the state is held and updated
+     * @param padded Whether the state is padded to a cache line
+     * @param layout blocked if each thread has a contiguous range of machines, or
+     * interleaved if the neighbours of each machine belong to other threads
+     * @param threads The number of threads
+     * @param events The number of events fired by each thread
+     */
+    private void testLayout(StateMachine.Table table, String cell, boolean padded, String layout, int threads, final int events) throws Exception
+    {
+        int perThread=256;
+        final Cell[] cells = new Cell[threads*perThread];
+        long allocated=Allocation.allocatedBytes();
+        for (int i=0;i<cells.length;i++)
+            cells[i]=newCell(table,cell,padded);
+        long footprint=(Allocation.allocatedBytes()-allocated)/cells.length;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Worker[] workers = new Worker[threads];
+        for (int t=0;t<threads;t++)
+        {
+            final int[] sequence = new int[1<<16];
+            for (int e=0;e<sequence.length;e++)
+                sequence[e]=random.nextInt(table.getEvents().size());
+            final Cell[] mine = new Cell[perThread];
+            for (int i=0;i<perThread;i++)
+                mine[i]=cells["blocked".equals(layout)?t*perThread+i:i*threads+t];
+            workers[t] = new Worker()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int e=0;e<events;e++)
+                            _actions+=mine[e&(mine.length-1)].fire(sequence[e&(sequence.length-1)]);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        helper.startStatistics();
+        long begin=System.nanoTime();
+        start.countDown();
+        for (Worker worker : workers)
+            worker.join();
+        long elapsed=System.nanoTime()-begin;
+        helper.stopStatistics();
+
+        long fired=(long)threads*events;
+        System.err.printf("%s padded=%b layout=%s threads=%d: %,d events/s, %d B/machine%n",
+            cell,padded,layout,threads,fired*TimeUnit.SECONDS.toNanos(1)/elapsed,footprint);
+        new Measurement("StateMachineLayout")
+            .param("cell",cell)
+            .param("padded",padded)
+            .param("layout",layout)
+            .param("threads",threads)
+            .elapsed(elapsed)
+            .throughput(fired,elapsed,"events/s")
+            .metric("footprint",footprint,"B/machine",false)
+            .emit();
+    }
+
+    private static Cell newCell(StateMachine.Table table, String cell, boolean padded)
+    {
+        switch(cell)
+        {
+            case "AtomicReference":
+                return new ReferenceCell(table,padded);
+            case "AtomicInteger":
+                return new IntegerCell(table,padded);
+            case "FieldUpdater":
+                return padded?new PaddedUpdaterCell(table):new UpdaterCell(table);
+            case "Unsafe":
+                return padded?new PaddedUnsafeCell(table):new UnsafeCell(table);
+            default:
+                throw new IllegalArgumentException(cell);
+        }
+    }
+
+    /**
+     * The state of a connection, with a {@link StateMachine.Table} for transitions. Each
+     * implementation has its own copy of the CAS loop, so that the state access is
+     * inlined into it whatever implementations have run before.
+     */
+    static abstract class Cell
+    {
+        final StateMachine.Table _table;
+
+        Cell(StateMachine.Table table)
+        {
+            _table=table;
+        }
+
+        abstract int fire(int event);
+    }
+
+    /**
+     * The state as a (cached) Integer in a separate AtomicReference, like the enum
+     * states of {@link SwitchingMachine}: two indirections from the connection.
+     */
+    static class ReferenceCell extends Cell
+    {
+        final AtomicReference<Integer> _state;
+
+        ReferenceCell(StateMachine.Table table, boolean padded)
+        {
+            super(table);
+            _state=padded?new PaddedAtomicReference<>(0):new AtomicReference<>(0);
+        }
+
+        @Override
+        int fire(int event)
+        {
+            while (true)
+            {
+                Integer state=_state.get();
+                int transition=_table.transition(event,state);
+                if (transition==0)
+                    throw new IllegalStateException();
+                int next=StateMachine.Table.next(transition);
+                if (next==state || _state.compareAndSet(state,Integer.valueOf(next)))
+                    return StateMachine.Table.action(transition);
+            }
+        }
+    }
+
+    /**
+     * The state in a separate AtomicInteger: one indirection from the connection.
+     */
+    static class IntegerCell extends Cell
+    {
+        final AtomicInteger _state;
+
+        IntegerCell(StateMachine.Table table, boolean padded)
+        {
+            super(table);
+            _state=padded?new PaddedAtomicInteger():new AtomicInteger();
+        }
+
+        @Override
+        int fire(int event)
+        {
+            while (true)
+            {
+                int state=_state.get();
+                int transition=_table.transition(event,state);
+                if (transition==0)
+                    throw new IllegalStateException();
+                int next=StateMachine.Table.next(transition);
+                if (next==state || _state.compareAndSet(state,next))
+                    return StateMachine.Table.action(transition);
+            }
+        }
+    }
+
+    /**
+     * The state inlined in the connection as a volatile int, updated with an
+     * AtomicIntegerFieldUpdater, as {@link StateMachine} does.
+     */
+    static class UpdaterCell extends Cell
+    {
+        private static final AtomicIntegerFieldUpdater<UpdaterCell> __state =
+            AtomicIntegerFieldUpdater.newUpdater(UpdaterCell.class,"_state");
+
+        volatile int _state;
+
+        UpdaterCell(StateMachine.Table table)
+        {
+            super(table);
+        }
+
+        @Override
+        int fire(int event)
+        {
+            while (true)
+            {
+                int state=_state;
+                int transition=_table.transition(event,state);
+                if (transition==0)
+                    throw new IllegalStateException();
+                int next=StateMachine.Table.next(transition);
+                if (next==state || __state.compareAndSet(this,state,next))
+                    return StateMachine.Table.action(transition);
+            }
+        }
+    }
+
+    /**
+     * The state inlined in the connection as a volatile int, updated with Unsafe, which
+     * skips the class checks of the field updater (VarHandles need Java 9).
+     */
+    static class UnsafeCell extends Cell
+    {
+        private static final Unsafe UNSAFE;
+        private static final long STATE;
+        static
+        {
+            try
+            {
+                Field field=Unsafe.class.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                UNSAFE=(Unsafe)field.get(null);
+                STATE=UNSAFE.objectFieldOffset(UnsafeCell.class.getDeclaredField("_state"));
+            }
+            catch (Exception e)
+            {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        volatile int _state;
+
+        UnsafeCell(StateMachine.Table table)
+        {
+            super(table);
+        }
+
+        @Override
+        int fire(int event)
+        {
+            while (true)
+            {
+                int state=_state;
+                int transition=_table.transition(event,state);
+                if (transition==0)
+                    throw new IllegalStateException();
+                int next=StateMachine.Table.next(transition);
+                if (next==state || UNSAFE.compareAndSwapInt(this,STATE,state,next))
+                    return StateMachine.Table.action(transition);
+            }
+        }
+    }
+
+    // The padding fields of a subclass are laid out after the state, so with the
+    // header of the next object there is at least a cache line between two states.
+
+    @SuppressWarnings("serial")
+    static class PaddedAtomicReference<V> extends AtomicReference<V>
+    {
+        long _p1,_p2,_p3,_p4,_p5,_p6,_p7;
+
+        PaddedAtomicReference(V value)
+        {
+            super(value);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class PaddedAtomicInteger extends AtomicInteger
+    {
+        long _p1,_p2,_p3,_p4,_p5,_p6,_p7;
+    }
+
+    static class PaddedUpdaterCell extends UpdaterCell
+    {
+        long _p1,_p2,_p3,_p4,_p5,_p6,_p7;
+
+        PaddedUpdaterCell(StateMachine.Table table)
+        {
+            super(table);
+        }
+    }
+
+    static class PaddedUnsafeCell extends UnsafeCell
+    {
+        long _p1,_p2,_p3,_p4,_p5,_p6,_p7;
+
+        PaddedUnsafeCell(StateMachine.Table table)
+        {
+            super(table);
+        }
+    }
+
+    static class Worker extends Thread
+    {
+        long _failures;
+        long _actions;
+    }
+
+    /**
+     * Counts the failed CAS of each {@link Worker} thread in the thread itself, so
+     * that counting does not add to the contention.
+     */
+    static class CountingStateMachine extends StateMachine
+    {
+        CountingStateMachine(Table table)
+        {
+            super(table);
+        }
+
+        @Override
+        protected void onCasFailure(int state, int event)
+        {
+            Thread thread=Thread.currentThread();
+            if (thread instanceof Worker)
+                ((Worker)thread)._failures++;
+        }
     }
 
 
@@ -42,6 +527,7 @@ public class StateMachineBenchmark
         final CountDownLatch latch = new CountDownLatch(threads);
 
         helper.startStatistics();
+        long begin=System.nanoTime();
 
         for (int i=0;i<threads;i++)
         {
@@ -74,6 +560,13 @@ public class StateMachineBenchmark
         }
         latch.await();
         System.err.println(machine.getClass().getSimpleName()+" "+machine);
+        long elapsed=System.nanoTime()-begin;
+        new Measurement("StateMachine")
+            .param("machine",machine.getClass().getSimpleName())
+            .param("threads",threads)
+            .elapsed(elapsed)
+            .throughput((long)threads*chars.length,elapsed,"events/s")
+            .emit();
         helper.stopStatistics();
     }
 
@@ -163,6 +656,51 @@ public class StateMachineBenchmark
         
     }
     
+    /**
+     * The same game as a {@link StateMachine} table.
+     */
+    static class PackedMachine implements Machine
+    {
+        static final StateMachine.Table TABLE = new StateMachine.Table("RPSLS",new String[]{"SPOCK","ROCK","PAPER","SCISSORS","LIZARD"})
+            .on("playSheldon","*","LIZARD")
+            .on("playSheldon","LIZARD","PAPER")
+            .on("playSheldon","PAPER","LIZARD")
+            .on("seePenny","*","*")
+            .on("seePenny","SPOCK","ROCK")
+            .on("seePenny","LIZARD","PAPER")
+            .on("thinkOfHoward","*","SCISSORS")
+            .on("thinkOfHoward","SPOCK","SPOCK");
+        static final int SHELDON = TABLE.event("playSheldon");
+        static final int PENNY = TABLE.event("seePenny");
+        static final int HOWARD = TABLE.event("thinkOfHoward");
+
+        final StateMachine _machine = new StateMachine(TABLE);
+
+        @Override
+        public void playSheldon()
+        {
+            _machine.fire(SHELDON);
+        }
+
+        @Override
+        public void seePenny()
+        {
+            _machine.fire(PENNY);
+        }
+
+        @Override
+        public void thinkOfHoward()
+        {
+            _machine.fire(HOWARD);
+        }
+
+        @Override
+        public String toString()
+        {
+            return _machine.toString();
+        }
+    }
+
     static class StateClass
     {
         final String _name;
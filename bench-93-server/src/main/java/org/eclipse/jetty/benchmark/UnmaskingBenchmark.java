@@ -10,14 +10,22 @@ public class UnmaskingBenchmark
         byte[] maskBytes = {0x12, 0x6F, 0x3D, 0x41};
         int maskInt = ByteBuffer.wrap(maskBytes).getInt();
 
-        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
-
+        // Payloads from 2B to 1MB, each unmasked for about 256MB in total
         int runs = 5;
-        int iterations = 1_000_000;
-        for (int i = 0; i < runs; ++i)
-            runUnmaskByte(buffer, maskBytes, iterations);
-        for (int i = 0; i < runs; ++i)
-            runUnmaskInt(buffer, maskInt, iterations);
+        for (boolean direct : new boolean[]{true, false})
+        {
+            for (int length : new int[]{2, 6, 125, 1024, 65536, 1024 * 1024})
+            {
+                ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+                int iterations = Math.max(1, (256 * 1024 * 1024) / length);
+                for (int i = 0; i < runs; ++i)
+                    runUnmaskByte(buffer, maskBytes, iterations);
+                for (int i = 0; i < runs; ++i)
+                    runUnmaskInt(buffer, maskBytes, maskInt, iterations);
+                for (int i = 0; i < runs; ++i)
+                    runUnmasker(buffer, maskInt, iterations);
+            }
+        }
     }
 
     private static void runUnmaskByte(ByteBuffer buffer, byte[] mask, int iterations)
@@ -26,7 +34,7 @@ public class UnmaskingBenchmark
         for (int i = 0; i < iterations; ++i)
             testUnmaskByte(buffer, mask);
         long elapsed = System.nanoTime() - start;
-        System.err.printf("Unmask byte took %d ms%n", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        emit("byte", buffer, iterations, elapsed);
     }
 
     private static void testUnmaskByte(ByteBuffer buffer, byte[] mask)
@@ -37,21 +45,43 @@ public class UnmaskingBenchmark
         }
     }
 
-    private static void runUnmaskInt(ByteBuffer buffer, int mask, int iterations)
+    private static void runUnmaskInt(ByteBuffer buffer, byte[] maskBytes, int mask, int iterations)
     {
         long start = System.nanoTime();
         for (int i = 0; i < iterations; ++i)
-            testUnmaskInt(buffer, mask);
+            testUnmaskInt(buffer, maskBytes, mask);
         long elapsed = System.nanoTime() - start;
-        System.err.printf("Unmask int took %d ms%n", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        emit("int", buffer, iterations, elapsed);
     }
 
-    private static void testUnmaskInt(ByteBuffer buffer, int mask)
+    private static void testUnmaskInt(ByteBuffer buffer, byte[] maskBytes, int mask)
     {
-        for (int i = buffer.position(); i < buffer.limit(); i += 4)
-        {
-            if (buffer.remaining() >= 4)
-                buffer.putInt(i, buffer.getInt(i) ^ mask);
-        }
+        int i = buffer.position();
+        for (; i + 4 <= buffer.limit(); i += 4)
+            buffer.putInt(i, buffer.getInt(i) ^ mask);
+        for (; i < buffer.limit(); ++i)
+            buffer.put(i, (byte)(buffer.get(i) ^ maskBytes[i & 0x3]));
+    }
+
+    private static void runUnmasker(ByteBuffer buffer, int mask, int iterations)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+            Unmasker.unmask(buffer, mask, 0);
+        long elapsed = System.nanoTime() - start;
+        emit("unmasker", buffer, iterations, elapsed);
+    }
+
+    private static void emit(String mode, ByteBuffer buffer, int iterations, long elapsed)
+    {
+        System.err.printf("Unmask %s %s %d took %d ms%n", mode, buffer.isDirect() ? "direct" : "heap",
+            buffer.remaining(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        new Measurement("Unmasking")
+            .param("mode", mode)
+            .param("direct", buffer.isDirect())
+            .param("length", buffer.remaining())
+            .elapsed(elapsed)
+            .throughput((long)iterations * buffer.remaining(), elapsed, "bytes/s")
+            .emit();
     }
 }
@@ -0,0 +1,151 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.Utf8StringBuilder;
+
+/**
+ * Benchmarks the UTF-8 decoding of text messages that arrive in fragments, as the
+ * frames and reads of WebSocket text messages do, into a String.
+ * <p>
+ * The {@link Utf8Decoder} and Jetty's {@link Utf8StringBuilder} accept the fragments as
+ * they are. A {@link CharsetDecoder} leaves the bytes of a sequence split between two
+ * fragments in its input, so the fragments are copied to a carry buffer that keeps them
+ * for the next fragment.
+ */
+public class Utf8DecoderBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int runs=5;
+        for (String payload : new String[]{"ascii","latin1","cjk","emoji"})
+        {
+            for (int length : new int[]{16,1024,65536})
+            {
+                String text=CharsetEncoderBenchmark.payload(payload,length,new Random(0));
+                byte[] bytes=text.getBytes(StandardCharsets.UTF_8);
+                int iterations=Math.max(1,32*1024*1024/bytes.length);
+                // Whole messages, frames of 4KB, and 7 byte reads that split most sequences
+                for (int split : new int[]{0,4096,7})
+                {
+                    ByteBuffer[] fragments=split(bytes,split);
+                    for (String mode : new String[]{"Utf8Decoder","Utf8StringBuilder","CharsetDecoder"})
+                        for (int i=0;i<runs;i++)
+                            run(mode,payload,text,split,fragments,iterations);
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer[] split(byte[] bytes, int split)
+    {
+        int size=split==0?bytes.length:split;
+        ByteBuffer[] fragments = new ByteBuffer[(bytes.length+size-1)/size];
+        for (int i=0;i<fragments.length;i++)
+        {
+            int offset=i*size;
+            fragments[i]=ByteBuffer.wrap(bytes,offset,Math.min(size,bytes.length-offset)).slice();
+        }
+        return fragments;
+    }
+
+    private static void run(String mode, String payload, String text, int split, ByteBuffer[] fragments, int iterations) throws CharacterCodingException
+    {
+        // The limits, as the earlier runs leave the fragments consumed
+        int bytes=0;
+        int maxFragment=0;
+        for (ByteBuffer fragment : fragments)
+        {
+            bytes+=fragment.limit();
+            maxFragment=Math.max(maxFragment,fragment.limit());
+        }
+
+        Utf8Decoder utf8Decoder = new Utf8Decoder();
+        StringBuilder builder = new StringBuilder(text.length());
+        Utf8StringBuilder utf8StringBuilder = new Utf8StringBuilder(text.length());
+        CharsetDecoder charsetDecoder = StandardCharsets.UTF_8.newDecoder();
+        ByteBuffer carry = ByteBuffer.allocate(maxFragment+4);
+        CharBuffer chars = CharBuffer.allocate(text.length());
+
+        String result=null;
+        long start=System.nanoTime();
+        for (int i=0;i<iterations;i++)
+        {
+            switch(mode)
+            {
+                case "Utf8Decoder":
+                    result=decode(utf8Decoder,builder,fragments);
+                    break;
+                case "Utf8StringBuilder":
+                    result=decode(utf8StringBuilder,fragments);
+                    break;
+                default:
+                    result=decode(charsetDecoder,carry,chars,fragments);
+            }
+        }
+        long elapsed=System.nanoTime()-start;
+        if (!text.equals(result))
+            throw new IllegalStateException(mode+" decoded "+payload+" wrongly");
+
+        String splitName=split==0?"whole":String.valueOf(split);
+        System.err.printf("%s %s length=%d split=%s took %d ms%n",mode,payload,text.length(),splitName,TimeUnit.NANOSECONDS.toMillis(elapsed));
+        new Measurement("Utf8Decoder")
+            .param("mode",mode)
+            .param("payload",payload)
+            .param("length",text.length())
+            .param("split",splitName)
+            .elapsed(elapsed)
+            .throughput((long)iterations*bytes,elapsed,"bytes/s")
+            .emit();
+    }
+
+    private static String decode(Utf8Decoder decoder, StringBuilder builder, ByteBuffer[] fragments)
+    {
+        builder.setLength(0);
+        for (ByteBuffer fragment : fragments)
+        {
+            fragment.position(0);
+            decoder.decode(fragment,builder);
+        }
+        decoder.complete();
+        return builder.toString();
+    }
+
+    private static String decode(Utf8StringBuilder utf8, ByteBuffer[] fragments)
+    {
+        utf8.reset();
+        for (ByteBuffer fragment : fragments)
+        {
+            fragment.position(0);
+            utf8.append(fragment);
+        }
+        return utf8.toString();
+    }
+
+    private static String decode(CharsetDecoder decoder, ByteBuffer carry, CharBuffer chars, ByteBuffer[] fragments) throws CharacterCodingException
+    {
+        decoder.reset();
+        carry.clear();
+        chars.clear();
+        for (int i=0;i<fragments.length;i++)
+        {
+            ByteBuffer fragment=fragments[i];
+            fragment.position(0);
+            carry.put(fragment).flip();
+            CoderResult result=decoder.decode(carry,chars,i==fragments.length-1);
+            if (result.isError())
+                result.throwException();
+            carry.compact();
+        }
+        decoder.flush(chars);
+        chars.flip();
+        return chars.toString();
+    }
+}
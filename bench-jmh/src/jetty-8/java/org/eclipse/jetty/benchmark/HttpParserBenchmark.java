@@ -0,0 +1,95 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of a typical browser request by the Jetty 8 parser, swept by the number of
+ * headers and the size of a cookie, see {@link BrowserRequest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class HttpParserBenchmark
+{
+    @Param({"6","16","64"})
+    int headers;
+
+    @Param({"0","256","4096"})
+    int cookie;
+
+    final HttpFields fields = new HttpFields();
+    ByteArrayBuffer buffer;
+    HttpParser parser;
+    int requests;
+
+    @Setup
+    public void setup()
+    {
+        buffer=new ByteArrayBuffer(BrowserRequest.build(headers,cookie),false);
+        parser=new HttpParser(buffer,new MyHandler());
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws IOException
+    {
+        parser.parseAvailable();
+        parser.setState(HttpParser.STATE_START);
+        buffer.setGetIndex(0);
+        blackhole.consume(fields.size());
+        blackhole.consume(fields.getField(0));
+        fields.clear();
+    }
+
+    private class MyHandler extends HttpParser.EventHandler
+    {
+        @Override
+        public void content(Buffer content) throws IOException
+        {
+        }
+
+        @Override
+        public void startRequest(Buffer method, Buffer uri, Buffer version) throws IOException
+        {
+        }
+
+        @Override
+        public void startResponse(Buffer version, int status, Buffer reason) throws IOException
+        {
+        }
+
+        @Override
+        public void headerComplete() throws IOException
+        {
+            requests++;
+            super.headerComplete();
+        }
+
+        @Override
+        public void parsedHeader(Buffer name, Buffer value) throws IOException
+        {
+            fields.add(name,value);
+            super.parsedHeader(name,value);
+        }
+    }
+}
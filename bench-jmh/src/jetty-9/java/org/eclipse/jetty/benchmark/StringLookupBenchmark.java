@@ -0,0 +1,153 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.ArrayTernaryTrie;
+import org.eclipse.jetty.util.ArrayTrie;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.TreeTrie;
+import org.eclipse.jetty.util.Trie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookup of header names at the start of header lines (or methods at the start of
+ * request lines), for each Jetty trie and for a {@link PerfectHash}.
+ * <p>
+ * The <code>keys</code> are either the six headers of a simple browser request, all the
+ * {@link HttpHeader}s of the Jetty version, or all the {@link HttpMethod}s. The lines
+ * looked up are the keys in random order and random case (as lower case names are common
+ * from HTTP/2 proxies), plus a percentage of <code>misses</code>: custom headers or
+ * methods that are not in the key set. The tries find the best match at the start of the
+ * line, as the parser does, so a miss may return a prefix (eg Host for Hostname) that the
+ * parser must then reject. The perfect hash looks up the key up to its delimiter, which
+ * it finds as it hashes, so it only returns exact matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class StringLookupBenchmark
+{
+    static final String[] BROWSER = {"Host","User-Agent","Accept","Accept-Language","Accept-Encoding","Referer"};
+
+    static final String[] UNKNOWN_HEADERS = {"X-Custom","X-Amzn-Trace-Id","X-Correlation-ID","CF-Ray","Accept-Patch",
+        "X-Requested-With","DNT","Upgrade-Insecure-Requests","Sec-Fetch-Mode","Hostname","Ref"};
+
+    static final String[] UNKNOWN_METHODS = {"PATCH","PROPFIND","MKCOL","LOCK","GETS","SEARCH"};
+
+    /** The number of lines looked up per benchmark operation */
+    static final int LINES = 64;
+
+    @Param({"ArrayTernaryTrie","ArrayTrie","TreeTrie","PerfectHash"})
+    String type;
+
+    @Param({"browser","headers","methods"})
+    String keys;
+
+    @Param({"0","25"})
+    int misses;
+
+    Trie<String> trie;
+    PerfectHash<String> hash;
+    ByteBuffer[] buffers;
+    byte delimiter;
+
+    @Setup
+    public void setup()
+    {
+        List<String> known = new ArrayList<>();
+        String[] unknown=UNKNOWN_HEADERS;
+        delimiter=':';
+        switch(keys)
+        {
+            case "browser":
+                Collections.addAll(known,BROWSER);
+                break;
+            case "headers":
+                // Not the HTTP/2 pseudo headers of 9.3, which are never in an HTTP/1 request
+                for (HttpHeader header : HttpHeader.values())
+                    if (header!=HttpHeader.UNKNOWN && !header.asString().startsWith(":"))
+                        known.add(header.asString());
+                break;
+            default:
+                for (HttpMethod method : HttpMethod.values())
+                    known.add(method.asString());
+                unknown=UNKNOWN_METHODS;
+                delimiter=' ';
+        }
+
+        switch(type)
+        {
+            case "ArrayTrie":
+                trie=new ArrayTrie<>(4096);
+                break;
+            case "TreeTrie":
+                trie=new TreeTrie<>();
+                break;
+            case "PerfectHash":
+                Map<String,String> entries = new LinkedHashMap<>();
+                for (String key : known)
+                    entries.put(key,key);
+                hash=new PerfectHash<>(entries);
+                break;
+            default:
+                trie=new ArrayTernaryTrie<>(4096);
+        }
+        if (trie!=null)
+            for (String key : known)
+                if (!trie.put(key))
+                    throw new IllegalStateException("Trie full at "+key);
+
+        Random random = new Random(0);
+        buffers = new ByteBuffer[LINES];
+        for (int i=0;i<LINES;i++)
+        {
+            boolean miss=random.nextInt(100)<misses;
+            String key=miss?unknown[random.nextInt(unknown.length)]:known.get(random.nextInt(known.size()));
+            if (delimiter==':' && random.nextInt(4)==0)
+                key=key.toLowerCase(Locale.ENGLISH);
+            buffers[i]=BufferUtil.toBuffer(delimiter==':'?key+": value":key+" /context/path HTTP/1.1");
+        }
+    }
+
+    /**
+     * Look up every line, so the score is for {@link #LINES} lookups.
+     */
+    @Benchmark
+    public void lookup(Blackhole blackhole)
+    {
+        if (hash!=null)
+        {
+            for (ByteBuffer buffer : buffers)
+                blackhole.consume(hash.get(buffer,0,buffer.remaining(),delimiter));
+        }
+        else
+        {
+            for (ByteBuffer buffer : buffers)
+                blackhole.consume(trie.getBest(buffer,0,buffer.remaining()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.jetty.util.ArrayTernaryTrie;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Trie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The header lookups of {@link StringLookupBenchmark} from several reader threads at once,
+ * while a writer waits 100us between puts of a new entry if <code>write</code> is true, as
+ * the context path or MIME type maps are updated at runtime. The <code>variant</code> is:
+ * <dl>
+ * <dt>unsynchronized</dt><dd>A plain {@link ArrayTernaryTrie}, the baseline, which is only
+ * safe to read if nothing writes it, so its writer never puts</dd>
+ * <dt>locked</dt><dd>A plain trie behind a {@link ReentrantReadWriteLock}, whose read lock
+ * is a shared counter that every lookup writes</dd>
+ * <dt>cow</dt><dd>A {@link CopyOnWriteTrie}, whose readers write nothing shared</dd>
+ * </dl>
+ * There are 4 readers, which <code>-tg</code> changes, eg from <code>-tg 1,1</code> to
+ * <code>-tg 8,1</code>, so the loss to contention on shared cache lines shows as a reader
+ * throughput that does not scale with the readers.
+ * <p>
+ * These are separate from {@link StringLookupBenchmark}, as JMH would otherwise run them
+ * for each of its tries, key sets and misses.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class StringLookupConcurrentBenchmark
+{
+    @Param({"unsynchronized","locked","cow"})
+    String variant;
+
+    @Param({"false","true"})
+    boolean write;
+
+    Trie<String> trie;
+    ReadWriteLock lock;
+    ByteBuffer[] buffers;
+    int writes;
+
+    @Setup
+    public void setup()
+    {
+        trie="cow".equals(variant)?new CopyOnWriteTrie<String>(true,1024):new ArrayTernaryTrie<String>(1024);
+        lock="locked".equals(variant)?new ReentrantReadWriteLock():null;
+        buffers=new ByteBuffer[StringLookupBenchmark.BROWSER.length];
+        for (int i=0;i<buffers.length;i++)
+        {
+            String key=StringLookupBenchmark.BROWSER[i];
+            trie.put(key);
+            buffers[i]=BufferUtil.toBuffer(key+": value");
+        }
+    }
+
+    /**
+     * Look up every header, so the score is for one lookup of each.
+     */
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(4)
+    public void reader(Blackhole blackhole)
+    {
+        if (lock==null)
+        {
+            for (ByteBuffer buffer : buffers)
+                blackhole.consume(trie.getBest(buffer,0,buffer.remaining()));
+        }
+        else
+        {
+            for (ByteBuffer buffer : buffers)
+            {
+                lock.readLock().lock();
+                try
+                {
+                    blackhole.consume(trie.getBest(buffer,0,buffer.remaining()));
+                }
+                finally
+                {
+                    lock.readLock().unlock();
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @Group("lookup")
+    @GroupThreads(1)
+    public void writer()
+    {
+        if (write && !"unsynchronized".equals(variant))
+        {
+            String key="X-Runtime-"+(writes++%64);
+            if (lock==null)
+                trie.put(key,key);
+            else
+            {
+                lock.writeLock().lock();
+                try
+                {
+                    trie.put(key,key);
+                }
+                finally
+                {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+}
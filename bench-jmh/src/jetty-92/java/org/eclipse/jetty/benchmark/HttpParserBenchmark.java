@@ -0,0 +1,122 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpParser;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.util.BufferUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of a typical browser request by the Jetty 9.2 parser, swept by the number of
+ * headers and the size of a cookie, see {@link BrowserRequest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class HttpParserBenchmark
+{
+    @Param({"6","16","64"})
+    int headers;
+
+    @Param({"0","256","4096"})
+    int cookie;
+
+    final HttpFields fields = new HttpFields();
+    ByteBuffer buffer;
+    HttpParser parser;
+    int requests;
+
+    @Setup
+    public void setup()
+    {
+        buffer=BufferUtil.toBuffer(BrowserRequest.build(headers,cookie));
+        parser=new HttpParser(new MyHandler(),64*1024);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole)
+    {
+        parser.parseNext(buffer.duplicate());
+        parser.reset();
+        blackhole.consume(fields.size());
+        blackhole.consume(fields.getField(0));
+        fields.clear();
+    }
+
+    private class MyHandler implements HttpParser.RequestHandler<ByteBuffer>
+    {
+        @Override
+        public boolean parsedHeader(HttpField field)
+        {
+            fields.add(field);
+            return false;
+        }
+
+        @Override
+        public boolean messageComplete()
+        {
+            requests++;
+            return true;
+        }
+
+        @Override
+        public boolean headerComplete()
+        {
+            return false;
+        }
+
+        @Override
+        public void earlyEOF()
+        {
+        }
+
+        @Override
+        public boolean content(ByteBuffer item)
+        {
+            return false;
+        }
+
+        @Override
+        public void badMessage(int status, String reason)
+        {
+            throw new IllegalStateException(status+" "+reason);
+        }
+
+        @Override
+        public boolean startRequest(HttpMethod method, String methodString, ByteBuffer uri, HttpVersion version)
+        {
+            return false;
+        }
+
+        @Override
+        public boolean parsedHostHeader(String host, int port)
+        {
+            return false;
+        }
+
+        @Override
+        public int getHeaderCacheSize()
+        {
+            return 256;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.eclipse.jetty.benchmark;
+
+/**
+ * The requests parsed by the HttpParserBenchmark of each Jetty version, so that the
+ * versions parse the same bytes: a typical browser request, with more headers and a
+ * cookie to sweep the size of the request.
+ */
+public class BrowserRequest
+{
+    private static final String[] HEADERS =
+    {
+        "Host: localhost:8080",
+        "User-Agent: benchmark",
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+        "Accept-Language: en-US,en;q=0.5",
+        "Accept-Encoding: gzip, deflate",
+        "Referer: http://testhost/test",
+        "Connection: keep-alive",
+        "Cache-Control: max-age=0"
+    };
+
+    /**
+     * @param headers The number of headers: the browser headers, the first 6 of which were the
+     * whole request before the sweep, then <code>X-Header-<i>n</i></code> headers unknown to the parsers
+     * @param cookie The length of the value of a Cookie header, or 0 for none; the header is
+     * counted in the headers
+     * @return The request
+     */
+    public static String build(int headers, int cookie)
+    {
+        StringBuilder request = new StringBuilder("GET /context/hello/info HTTP/1.1\r\n");
+        int fields=cookie>0?headers-1:headers;
+        for (int i=0;i<fields;i++)
+        {
+            if (i<HEADERS.length)
+                request.append(HEADERS[i]);
+            else
+                request.append("X-Header-").append(i).append(": value-").append(i);
+            request.append("\r\n");
+        }
+        if (cookie>0)
+        {
+            request.append("Cookie: ");
+            for (int i=0;i<cookie;i++)
+                request.append((char)('a'+i%26));
+            request.append("\r\n");
+        }
+        return request.append("\r\n").toString();
+    }
+}
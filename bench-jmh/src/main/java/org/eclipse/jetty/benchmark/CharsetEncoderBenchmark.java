@@ -0,0 +1,135 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UTF-8 encoding of a String into a {@link ByteBuffer}, as when sending WebSocket text frames.
+ * Run with the GC profiler to see the allocation of each approach.
+ * <p>
+ * The <code>payload</code> is ASCII, Latin-1 text with a fifth of accented letters, CJK text
+ * with some ASCII punctuation, or ASCII text with a fifth of emoji (surrogate pairs). The
+ * <code>length</code> is in chars, and the buffer is large enough for any payload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class CharsetEncoderBenchmark
+{
+    @Param({"16","1024","16384"})
+    int length;
+
+    @Param({"ascii","latin1","cjk","emoji"})
+    String payload;
+
+    @Param({"false","true"})
+    boolean direct;
+
+    final Charset charset = StandardCharsets.UTF_8;
+    final CharsetEncoder encoder = charset.newEncoder();
+    String data;
+    ByteBuffer buffer;
+
+    @Setup
+    public void setup()
+    {
+        data = payload(payload,length,new Random(0));
+        buffer = direct?ByteBuffer.allocateDirect(length*3):ByteBuffer.allocate(length*3);
+    }
+
+    /**
+     * @param payload ascii, latin1, cjk or emoji
+     * @param length The number of chars
+     * @param random The source of the chars
+     * @return A string of the given kind of text
+     */
+    static String payload(String payload, int length, Random random)
+    {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length()<length)
+        {
+            int r=random.nextInt(5);
+            switch(payload)
+            {
+                case "latin1":
+                    builder.append(r==0?(char)(0xC0+random.nextInt(0x40)):(char)('a'+random.nextInt(26)));
+                    break;
+                case "cjk":
+                    builder.append(r==0?'\u3002':(char)(0x4E00+random.nextInt(0x5000)));
+                    break;
+                case "emoji":
+                    if (r==0 && builder.length()+2<=length)
+                        builder.appendCodePoint(0x1F600+random.nextInt(0x50));
+                    else
+                        builder.append((char)('a'+random.nextInt(26)));
+                    break;
+                default:
+                    builder.append(r==0?' ':(char)('a'+random.nextInt(26)));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Allocates a byte[] in getBytes(), which is then wrapped.
+     */
+    @Benchmark
+    public ByteBuffer getBytes()
+    {
+        return ByteBuffer.wrap(data.getBytes(charset));
+    }
+
+    /**
+     * Encodes in place with a new encoder, as the original benchmark.
+     */
+    @Benchmark
+    public ByteBuffer encode()
+    {
+        buffer.clear();
+        charset.newEncoder().encode(CharBuffer.wrap(data), buffer, true);
+        return buffer;
+    }
+
+    /**
+     * Encodes in place with a reused encoder.
+     */
+    @Benchmark
+    public ByteBuffer encodeReused()
+    {
+        buffer.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(data), buffer, true);
+        return buffer;
+    }
+
+    /**
+     * Encodes in place with the {@link Utf8Encoder}.
+     */
+    @Benchmark
+    public ByteBuffer utf8Encoder()
+    {
+        buffer.clear();
+        Utf8Encoder.encode(data,0,buffer);
+        return buffer;
+    }
+}
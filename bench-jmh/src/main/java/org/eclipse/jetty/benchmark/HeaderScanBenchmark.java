@@ -0,0 +1,158 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenizing pipelined request headers with the byte at a time scan of <code>HttpParser</code>
+ * vs the word at a time {@link SwarScanner}, of heap and direct buffers.
+ * <p>
+ * Both versions do the same single pass over every line: the spaces of the request line,
+ * then the ':' (or the CR of the blank line) and the CR of each field. The requests mix
+ * short browser headers with long cookies, where the word scan should gain the most.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class HeaderScanBenchmark
+{
+    private static final String BROWSER =
+        "GET /context/hello/info HTTP/1.1\r\n"+
+        "Host: localhost:8080\r\n"+
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:38.0) Gecko/20100101 Firefox/38.0\r\n"+
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"+
+        "Accept-Language: en-US,en;q=0.5\r\n"+
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Referer: http://testhost/test\r\n"+
+        "Connection: keep-alive\r\n"+
+        "\r\n";
+
+    private static final String COOKIES =
+        "GET /context/hello/account?id=1234567890&view=full HTTP/1.1\r\n"+
+        "Host: localhost:8080\r\n"+
+        "Cookie: JSESSIONID=1c3mpr6ytyv2p1s9nxkvhehqfe; _ga=GA1.2.1284763819.1431330000; "+
+            "_gid=GA1.2.981726354.1431330000; theme=dark; prefs=eyJsYW5nIjoiZW4iLCJ0eiI6IlVUQyJ9\r\n"+
+        "X-Forwarded-For: 10.1.2.3, 192.168.100.200\r\n"+
+        "X-Request-Id: 7b0d3a1e5c2f4a9b8d6e1f0a3c5b7d9e\r\n"+
+        "\r\n";
+
+    @Param({"false","true"})
+    boolean direct;
+
+    ByteBuffer buffer;
+
+    @Setup
+    public void setup()
+    {
+        byte[] bytes=(BROWSER+COOKIES+BROWSER+COOKIES).getBytes(StandardCharsets.ISO_8859_1);
+        buffer = direct?ByteBuffer.allocateDirect(bytes.length):ByteBuffer.allocate(bytes.length);
+        buffer.put(bytes).flip();
+    }
+
+    @Benchmark
+    public int scanByte()
+    {
+        ByteBuffer buffer=this.buffer;
+        int end=buffer.limit();
+        int tokens=0;
+        boolean requestLine=true;
+        for (int i=buffer.position();i<end;)
+        {
+            if (requestLine)
+            {
+                int space=indexOf(buffer,i,end,(byte)' ');
+                space=indexOf(buffer,space+1,end,(byte)' ');
+                i=indexOf(buffer,space+1,end,(byte)'\r')+2;
+                tokens+=3;
+                requestLine=false;
+            }
+            else
+            {
+                int colon=indexOfAny(buffer,i,end,(byte)':',(byte)'\r');
+                if (buffer.get(colon)=='\r')
+                {
+                    i=colon+2;
+                    tokens++;
+                    requestLine=true;
+                }
+                else
+                {
+                    i=indexOf(buffer,colon+1,end,(byte)'\r')+2;
+                    tokens+=2;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    @Benchmark
+    public int scanSwar()
+    {
+        ByteBuffer buffer=this.buffer;
+        int end=buffer.limit();
+        int tokens=0;
+        boolean requestLine=true;
+        for (int i=buffer.position();i<end;)
+        {
+            if (requestLine)
+            {
+                int space=SwarScanner.indexOf(buffer,i,end,(byte)' ');
+                space=SwarScanner.indexOf(buffer,space+1,end,(byte)' ');
+                i=SwarScanner.indexOf(buffer,space+1,end,(byte)'\r')+2;
+                tokens+=3;
+                requestLine=false;
+            }
+            else
+            {
+                int colon=SwarScanner.indexOfAny(buffer,i,end,(byte)':',(byte)'\r');
+                if (buffer.get(colon)=='\r')
+                {
+                    i=colon+2;
+                    tokens++;
+                    requestLine=true;
+                }
+                else
+                {
+                    i=SwarScanner.indexOf(buffer,colon+1,end,(byte)'\r')+2;
+                    tokens+=2;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int from, int to, byte b)
+    {
+        for (int i=from;i<to;i++)
+            if (buffer.get(i)==b)
+                return i;
+        return -1;
+    }
+
+    private static int indexOfAny(ByteBuffer buffer, int from, int to, byte a, byte b)
+    {
+        for (int i=from;i<to;i++)
+        {
+            byte c=buffer.get(i);
+            if (c==a || c==b)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,68 @@
+package org.eclipse.jetty.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Branching vs branchless conversion of hex digits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class HexToDecimalBenchmark
+{
+    @Param({"16","1024","65536"})
+    int size;
+
+    char[] chars;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(size);
+        chars = new char[size];
+        for (int i=0;i<size;i++)
+            chars[i]="0123456789ABCDEF".charAt(random.nextInt(16));
+    }
+
+    @Benchmark
+    public int branching()
+    {
+        int result=0;
+        for (char c:chars)
+        {
+            byte b=(c>='A'&&c<='F')
+              ?(byte)(10+c-'A')
+              :(byte)(c-'0');
+            result=(b+result)&0x7fffffff;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int branchless()
+    {
+        int result=0;
+        for (char c:chars)
+        {
+            byte b = (byte)((c & 0x1f) + ((c >> 6) * 0x19) - 0x10);
+            result=(b+result)&0x7fffffff;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this jar and emits the results as {@link Measurement}s.
+ * <p>
+ * The usual JMH command line options are accepted. In addition:
+ * <ul>
+ * <li>The GC profiler is always added, so the allocation rate per operation is reported
+ * and emitted as the <code>alloc</code> metric.</li>
+ * <li><code>-Dperfasm=true</code> adds the perf based assembly profiler (Linux only,
+ * needs perf and hsdis).</li>
+ * <li><code>-Dthreads=1,2,4</code> repeats the run for each thread count.</li>
+ * </ul>
+ * The JMH JSON results are written to <code>target/jmh-&lt;jetty&gt;.json</code>, unless
+ * <code>-rff</code> is given. Each fork is emitted as a separate sample, labelled with
+ * the Jetty version of the jar, so that the results of the jars built by the
+ * <code>jetty-8</code>, <code>jetty-9.2</code> and <code>jetty-9.3</code> profiles can be
+ * compared with {@link ResultComparator}.
+ * <p>
+ * Usage: <code>java -jar target/benchmarks-9.2.jar [jmh options] [regexp]</code>
+ */
+public class JmhRunner
+{
+    public static void main(String... args) throws Exception
+    {
+        Properties build = new Properties();
+        try (InputStream in = JmhRunner.class.getResourceAsStream("/jmh-runner.properties"))
+        {
+            build.load(in);
+        }
+        String label = build.getProperty("jetty.label");
+        if (System.getProperty("benchmark.version")==null)
+            System.setProperty("benchmark.version",build.getProperty("jetty.version"));
+        if (System.getProperty("benchmark.label")==null)
+            System.setProperty("benchmark.label",label);
+
+        CommandLineOptions cli = new CommandLineOptions(args);
+        List<Integer> threads = new ArrayList<>();
+        for (String count : System.getProperty("threads","").split(","))
+            if (!count.trim().isEmpty())
+                threads.add(Integer.valueOf(count.trim()));
+        if (threads.isEmpty())
+            threads.add(null);
+
+        for (Integer count : threads)
+        {
+            ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+            options.addProfiler(GCProfiler.class);
+            if (Boolean.getBoolean("perfasm"))
+                options.addProfiler(LinuxPerfAsmProfiler.class);
+            if (!cli.getResult().hasValue())
+                options.resultFormat(ResultFormatType.JSON).result("target/jmh-"+label+(count==null?"":("-"+count))+".json");
+            if (count!=null)
+                options.threads(count);
+
+            emit(new Runner(options.build()).run());
+        }
+    }
+
+    private static void emit(Collection<RunResult> results)
+    {
+        for (RunResult run : results)
+        {
+            BenchmarkParams params = run.getParams();
+            String benchmark = params.getBenchmark();
+            benchmark = benchmark.substring(benchmark.lastIndexOf('.',benchmark.lastIndexOf('.')-1)+1);
+            boolean higherIsBetter = params.getMode().shortLabel().equals("thrpt");
+
+            for (org.openjdk.jmh.results.BenchmarkResult fork : run.getBenchmarkResults())
+            {
+                Measurement measurement = new Measurement(benchmark)
+                    .param("mode",params.getMode().shortLabel())
+                    .param("threads",params.getThreads());
+                for (String key : params.getParamsKeys())
+                    measurement.param(key,params.getParam(key));
+
+                Result primary = fork.getPrimaryResult();
+                measurement.metric("score",primary.getScore(),primary.getScoreUnit(),higherIsBetter);
+                for (Map.Entry<String,Result> secondary : fork.getSecondaryResults().entrySet())
+                {
+                    if (secondary.getKey().endsWith("gc.alloc.rate.norm"))
+                        measurement.metric("alloc",secondary.getValue().getScore(),secondary.getValue().getScoreUnit(),false);
+                }
+                measurement.emit();
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A minimal perfect hash of a fixed set of ASCII keys, eg the known header names or methods,
+ * looked up case insensitively from a {@link ByteBuffer} without allocation.
+ * <p>
+ * The table is built at startup by hash and displace: each key is hashed once to 64 bits,
+ * which picks one of n/2 buckets. The buckets are placed largest first, each at the
+ * smallest displacement d for which <code>mix(hash+d*C)%n</code> is a free slot for all
+ * of its keys. A lookup hashes the bytes once, remixes the hash with the displacement of
+ * its bucket and compares the key of that slot, so an unknown key costs one hash and at
+ * most one comparison.
+ * <p>
+ * Unlike the tries there is no best (longest prefix) match: the key is either given by
+ * its length or ends at a delimiter, eg the ':' of a header name.
+ */
+public class PerfectHash<V>
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final int MAX_DISPLACEMENT = 1<<20;
+    private static final int MAX_SEEDS = 64;
+
+    private final int[] _displacements;
+    private final byte[][] _keys;
+    private final Object[] _values;
+    private long _seed;
+
+    /**
+     * @param entries The keys, which must be ASCII and unique regardless of case, and their values
+     * @throws IllegalArgumentException if the keys are not unique, or no seed gives a perfect hash of them
+     */
+    public PerfectHash(Map<String,V> entries)
+    {
+        int n=entries.size();
+        Set<String> unique = new HashSet<>();
+        for (String key : entries.keySet())
+            if (!unique.add(key.toLowerCase(Locale.ENGLISH)))
+                throw new IllegalArgumentException("Duplicate key "+key);
+
+        _displacements=new int[Math.max(1,n/2)];
+        _keys=new byte[n][];
+        _values=new Object[n];
+
+        _seed=FNV_OFFSET;
+        for (int s=0;s<MAX_SEEDS;s++,_seed=_seed*FNV_PRIME+1)
+        {
+            if (build(entries))
+                return;
+        }
+        throw new IllegalArgumentException("No perfect hash of "+n+" keys with "+MAX_SEEDS+" seeds");
+    }
+
+    private boolean build(Map<String,V> entries)
+    {
+        int n=_keys.length;
+        int r=_displacements.length;
+        List<List<Map.Entry<String,V>>> buckets = new ArrayList<>();
+        for (int b=0;b<r;b++)
+            buckets.add(new ArrayList<Map.Entry<String,V>>());
+        for (Map.Entry<String,V> entry : entries.entrySet())
+        {
+            byte[] key=entry.getKey().getBytes(StandardCharsets.US_ASCII);
+            buckets.get(bucket(hash(key),r)).add(entry);
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int b=0;b<r;b++)
+            order.add(b);
+        final List<List<Map.Entry<String,V>>> sizes=buckets;
+        Collections.sort(order,new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return sizes.get(b).size()-sizes.get(a).size();
+            }
+        });
+
+        Arrays.fill(_keys,null);
+        int[] slots = new int[n];
+        for (int b : order)
+        {
+            List<Map.Entry<String,V>> bucket=buckets.get(b);
+            if (bucket.isEmpty())
+                continue;
+            int d=0;
+            search: for (;;d++)
+            {
+                // Give up on this seed rather than search forever for an impossible bucket
+                if (d==MAX_DISPLACEMENT)
+                    return false;
+                for (int k=0;k<bucket.size();k++)
+                {
+                    byte[] key=bucket.get(k).getKey().getBytes(StandardCharsets.US_ASCII);
+                    int slot=slot(hash(key),d,n);
+                    if (_keys[slot]!=null)
+                        continue search;
+                    for (int j=0;j<k;j++)
+                        if (slots[j]==slot)
+                            continue search;
+                    slots[k]=slot;
+                }
+                break;
+            }
+            _displacements[b]=d;
+            for (int k=0;k<bucket.size();k++)
+            {
+                byte[] key=bucket.get(k).getKey().getBytes(StandardCharsets.US_ASCII);
+                for (int i=0;i<key.length;i++)
+                    key[i]=lower(key[i]);
+                _keys[slots[k]]=key;
+                _values[slots[k]]=bucket.get(k).getValue();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param buffer The buffer
+     * @param offset The offset of the key from the position of the buffer
+     * @param length The length of the key
+     * @return The value of the key, or null if it is not known
+     */
+    public V get(ByteBuffer buffer, int offset, int length)
+    {
+        int start=buffer.position()+offset;
+        long hash=_seed;
+        if (buffer.hasArray())
+        {
+            byte[] array=buffer.array();
+            int base=buffer.arrayOffset();
+            for (int i=start;i<start+length;i++)
+                hash=(hash^lower(array[base+i]))*FNV_PRIME;
+        }
+        else
+        {
+            for (int i=start;i<start+length;i++)
+                hash=(hash^lower(buffer.get(i)))*FNV_PRIME;
+        }
+        return lookup(buffer,start,length,mix(hash));
+    }
+
+    /**
+     * Look up the key that ends at a delimiter, hashing it in the same pass as the
+     * delimiter is searched for.
+     * @param buffer The buffer
+     * @param offset The offset of the key from the position of the buffer
+     * @param maxLength The maximum length to search for the delimiter
+     * @param delimiter The byte after the key, eg ':' for a header name
+     * @return The value of the key, or null if it is not known or there is no delimiter
+     */
+    public V get(ByteBuffer buffer, int offset, int maxLength, byte delimiter)
+    {
+        int start=buffer.position()+offset;
+        int end=start+maxLength;
+        long hash=_seed;
+        int i=start;
+        if (buffer.hasArray())
+        {
+            byte[] array=buffer.array();
+            int base=buffer.arrayOffset();
+            for (;i<end;i++)
+            {
+                byte b=array[base+i];
+                if (b==delimiter)
+                    break;
+                hash=(hash^lower(b))*FNV_PRIME;
+            }
+        }
+        else
+        {
+            for (;i<end;i++)
+            {
+                byte b=buffer.get(i);
+                if (b==delimiter)
+                    break;
+                hash=(hash^lower(b))*FNV_PRIME;
+            }
+        }
+        if (i==end)
+            return null;
+        return lookup(buffer,start,i-start,mix(hash));
+    }
+
+    @SuppressWarnings("unchecked")
+    private V lookup(ByteBuffer buffer, int start, int length, long hash)
+    {
+        int n=_keys.length;
+        if (n==0)
+            return null;
+        int slot=slot(hash,_displacements[bucket(hash,_displacements.length)],n);
+        byte[] key=_keys[slot];
+        if (key.length!=length)
+            return null;
+        if (buffer.hasArray())
+        {
+            byte[] array=buffer.array();
+            int base=buffer.arrayOffset()+start;
+            for (int i=0;i<length;i++)
+                if (lower(array[base+i])!=key[i])
+                    return null;
+        }
+        else
+        {
+            for (int i=0;i<length;i++)
+                if (lower(buffer.get(start+i))!=key[i])
+                    return null;
+        }
+        return (V)_values[slot];
+    }
+
+    public V get(String key)
+    {
+        return get(ByteBuffer.wrap(key.getBytes(StandardCharsets.ISO_8859_1)),0,key.length());
+    }
+
+    public int size()
+    {
+        return _keys.length;
+    }
+
+    private long hash(byte[] key)
+    {
+        // FNV-1a of the lower cased bytes, as the keys are compared lower cased. Setting the
+        // case bit instead would also fold eg '@' into '`', so distinct keys could always collide.
+        long hash=_seed;
+        for (byte b : key)
+            hash=(hash^lower(b))*FNV_PRIME;
+        return mix(hash);
+    }
+
+    private static long mix(long hash)
+    {
+        // FNV-1a is weak in the high bits for short keys, so finish with a murmur3 mix
+        hash^=hash>>>33;
+        hash*=0xff51afd7ed558ccdL;
+        hash^=hash>>>33;
+        return hash;
+    }
+
+    private static int bucket(long hash, int r)
+    {
+        return (int)((hash>>>32)%r);
+    }
+
+    private static int slot(long hash, int d, int n)
+    {
+        return (int)((mix(hash+d*GOLDEN)>>>1)%n);
+    }
+
+    private static byte lower(byte b)
+    {
+        return b>='A' && b<='Z'?(byte)(b|0x20):b;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d,buckets=%d}",getClass().getSimpleName(),hashCode(),_keys.length,_displacements.length);
+    }
+}
@@ -0,0 +1,334 @@
+package org.eclipse.jetty.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A switch on an enum state vs polymorphic state objects vs a {@link StateMachine} table of
+ * packed int states, all updated by CAS.
+ * <p>
+ * The machine is shared by all benchmark threads, so run with <code>-t</code> or
+ * <code>-Dthreads=1,2,4</code> to see the effect of contention. Each thread replays
+ * its own random sequence of events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class StateMachineBenchmark
+{
+    @Param({"switching","polymorphic","packed"})
+    String machine;
+
+    Machine _machine;
+
+    @Setup
+    public void setup()
+    {
+        switch(machine)
+        {
+            case "switching":
+                _machine=new SwitchingMachine();
+                break;
+            case "polymorphic":
+                _machine=new PolymorphicMachine();
+                break;
+            default:
+                _machine=new PackedMachine();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Events
+    {
+        final char[] events = new char[4096];
+        int next;
+
+        @Setup
+        public void setup()
+        {
+            Random random = new Random();
+            for (int i=0;i<events.length;i++)
+                events[i]="SPH".charAt(random.nextInt(3));
+        }
+    }
+
+    @Benchmark
+    public Object event(Events events)
+    {
+        char event = events.events[events.next++&(events.events.length-1)];
+        switch(event)
+        {
+            case 'S':
+                _machine.playSheldon();
+                break;
+            case 'P':
+                _machine.seePenny();
+                break;
+            default:
+                _machine.thinkOfHoward();
+                break;
+        }
+        return _machine;
+    }
+
+    interface Machine
+    {
+        public void playSheldon();
+        public void seePenny();
+        public void thinkOfHoward();
+    }
+
+    static class SwitchingMachine implements Machine
+    {
+        enum State {ROCK,PAPER,SCISSORS,LIZARD,SPOCK};
+
+        final AtomicReference<State> _state= new AtomicReference<>(State.SPOCK);
+
+        @Override
+        public void playSheldon()
+        {
+            loop: while(true)
+            {
+                State state=_state.get();
+                switch(state)
+                {
+                    case LIZARD:
+                        if (!_state.compareAndSet(state,State.PAPER))
+                            continue;
+                        break loop;
+                    case PAPER:
+                        if (!_state.compareAndSet(state,State.LIZARD))
+                            continue;
+                        break loop;
+                    default:
+                        if (!_state.compareAndSet(state,State.LIZARD))
+                            continue;
+                        break loop;
+                }
+            }
+        }
+
+        @Override
+        public void seePenny()
+        {
+            loop: while(true)
+            {
+                State state=_state.get();
+                switch(state)
+                {
+                    case SPOCK:
+                        if (!_state.compareAndSet(state,State.ROCK))
+                            continue;
+                        break loop;
+                    case LIZARD:
+                        if (!_state.compareAndSet(state,State.PAPER))
+                            continue;
+                        break loop;
+                    default:
+                        break loop;
+                }
+            }
+        }
+
+        @Override
+        public void thinkOfHoward()
+        {
+            loop: while(true)
+            {
+                State state=_state.get();
+                switch(state)
+                {
+                    case SPOCK:
+                        break loop;
+                    default:
+                        if (!_state.compareAndSet(state,State.SCISSORS))
+                            continue;
+                        break loop;
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return _state.get().toString();
+        }
+    }
+
+    /**
+     * The same game as a {@link StateMachine} table.
+     */
+    static class PackedMachine implements Machine
+    {
+        static final StateMachine.Table TABLE = new StateMachine.Table("RPSLS",new String[]{"SPOCK","ROCK","PAPER","SCISSORS","LIZARD"})
+            .on("playSheldon","*","LIZARD")
+            .on("playSheldon","LIZARD","PAPER")
+            .on("playSheldon","PAPER","LIZARD")
+            .on("seePenny","*","*")
+            .on("seePenny","SPOCK","ROCK")
+            .on("seePenny","LIZARD","PAPER")
+            .on("thinkOfHoward","*","SCISSORS")
+            .on("thinkOfHoward","SPOCK","SPOCK");
+        static final int SHELDON = TABLE.event("playSheldon");
+        static final int PENNY = TABLE.event("seePenny");
+        static final int HOWARD = TABLE.event("thinkOfHoward");
+
+        final StateMachine _machine = new StateMachine(TABLE);
+
+        @Override
+        public void playSheldon()
+        {
+            _machine.fire(SHELDON);
+        }
+
+        @Override
+        public void seePenny()
+        {
+            _machine.fire(PENNY);
+        }
+
+        @Override
+        public void thinkOfHoward()
+        {
+            _machine.fire(HOWARD);
+        }
+
+        @Override
+        public String toString()
+        {
+            return _machine.toString();
+        }
+    }
+
+    static class StateClass
+    {
+        final String _name;
+
+        StateClass(String name)
+        {
+            _name=name;
+        }
+
+        StateClass playSheldon()
+        {
+            return LIZARD;
+        }
+
+        StateClass seePenny()
+        {
+            return this;
+        }
+
+        StateClass thinkOfHoward()
+        {
+            return SCISSORS;
+        }
+
+        @Override
+        public String toString()
+        {
+            return _name;
+        }
+    }
+
+    static StateClass ROCK = new StateClass("ROCK");
+    static StateClass PAPER = new StateClass("PAPER")
+    {
+        @Override
+        StateClass playSheldon()
+        {
+            return LIZARD;
+        }
+    };
+    static StateClass SCISSORS = new StateClass("SCISSORS");
+    static StateClass LIZARD = new StateClass("LIZARD")
+    {
+        @Override
+        StateClass playSheldon()
+        {
+            return PAPER;
+        }
+        @Override
+        StateClass seePenny()
+        {
+            return PAPER;
+        }
+    };
+    static StateClass SPOCK = new StateClass("SPOCK")
+    {
+        @Override
+        StateClass seePenny()
+        {
+            return ROCK;
+        }
+
+        @Override
+        StateClass thinkOfHoward()
+        {
+            return SPOCK;
+        }
+    };
+
+    static class PolymorphicMachine implements Machine
+    {
+        final AtomicReference<StateClass> _state = new AtomicReference<>(SPOCK);
+
+        @Override
+        public void playSheldon()
+        {
+            while(true)
+            {
+                StateClass state=_state.get();
+                StateClass next=state.playSheldon();
+                if (state==next || _state.compareAndSet(state,next))
+                    break;
+            }
+        }
+
+        @Override
+        public void seePenny()
+        {
+            while(true)
+            {
+                StateClass state=_state.get();
+                StateClass next=state.seePenny();
+                if (state==next || _state.compareAndSet(state,next))
+                    break;
+            }
+        }
+
+        @Override
+        public void thinkOfHoward()
+        {
+            while(true)
+            {
+                StateClass state=_state.get();
+                StateClass next=state.thinkOfHoward();
+                if (state==next || _state.compareAndSet(state,next))
+                    break;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return _state.get().toString();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds bytes in a buffer 8 at a time, by reading them as a <code>long</code> and testing
+ * all the bytes of the word at once (SIMD within a register).
+ * <p>
+ * For a word <code>x</code> that is the input XOR the searched byte repeated 8 times,
+ * <code>~(((x&amp;0x7F..)+0x7F..)|x|0x7F..)</code> has the top bit of a byte set exactly
+ * when that byte of <code>x</code> is zero. Unlike the shorter <code>(x-0x01..)&amp;~x</code>
+ * it has no false positives, so it works for both byte orders: the first match is found
+ * from the trailing zeros of a little endian word or the leading zeros of a big endian one.
+ * <p>
+ * The words are read with {@link ByteBuffer#getLong(int)}, which is a single unaligned load
+ * for direct buffers, where the byte loop pays a call per byte and the word scan wins
+ * several times over. For heap buffers the JIT already compiles the byte loop well and
+ * <code>getLong</code> is not always a single load (on Java 7 and 8 it assembles the bytes),
+ * so the gain there depends on the JVM.
+ * The bytes after the last whole word are scanned one at a time.
+ */
+public class SwarScanner
+{
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+    /**
+     * @return The index of the first byte equal to b in [from,to), or -1
+     */
+    public static int indexOf(ByteBuffer buffer, int from, int to, byte b)
+    {
+        long pattern=(b&0xFFL)*ONES;
+        boolean little=buffer.order()==ByteOrder.LITTLE_ENDIAN;
+        int i=from;
+        for (;i+8<=to;i+=8)
+        {
+            long matches=zeros(buffer.getLong(i)^pattern);
+            if (matches!=0)
+                return i+first(matches,little);
+        }
+        for (;i<to;i++)
+            if (buffer.get(i)==b)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return The index of the first byte equal to a or b in [from,to), or -1
+     */
+    public static int indexOfAny(ByteBuffer buffer, int from, int to, byte a, byte b)
+    {
+        long patternA=(a&0xFFL)*ONES;
+        long patternB=(b&0xFFL)*ONES;
+        boolean little=buffer.order()==ByteOrder.LITTLE_ENDIAN;
+        int i=from;
+        for (;i+8<=to;i+=8)
+        {
+            long word=buffer.getLong(i);
+            long matches=zeros(word^patternA)|zeros(word^patternB);
+            if (matches!=0)
+                return i+first(matches,little);
+        }
+        for (;i<to;i++)
+        {
+            byte c=buffer.get(i);
+            if (c==a || c==b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the first byte equal to a, b or c in [from,to), or -1
+     */
+    public static int indexOfAny(ByteBuffer buffer, int from, int to, byte a, byte b, byte c)
+    {
+        long patternA=(a&0xFFL)*ONES;
+        long patternB=(b&0xFFL)*ONES;
+        long patternC=(c&0xFFL)*ONES;
+        boolean little=buffer.order()==ByteOrder.LITTLE_ENDIAN;
+        int i=from;
+        for (;i+8<=to;i+=8)
+        {
+            long word=buffer.getLong(i);
+            long matches=zeros(word^patternA)|zeros(word^patternB)|zeros(word^patternC);
+            if (matches!=0)
+                return i+first(matches,little);
+        }
+        for (;i<to;i++)
+        {
+            byte d=buffer.get(i);
+            if (d==a || d==b || d==c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index of the first CRLF in [from,to), or -1
+     */
+    public static int indexOfCRLF(ByteBuffer buffer, int from, int to)
+    {
+        int i=from;
+        while (true)
+        {
+            int cr=indexOf(buffer,i,to-1,(byte)'\r');
+            if (cr<0 || buffer.get(cr+1)=='\n')
+                return cr;
+            i=cr+1;
+        }
+    }
+
+    /**
+     * @return A word with the top bit set of every byte of x that is zero
+     */
+    private static long zeros(long x)
+    {
+        return ~(((x&LOW7)+LOW7)|x|LOW7);
+    }
+
+    private static int first(long matches, boolean little)
+    {
+        return (little?Long.numberOfTrailingZeros(matches):Long.numberOfLeadingZeros(matches))>>>3;
+    }
+}
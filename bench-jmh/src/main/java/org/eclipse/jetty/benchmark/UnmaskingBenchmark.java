@@ -0,0 +1,101 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WebSocket unmasking a byte, an int or a long at a time vs the {@link Unmasker}, of heap
+ * and direct buffers, for payloads from 2 bytes to 1MB.
+ * <p>
+ * Unlike the original main() loop, the int and long versions also unmask the trailing bytes
+ * of lengths that are not a multiple of their size, so all versions do the same work.
+ * The payload starts at an <code>offset</code> in the buffer, eg after a 6 byte frame header,
+ * which misaligns the int and long accesses unless they are realigned as the
+ * {@link Unmasker} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(3)
+public class UnmaskingBenchmark
+{
+    @Param({"2","6","125","1024","65536","1048576"})
+    int size;
+
+    @Param({"false","true"})
+    boolean direct;
+
+    @Param({"0","6"})
+    int offset;
+
+    final byte[] maskBytes = {0x12, 0x6F, 0x3D, 0x41};
+    final int maskInt = ByteBuffer.wrap(maskBytes).getInt();
+    final long maskLong = (maskInt&0xFFFFFFFFL)<<32|(maskInt&0xFFFFFFFFL);
+    ByteBuffer buffer;
+
+    @Setup
+    public void setup()
+    {
+        buffer = direct?ByteBuffer.allocateDirect(offset+size):ByteBuffer.allocate(offset+size);
+        buffer.position(offset);
+    }
+
+    @Benchmark
+    public ByteBuffer unmaskByte()
+    {
+        ByteBuffer buffer=this.buffer;
+        int start=buffer.position();
+        for (int i=start;i<buffer.limit();++i)
+            buffer.put(i,(byte)(buffer.get(i)^maskBytes[(i-start)&0x3]));
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer unmaskInt()
+    {
+        ByteBuffer buffer=this.buffer;
+        int start=buffer.position();
+        int i=start;
+        int end=buffer.limit();
+        for (;i+4<=end;i+=4)
+            buffer.putInt(i,buffer.getInt(i)^maskInt);
+        for (;i<end;i++)
+            buffer.put(i,(byte)(buffer.get(i)^maskBytes[(i-start)&0x3]));
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer unmaskLong()
+    {
+        ByteBuffer buffer=this.buffer;
+        int start=buffer.position();
+        int i=start;
+        int end=buffer.limit();
+        for (;i+8<=end;i+=8)
+            buffer.putLong(i,buffer.getLong(i)^maskLong);
+        for (;i<end;i++)
+            buffer.put(i,(byte)(buffer.get(i)^maskBytes[(i-start)&0x3]));
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer unmasker()
+    {
+        Unmasker.unmask(buffer,maskInt,0);
+        return buffer;
+    }
+}
@@ -0,0 +1,378 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Coordinates a benchmark run over several local JVMs.
+ * <p>
+ * The coordinator launches a server JVM with remote JMX enabled, waits for its port,
+ * and then launches a number of client JVMs that connect back to it over a small
+ * line based control channel (see {@link Coordination}). Warmup and measurement
+ * phases start on all clients together. The measurement phase starts once every
+ * client has opened its connections, and ends when the last client has sent its
+ * last request (<code>measured</code>), so neither the connection setup nor the
+ * drain of the outstanding responses is timed. Server process CPU, GC and thread
+ * statistics are sampled over JMX at the start and end of the measurement phase,
+ * and are written together with the merged client throughput and latency as a
+ * {@link Measurement} per run, plus the merged latency distribution.
+ * <p>
+ * This replaces the <code>/benchmark/start</code> and <code>/benchmark/stop</code>
+ * control requests, which only a single client could take part in.
+ * <p>
+ * Configuration is read from system properties, overridden by an optional properties
+ * file given as the only argument:
+ * <dl>
+ * <dt>name</dt><dd>The run name (default <code>benchmark</code>)</dd>
+ * <dt>server.classpath</dt><dd>The classpath of the server JVM, eg of bench-9-server, which is
+ * required as the servers are not on the classpath of the coordinator</dd>
+ * <dt>server.main, server.jvm, server.args, server.port</dt><dd>The server JVM</dd>
+ * <dt>clients</dt><dd>The number of client JVMs (default 1)</dd>
+ * <dt>client.main, client.classpath, client.jvm, client.args</dt><dd>The client JVMs</dd>
+ * <dt>result.dir</dt><dd>Where results are written (default <code>target/results</code>)</dd>
+ * <dt>result.file</dt><dd>The {@link ResultWriter} file in result.dir, which each run is appended to (default <code>results.json</code>)</dd>
+ * <dt>benchmark.version, benchmark.label</dt><dd>The Jetty version of the server and a label for the run</dd>
+ * </dl>
+ */
+public class BenchmarkCoordinator
+{
+    private final Properties _config;
+    private final int _clients;
+    private final List<Process> _processes = new ArrayList<>();
+    private final List<ClientHandler> _handlers = new CopyOnWriteArrayList<>();
+    private final Map<String,Integer> _ready = new LinkedHashMap<>();
+    private ServerSocket _control;
+    private JMXConnector _jmx;
+
+    public BenchmarkCoordinator(Properties config)
+    {
+        _config=config;
+        _clients=Integer.parseInt(config.getProperty("clients","1"));
+    }
+
+    public void run() throws Exception
+    {
+        String name=_config.getProperty("name","benchmark");
+        String serverClasspath=_config.getProperty("server.classpath");
+        if (serverClasspath==null)
+            throw new IllegalStateException("No server.classpath: the server classes are not on the classpath of the coordinator");
+        _control = new ServerSocket(0);
+        try
+        {
+            // Start the server and wait for it to accept connections
+            int jmxPort=freePort();
+            int serverPort=Integer.parseInt(_config.getProperty("server.port","8080"));
+            launch("server",
+                serverClasspath,
+                _config.getProperty("server.jvm","")+
+                " -Dcom.sun.management.jmxremote.port="+jmxPort+
+                " -Dcom.sun.management.jmxremote.authenticate=false"+
+                " -Dcom.sun.management.jmxremote.ssl=false",
+                _config.getProperty("server.main","org.eclipse.jetty.benchmark.BenchmarkServer"),
+                _config.getProperty("server.args",""));
+            awaitPort(serverPort);
+            _jmx=JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:"+jmxPort+"/jmxrmi"));
+
+            // Start the clients and wait for them to connect back
+            for (int i=0;i<_clients;i++)
+                launch("client-"+i,
+                    _config.getProperty("client.classpath",System.getProperty("java.class.path")),
+                    _config.getProperty("client.jvm","")+
+                    " -D"+Coordination.PROPERTY+"=localhost:"+_control.getLocalPort()+
+                    " -Dbenchmark.client=client-"+i,
+                    _config.getProperty("client.main","org.eclipse.jetty.benchmark.OpenLoopClient"),
+                    _config.getProperty("client.args",""));
+            _control.setSoTimeout((int)TimeUnit.MINUTES.toMillis(1));
+            for (int i=0;i<_clients;i++)
+            {
+                ClientHandler handler = new ClientHandler(_control.accept());
+                _handlers.add(handler);
+                handler.start();
+            }
+
+            awaitReady("warmup");
+            System.err.println("Coordinator: warmup");
+            go("warmup");
+
+            awaitReady("measure");
+            Map<String,Object> before=sampleServer();
+            long begin=System.nanoTime();
+            System.err.println("Coordinator: measure");
+            go("measure");
+
+            awaitReady("measured");
+            long elapsed=System.nanoTime()-begin;
+            Map<String,Object> after=sampleServer();
+            System.err.println("Coordinator: measured");
+
+            awaitReady("end");
+            go("end");
+
+            for (ClientHandler handler : _handlers)
+                handler.join();
+
+            write(name,elapsed,before,after);
+        }
+        finally
+        {
+            if (_jmx!=null)
+                _jmx.close();
+            for (Process process : _processes)
+                process.destroy();
+            _control.close();
+        }
+    }
+
+    private void launch(String id, String classpath, String jvm, String main, String args) throws IOException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+        command.add("-cp");
+        command.add(classpath);
+        for (String arg : jvm.trim().split("\\s+"))
+            if (arg.length()>0)
+                command.add(arg);
+        command.add(main);
+        for (String arg : args.trim().split("\\s+"))
+            if (arg.length()>0)
+                command.add(arg);
+        System.err.println("Coordinator: launching "+id+" "+main);
+        _processes.add(new ProcessBuilder(command).inheritIO().start());
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void awaitPort(int port) throws Exception
+    {
+        long deadline=System.nanoTime()+TimeUnit.SECONDS.toNanos(30);
+        while (true)
+        {
+            try (Socket socket = new Socket())
+            {
+                socket.connect(new InetSocketAddress("localhost",port));
+                return;
+            }
+            catch(IOException e)
+            {
+                if (System.nanoTime()>deadline)
+                    throw e;
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        }
+    }
+
+    private synchronized void ready(String phase)
+    {
+        Integer count=_ready.get(phase);
+        _ready.put(phase,count==null?1:count+1);
+        notifyAll();
+    }
+
+    private synchronized void awaitReady(String phase) throws InterruptedException
+    {
+        while (true)
+        {
+            Integer count=_ready.get(phase);
+            if (count!=null && count>=_clients)
+                return;
+            int alive=0;
+            for (ClientHandler handler : _handlers)
+                if (handler.isAlive())
+                    alive++;
+            if (alive<_clients)
+                throw new IllegalStateException("Client exited before "+phase);
+            wait(1000);
+        }
+    }
+
+    private void go(String phase)
+    {
+        for (ClientHandler handler : _handlers)
+            handler.send("GO "+phase);
+    }
+
+    /**
+     * Sample the server process statistics over JMX.
+     */
+    private Map<String,Object> sampleServer() throws Exception
+    {
+        MBeanServerConnection mbeans=_jmx.getMBeanServerConnection();
+        Map<String,Object> sample = new LinkedHashMap<>();
+
+        com.sun.management.OperatingSystemMXBean os = ManagementFactory.newPlatformMXBeanProxy(mbeans,
+            ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME,com.sun.management.OperatingSystemMXBean.class);
+        sample.put("cpuTime",os.getProcessCpuTime());
+        sample.put("processors",os.getAvailableProcessors());
+
+        ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy(mbeans,
+            ManagementFactory.THREAD_MXBEAN_NAME,ThreadMXBean.class);
+        sample.put("threads",threads.getThreadCount());
+        sample.put("peakThreads",threads.getPeakThreadCount());
+
+        long gcCount=0;
+        long gcTime=0;
+        Set<ObjectName> names = mbeans.queryNames(new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE+",*"),null);
+        for (ObjectName gcName : names)
+        {
+            GarbageCollectorMXBean gc = ManagementFactory.newPlatformMXBeanProxy(mbeans,gcName.toString(),GarbageCollectorMXBean.class);
+            gcCount+=gc.getCollectionCount();
+            gcTime+=gc.getCollectionTime();
+        }
+        sample.put("gcCount",gcCount);
+        sample.put("gcTime",gcTime);
+        return sample;
+    }
+
+    private void write(String name, long elapsed, Map<String,Object> before, Map<String,Object> after) throws Exception
+    {
+        // Merge the client results
+        Map<String,Long> totals = new LinkedHashMap<>();
+        Histogram latency = new Histogram(LatencyRecorder.HIGHEST,3);
+        for (ClientHandler handler : _handlers)
+        {
+            for (Map.Entry<String,Long> entry : handler._results.entrySet())
+            {
+                Long total=totals.get(entry.getKey());
+                totals.put(entry.getKey(),total==null?entry.getValue():total+entry.getValue());
+            }
+            for (Histogram histogram : handler._histograms.values())
+                latency.add(histogram);
+        }
+
+        long cpu=(Long)after.get("cpuTime")-(Long)before.get("cpuTime");
+        int processors=(Integer)after.get("processors");
+        Long completed=totals.get("completed");
+
+        File dir = new File(_config.getProperty("result.dir","target/results"));
+        dir.mkdirs();
+        String version = _config.getProperty("benchmark.version","unknown");
+        ResultWriter writer = new ResultWriter(new File(dir,_config.getProperty("result.file","results.json")),
+            _config.getProperty("benchmark.label",version),version);
+
+        Measurement measurement = LatencyRecorder.measure(name,latency)
+            .param("server",_config.getProperty("server.main","org.eclipse.jetty.benchmark.BenchmarkServer"))
+            .param("clients",_clients)
+            .param("args",_config.getProperty("client.args",""))
+            .elapsed(elapsed)
+            .throughput(completed==null?0:completed,elapsed,"req/s")
+            .metric("serverCpu",TimeUnit.NANOSECONDS.toMillis(cpu),"ms",false)
+            .metric("serverCpuLoad",(double)cpu/elapsed/processors,"cpus",false)
+            .metric("serverGcCount",(Long)after.get("gcCount")-(Long)before.get("gcCount"),"collections",false)
+            .metric("serverGcTime",(Long)after.get("gcTime")-(Long)before.get("gcTime"),"ms",false)
+            .metric("serverThreads",(Integer)after.get("threads"),"threads",false)
+            .metric("serverPeakThreads",(Integer)after.get("peakThreads"),"threads",false);
+        for (Map.Entry<String,Long> entry : totals.entrySet())
+            measurement.metric(entry.getKey(),entry.getValue(),"",true);
+        measurement.emit(writer);
+
+        try (PrintStream out = new PrintStream(new File(dir,name+".hgrm"),"UTF-8"))
+        {
+            latency.outputPercentileDistribution(out,1000.0);
+        }
+        System.err.printf("Coordinator: %s latency %s%n",name,LatencyRecorder.toString(latency));
+        System.err.printf("Coordinator: result written to %s%n",writer.getFile());
+    }
+
+    private class ClientHandler extends Thread
+    {
+        final Socket _socket;
+        final PrintWriter _out;
+        final Map<String,Long> _results = new LinkedHashMap<>();
+        final Map<String,Histogram> _histograms = new LinkedHashMap<>();
+
+        ClientHandler(Socket socket) throws IOException
+        {
+            _socket=socket;
+            _out=new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),StandardCharsets.UTF_8),true);
+        }
+
+        synchronized void send(String line)
+        {
+            _out.println(line);
+        }
+
+        @Override
+        public void run()
+        {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(_socket.getInputStream(),StandardCharsets.UTF_8)))
+            {
+                String line;
+                while ((line=in.readLine())!=null)
+                {
+                    String[] parts=line.split(" ",3);
+                    switch(parts[0])
+                    {
+                        case "HELLO":
+                            setName("coordinator-"+parts[1]);
+                            break;
+                        case "READY":
+                            ready(parts[1]);
+                            break;
+                        case "RESULT":
+                            _results.put(parts[1],Long.valueOf(parts[2]));
+                            break;
+                        case "HISTOGRAM":
+                            _histograms.put(parts[1],Coordination.decode(parts[2]));
+                            break;
+                        default:
+                            System.err.println("Coordinator: unknown "+line);
+                    }
+                }
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static void main(String... args) throws Exception
+    {
+        Properties config = new Properties();
+        config.putAll(System.getProperties());
+        if (args.length>0)
+        {
+            try (InputStream in = new FileInputStream(args[0]))
+            {
+                config.load(in);
+            }
+        }
+        new BenchmarkCoordinator(config).run();
+    }
+}
@@ -2,23 +2,43 @@ package org.eclipse.jetty.benchmark;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.URIUtil;
 
+/**
+ * Connection churn client.
+ * <p>
+ * A number of concurrent connectors each repeatedly open a connection with a
+ * non-blocking connect, send a single <code>Connection: close</code> request,
+ * read the response and wait for the server to close. The connectors are spread
+ * over a number of selector threads, so the rate of connects is limited by the
+ * server's acceptors and selectors rather than by the client.
+ * <p>
+ * Separate latency histograms are kept for the connect, for the time from connection
+ * established to the first response byte, and for the time from the end of the
+ * response to the server FIN, as well as for the whole cycle.
+ * <p>
+ * Usage: <code>ClosingClient [connectors] [selectors] [linger] [nodelay]</code>
+ * where a linger of -1 leaves SO_LINGER disabled.
+ */
 public class ClosingClient
 {
-    private final String start = 
+    private final String start =
         "GET /benchmark/start HTTP/1.1\r\n"+
         "Host: localhost:8080\r\n"+
         "Connection: close\r\n"+
         "\r\n";
-    
-    private final String request = 
+
+    private final String request =
         "GET /context/hello/info HTTP/1.1\r\n"+
         "Host: localhost:8080\r\n"+
         "User-Agent: benchmark\r\n"+
@@ -27,23 +47,41 @@ public class ClosingClient
         "Connection: close\r\n"+
         "\r\n";
 
+    private final InetSocketAddress address = new InetSocketAddress("localhost",8080);
+    private final int connectors;
+    private final int linger;
+    private final boolean noDelay;
     private final ByteBuffer requestBuf;
     private final ByteBuffer responseBuf;
-    private SocketChannel client;
-        
-    public ClosingClient()
+    private final LatencyRecorder latency = new LatencyRecorder("ClosingClient");
+    private final LatencyRecorder connectLatency = new LatencyRecorder("ClosingClient-connect");
+    private final LatencyRecorder firstByteLatency = new LatencyRecorder("ClosingClient-firstByte");
+    private final LatencyRecorder closeLatency = new LatencyRecorder("ClosingClient-close");
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final SelectorThread[] selectors;
+    private volatile AtomicLong remaining = new AtomicLong();
+    private volatile CountDownLatch done = new CountDownLatch(0);
+    private long begin;
+
+    public ClosingClient(int connectors, int selectors, int linger, boolean noDelay)
     {
+        this.connectors=connectors;
+        this.selectors=new SelectorThread[selectors];
+        this.linger=linger;
+        this.noDelay=noDelay;
+
         requestBuf = BufferUtil.allocateDirect(4096);
         BufferUtil.flipToFill(requestBuf);
         BufferUtil.put(BufferUtil.toBuffer(request),requestBuf);
         BufferUtil.flipToFlush(requestBuf,0);
-        
+
         responseBuf = BufferUtil.allocateDirect(4096);
     }
-    
+
     public void start() throws IOException
     {
-        SocketChannel control = SocketChannel.open(new InetSocketAddress("localhost",8080));
+        SocketChannel control = SocketChannel.open(address);
         control.write(BufferUtil.toBuffer(start));
         while (control.isOpen())
         {
@@ -51,19 +89,30 @@ public class ClosingClient
             int pos=BufferUtil.flipToFill(responseBuf);
             if (control.read(responseBuf)==-1)
                 control.close();
-            BufferUtil.flipToFlush(responseBuf,pos); 
+            BufferUtil.flipToFlush(responseBuf,pos);
         }
+
+        for (int s=0;s<selectors.length;s++)
+            selectors[s]=new SelectorThread(s);
+        for (int i=0;i<connectors;i++)
+            selectors[i%selectors.length]._connectors++;
+        for (SelectorThread selector : selectors)
+            selector.start();
     }
-    
-    public void stop(String test,int count,int of) throws IOException
+
+    public void stop(String test,int count,int of) throws IOException, InterruptedException
     {
-        String stop = 
+        long elapsed=System.nanoTime()-begin;
+        for (SelectorThread selector : selectors)
+            selector.shutdown();
+
+        String stop =
             "GET "+URIUtil.encodePath("/benchmark/stop/ "+test+" "+count+" of "+of)+" HTTP/1.1\r\n"+
             "Host: localhost:8080\r\n"+
             "Connection: close\r\n"+
             "\r\n";
-        
-        SocketChannel control = SocketChannel.open(new InetSocketAddress("localhost",8080));
+
+        SocketChannel control = SocketChannel.open(address);
         control.write(BufferUtil.toBuffer(stop));
         while (control.isOpen())
         {
@@ -71,58 +120,291 @@ public class ClosingClient
             int pos=BufferUtil.flipToFill(responseBuf);
             if (control.read(responseBuf)==-1)
                 control.close();
-            BufferUtil.flipToFlush(responseBuf,pos); 
+            BufferUtil.flipToFlush(responseBuf,pos);
+        }
+
+        // Only the connections that received a whole response count as connects
+        long failed=failures.get();
+        long connects=count-failed;
+        System.err.printf("%,d connections in %,d ms, %,d connects/s, %,d failures, %,d body bytes%n",
+            connects,TimeUnit.NANOSECONDS.toMillis(elapsed),elapsed>0?connects*TimeUnit.SECONDS.toNanos(1)/elapsed:-1,failed,bodyBytes.get());
+        new Measurement("ClosingClient")
+            .param("connectors",connectors)
+            .param("selectors",selectors.length)
+            .elapsed(elapsed)
+            .throughput(connects,elapsed,"connects/s")
+            .metric("failures",failed,"connections",false)
+            .emit();
+        failures.set(0);
+        bodyBytes.set(0);
+        for (LatencyRecorder recorder : new LatencyRecorder[]{connectLatency,firstByteLatency,closeLatency,latency})
+        {
+            recorder.report();
+            recorder.reset();
         }
-        
-        if (client.isOpen())
-            client.close();
-        client=null;
     }
-    
+
     public int requestResponse(int count) throws Exception
     {
-        int i=0;
-        for (;i<count;i++)
+        CountDownLatch latch = new CountDownLatch(count);
+        done=latch;
+        remaining=new AtomicLong(count);
+        begin=System.nanoTime();
+        for (SelectorThread selector : selectors)
+            selector.kick();
+        latch.await();
+        return count;
+    }
+
+    private class SelectorThread extends Thread
+    {
+        final Selector _selector;
+        final ByteBuffer _buffer = BufferUtil.allocateDirect(4096);
+        int _connectors;
+        volatile boolean _running=true;
+        volatile boolean _kick;
+
+        SelectorThread(int id) throws IOException
+        {
+            super("connector-"+id);
+            _selector=Selector.open();
+        }
+
+        void kick()
+        {
+            _kick=true;
+            _selector.wakeup();
+        }
+
+        void shutdown() throws InterruptedException
+        {
+            _running=false;
+            _selector.wakeup();
+            join();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (_running)
+                {
+                    _selector.select();
+
+                    if (_kick)
+                    {
+                        _kick=false;
+                        for (int i=0;i<_connectors;i++)
+                            new Churner(this).next();
+                    }
+
+                    Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Churner churner = (Churner)key.attachment();
+                        try
+                        {
+                            if (key.isConnectable())
+                                churner.connected();
+                            else
+                            {
+                                if (key.isWritable())
+                                    churner.flush();
+                                if (key.isValid() && key.isReadable())
+                                    churner.fill(_buffer);
+                            }
+                        }
+                        catch(IOException e)
+                        {
+                            churner.failed(e);
+                        }
+                    }
+                }
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+            }
+            finally
+            {
+                for (SelectionKey key : _selector.keys())
+                    ((Churner)key.attachment()).close();
+                try
+                {
+                    _selector.close();
+                }
+                catch(IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * One concurrent connector, cycling through connect, request, response and close.
+     */
+    private class Churner
+    {
+        final SelectorThread _thread;
+        final ByteBuffer _out = requestBuf.duplicate();
+        final ResponseFramer _framer = new ResponseFramer();
+        SocketChannel _channel;
+        SelectionKey _key;
+        long _begin;
+        long _connected;
+        long _complete;
+        boolean _firstByte;
+
+        Churner(SelectorThread thread)
+        {
+            _thread=thread;
+        }
+
+        void next()
+        {
+            while (remaining.getAndDecrement()>0)
+            {
+                try
+                {
+                    _begin=System.nanoTime();
+                    _connected=0;
+                    _complete=0;
+                    _firstByte=false;
+                    _framer.reset();
+                    _channel=SocketChannel.open();
+                    _channel.configureBlocking(false);
+                    _channel.socket().setTcpNoDelay(noDelay);
+                    if (linger>=0)
+                        _channel.socket().setSoLinger(true,linger);
+                    _key=_channel.register(_thread._selector,SelectionKey.OP_CONNECT,this);
+                    if (_channel.connect(address))
+                        connected();
+                    return;
+                }
+                catch(IOException e)
+                {
+                    close();
+                    failures.incrementAndGet();
+                    done.countDown();
+                }
+            }
+        }
+
+        void connected() throws IOException
+        {
+            _channel.finishConnect();
+            _connected=System.nanoTime();
+            connectLatency.record(_connected-_begin);
+            _out.position(0);
+            flush();
+        }
+
+        void flush() throws IOException
+        {
+            _channel.write(_out);
+            _key.interestOps(_out.hasRemaining()?(SelectionKey.OP_READ|SelectionKey.OP_WRITE):SelectionKey.OP_READ);
+        }
+
+        void fill(ByteBuffer buffer) throws IOException
         {
-            client=SocketChannel.open(new InetSocketAddress("localhost",8080));
-            client.write(requestBuf.duplicate());
-            BufferUtil.clear(responseBuf);
             while (true)
             {
-                int pos=BufferUtil.flipToFill(responseBuf);
-                if (client.read(responseBuf)==-1)
+                BufferUtil.clear(buffer);
+                int pos=BufferUtil.flipToFill(buffer);
+                int len=_channel.read(buffer);
+                BufferUtil.flipToFlush(buffer,pos);
+                if (len==0)
+                    return;
+
+                long now=System.nanoTime();
+                if (len>0 && !_firstByte)
+                {
+                    _firstByte=true;
+                    firstByteLatency.record(now-_connected);
+                }
+
+                if (_framer.parse(buffer)>0)
+                    _complete=now;
+
+                if (len<0)
                 {
-                    client.close();
-                    break;
+                    if (_framer.eof()>0)
+                        _complete=now;
+                    close();
+                    if (_complete==0)
+                    {
+                        // Closed by the server before the end of the response
+                        failures.incrementAndGet();
+                    }
+                    else
+                    {
+                        closeLatency.record(now-_complete);
+                        latency.record(now-_begin);
+                        bodyBytes.addAndGet(_framer.getBodyBytes());
+                    }
+                    done.countDown();
+                    next();
+                    return;
                 }
-                BufferUtil.flipToFlush(responseBuf,pos);            
             }
         }
-        return i;
+
+        void failed(IOException e)
+        {
+            if (failures.incrementAndGet()==1)
+                e.printStackTrace();
+            close();
+            done.countDown();
+            next();
+        }
+
+        void close()
+        {
+            try
+            {
+                if (_key!=null)
+                    _key.cancel();
+                if (_channel!=null)
+                    _channel.close();
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
     }
-        
+
     public static void main(String... args) throws Exception
     {
+        int connectors = args.length>0?Integer.parseInt(args[0]):64;
+        int selectors = args.length>1?Integer.parseInt(args[1]):Math.max(1,Runtime.getRuntime().availableProcessors()/2);
+        int linger = args.length>2?Integer.parseInt(args[2]):-1;
+        boolean noDelay = args.length>3?Boolean.parseBoolean(args[3]):true;
+
         int COUNT=100;
-        ClosingClient bm = new ClosingClient();
+        ClosingClient bm = new ClosingClient(connectors,selectors,linger,noDelay);
         bm.start();
         int done=bm.requestResponse(COUNT);
-        bm.stop("Serial Requests",done,COUNT);
+        bm.stop("Closing Requests",done,COUNT);
 
         COUNT=100000;
         bm.start();
         done=bm.requestResponse(COUNT);
-        bm.stop("Serial Requests",done,COUNT);
+        bm.stop("Closing Requests",done,COUNT);
 
         COUNT=100000;
         bm.start();
         done=bm.requestResponse(COUNT);
-        bm.stop("Serial Requests",done,COUNT);
-        
+        bm.stop("Closing Requests",done,COUNT);
+
         COUNT=100000;
         bm.start();
         done=bm.requestResponse(COUNT);
-        bm.stop("Serial Requests",done,COUNT);
+        bm.stop("Closing Requests",done,COUNT);
     }
 
 }
@@ -0,0 +1,127 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.util.B64Code;
+
+/**
+ * Client side of the {@link BenchmarkCoordinator} control channel.
+ * <p>
+ * A client JVM launched by the coordinator finds it via the
+ * <code>benchmark.coordinator</code> system property (host:port). The client
+ * calls {@link #await(String)} before each phase, which blocks until every
+ * client has reached the same phase, {@link #ready(String)} to only tell the
+ * coordinator that it has reached a phase, and {@link #report(String, long)} or
+ * {@link #report(String, Histogram)} to send its results.
+ * <p>
+ * The protocol is line based:
+ * <pre>
+ * client: HELLO &lt;id&gt;
+ * client: READY &lt;phase&gt;     coordinator: GO &lt;phase&gt;
+ * client: RESULT &lt;key&gt; &lt;value&gt;
+ * client: HISTOGRAM &lt;key&gt; &lt;base64 compressed histogram&gt;
+ * </pre>
+ */
+public class Coordination implements Closeable
+{
+    public static final String PROPERTY = "benchmark.coordinator";
+
+    private final String _id;
+    private final Socket _socket;
+    private final BufferedReader _in;
+    private final PrintWriter _out;
+
+    /**
+     * @return A connected coordination, or null if this JVM was not launched by a coordinator.
+     */
+    public static Coordination connect() throws IOException
+    {
+        String coordinator = System.getProperty(PROPERTY);
+        if (coordinator==null)
+            return null;
+        int colon = coordinator.lastIndexOf(':');
+        String id = System.getProperty("benchmark.client","client");
+        return new Coordination(id,coordinator.substring(0,colon),Integer.parseInt(coordinator.substring(colon+1)));
+    }
+
+    public Coordination(String id, String host, int port) throws IOException
+    {
+        _id=id;
+        _socket=new Socket(host,port);
+        _in=new BufferedReader(new InputStreamReader(_socket.getInputStream(),StandardCharsets.UTF_8));
+        _out=new PrintWriter(new OutputStreamWriter(_socket.getOutputStream(),StandardCharsets.UTF_8),true);
+        _out.println("HELLO "+id);
+    }
+
+    public String getId()
+    {
+        return _id;
+    }
+
+    /**
+     * Tell the coordinator that this client has reached a phase, without waiting for the other clients.
+     * @param phase The phase name
+     */
+    public void ready(String phase)
+    {
+        _out.println("READY "+phase);
+    }
+
+    /**
+     * Wait until all clients are ready to start a phase.
+     * @param phase The phase name
+     */
+    public void await(String phase) throws IOException
+    {
+        ready(phase);
+        String expected = "GO "+phase;
+        while (true)
+        {
+            String line=_in.readLine();
+            if (line==null)
+                throw new IOException("Coordinator closed waiting for "+phase);
+            if (expected.equals(line))
+                return;
+        }
+    }
+
+    public void report(String key, long value)
+    {
+        _out.println("RESULT "+key+" "+value);
+    }
+
+    public void report(String key, Histogram histogram)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        _out.println("HISTOGRAM "+key+" "+new String(B64Code.encode(bytes)));
+    }
+
+    /**
+     * Decode a histogram sent by {@link #report(String, Histogram)}.
+     * @param encoded the base64 encoded form
+     * @return the histogram
+     */
+    public static Histogram decode(String encoded) throws Exception
+    {
+        return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(B64Code.decode(encoded)),0);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _socket.close();
+    }
+}
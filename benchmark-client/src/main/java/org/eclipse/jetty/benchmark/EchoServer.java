@@ -5,6 +5,7 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
 import org.eclipse.jetty.util.BufferUtil;
@@ -13,8 +14,7 @@ public class EchoServer implements Runnable
 {
     static BenchmarkHelper __helper = new BenchmarkHelper();
     final SocketChannel _connection;
-    int _fills;
-    long _filled;
+    final AdaptiveBufferSize _sizes = new AdaptiveBufferSize();
     
     public EchoServer(SocketChannel connection)
     {
@@ -27,20 +27,19 @@ public class EchoServer implements Runnable
         __helper.startStatistics();
         try
         {
-            ByteBuffer buffer = BufferUtil.allocate(4096);
+            ByteBuffer buffer = BufferUtil.allocate(_sizes.getSize());
             
             while (_connection.isOpen())
             {
+                if (buffer.capacity()!=_sizes.getSize())
+                    buffer=BufferUtil.allocate(_sizes.getSize());
                 int pos=BufferUtil.flipToFill(buffer);
                 int len=_connection.read(buffer);
                 BufferUtil.flipToFlush(buffer,pos);
                 if (len<0)
                     _connection.close();
-                else
-                {
-                    _fills++;
-                    _filled+=len;
-                }
+                else if (len>0)
+                    _sizes.filled(len,buffer.capacity());
                               
                 while (buffer.hasRemaining())
                 {
@@ -55,17 +54,21 @@ public class EchoServer implements Runnable
         }
         finally
         {
-            System.err.println("Filled "+_filled+" bytes in "+_fills+" fills");
+            System.err.println(_sizes);
+            System.err.println(_sizes.getHistogram());
+            _sizes.emit("EchoServer");
             __helper.stopStatistics();
         }
     }
     
     /* ------------------------------------------------------------ */
     /**
-     * @param args
+     * @param args The threads that each connection is echoed by: "platform" (default) or
+     * "virtual", which needs Java 21
      */
     public static void main(String[] args) throws Exception
     {
+        Executor executor = ConnectionThreads.newExecutor(args.length>0?args[0]:ConnectionThreads.PLATFORM);
         ServerSocketChannel server = ServerSocketChannel.open();
         server.bind(new InetSocketAddress(8080));
         
@@ -73,7 +76,7 @@ public class EchoServer implements Runnable
         {
             SocketChannel connection = server.accept();
             
-            new Thread(new EchoServer(connection)).start();
+            executor.execute(new EchoServer(connection));
             
         }
     }
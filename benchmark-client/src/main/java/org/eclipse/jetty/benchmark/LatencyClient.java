@@ -10,7 +10,6 @@ import java.util.concurrent.TimeUnit;
 import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.URIUtil;
-import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 public class LatencyClient
 {   
@@ -24,6 +23,7 @@ public class LatencyClient
 
     private final ByteBuffer requestBuf;
     private final ByteBuffer responseBuf;
+    private final ResponseFramer framer = new ResponseFramer();
     private SocketChannel client;
         
     public LatencyClient()
@@ -60,20 +60,26 @@ public class LatencyClient
     public void requestResponse() throws Exception
     {
         client.write(requestBuf.duplicate());
-        BufferUtil.clear(responseBuf);
-        do
+        int responses=0;
+        while (responses==0 && client.isOpen())
         {
+            BufferUtil.clear(responseBuf);
             int pos=BufferUtil.flipToFill(responseBuf);
-            if (client.read(responseBuf)==-1)
+            int len=client.read(responseBuf);
+            BufferUtil.flipToFlush(responseBuf,pos);
+            responses+=framer.parse(responseBuf);
+            if (len==-1)
+            {
                 client.close();
-            BufferUtil.flipToFlush(responseBuf,pos);            
+                responses+=framer.eof();
+            }
         }
-        while (!BufferUtil.toString(responseBuf).contains("</html>"));
     }
     
         
     public static void main(String... args) throws Exception
     {
+        int samples = args.length>0?Integer.parseInt(args[0]):10000;
         LatencyClient bm = new LatencyClient();
         bm.start();
         System.err.printf("Warmup...%n");
@@ -81,19 +87,18 @@ public class LatencyClient
         TimeUnit.MILLISECONDS.sleep(500);
 
         System.err.printf("Measuring...%n");
-        SampleStatistic latency=new SampleStatistic();
+        LatencyRecorder latency=new LatencyRecorder("LatencyClient");
         
-        for (int i=0;i<100;i++)
+        for (int i=0;i<samples;i++)
         {
-            TimeUnit.MILLISECONDS.sleep(10);
+            TimeUnit.MILLISECONDS.sleep(1);
             long start = System.nanoTime();
             bm.requestResponse();
             long end = System.nanoTime();
-            latency.set(end-start);
+            latency.record(end-start);
         }
         
-        
-        System.err.printf("Latency count=%,d mean=%,.0fns deviation=%,.0f max=%,dns%n",latency.getCount(),latency.getMean(),latency.getStdDev(),latency.getMax());
+        latency.report();
         
         bm.stop();
 
@@ -0,0 +1,203 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+/**
+ * Latency recording shared by the benchmark clients.
+ * <p>
+ * Latencies are recorded in nanoseconds into log-bucketed HDR histograms with 3
+ * significant digits. Each recording thread gets its own single writer recorder,
+ * so {@link #record(long)} is wait-free and does not allocate. {@link #snapshot()}
+ * harvests the interval since the previous snapshot from every thread and merges
+ * it into the running total, which {@link #write()} saves as a full percentile
+ * distribution (in microseconds) that can be diffed between runs. The recorder of
+ * a thread that has exited is dropped once its last interval is harvested, so that
+ * a client that starts a thread per connection does not keep one for each.
+ * <p>
+ * Files are written to the directory named by the <code>latency.dir</code> system
+ * property (default <code>target/latency</code>) and are named after the recorder,
+ * the optional <code>latency.label</code> property (eg 9.2, 9.3) and the index of the
+ * run, the first not already written, so that the files of earlier runs are kept.
+ */
+public class LatencyRecorder
+{
+    public static final long HIGHEST = TimeUnit.MINUTES.toNanos(1);
+
+    private final String _name;
+    private final List<ThreadRecorder> _recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<SingleWriterRecorder> _recorder = new ThreadLocal<SingleWriterRecorder>()
+    {
+        @Override
+        protected SingleWriterRecorder initialValue()
+        {
+            ThreadRecorder recorder = new ThreadRecorder(Thread.currentThread());
+            _recorders.add(recorder);
+            return recorder._recorder;
+        }
+    };
+    private final Histogram _total = new Histogram(HIGHEST,3);
+    private final Histogram _interval = new Histogram(HIGHEST,3);
+    private final Histogram _harvest = new Histogram(HIGHEST,3);
+
+    public LatencyRecorder(String name)
+    {
+        _name=name;
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    /**
+     * Record a latency from the calling thread.
+     * @param nanos the latency in ns; values above {@link #HIGHEST} are clamped.
+     */
+    public void record(long nanos)
+    {
+        _recorder.get().recordValue(nanos<0?0:nanos>HIGHEST?HIGHEST:nanos);
+    }
+
+    /**
+     * Harvest the latencies recorded by all threads since the last snapshot.
+     * @return The interval histogram, which is only valid until the next snapshot.
+     */
+    public synchronized Histogram snapshot()
+    {
+        _interval.reset();
+        for (ThreadRecorder recorder : _recorders)
+        {
+            // A thread that has exited records nothing more, so its last interval is harvested now
+            boolean exited=!recorder._thread.isAlive();
+            recorder._recorder.getIntervalHistogramInto(_harvest);
+            _interval.add(_harvest);
+            if (exited)
+                _recorders.remove(recorder);
+        }
+        _total.add(_interval);
+        return _interval;
+    }
+
+    /**
+     * @return The total of all snapshots taken, including one taken now.
+     */
+    public synchronized Histogram getTotal()
+    {
+        snapshot();
+        return _total;
+    }
+
+    /**
+     * Merge the total of another recorder, for example from another client thread or JVM, into this one.
+     * @param other The recorder to merge
+     */
+    public synchronized void add(LatencyRecorder other)
+    {
+        snapshot();
+        _total.add(other.getTotal());
+    }
+
+    public synchronized void reset()
+    {
+        for (ThreadRecorder recorder : _recorders)
+            recorder._recorder.reset();
+        _interval.reset();
+        _total.reset();
+    }
+
+    /**
+     * Write the full percentile distribution of the total to a new file.
+     * @return The file written
+     */
+    public synchronized File write() throws FileNotFoundException
+    {
+        File dir = new File(System.getProperty("latency.dir","target/latency"));
+        dir.mkdirs();
+        String label = System.getProperty("latency.label");
+        String name = (label==null?_name:(_name+"-"+label)).replaceAll("[^A-Za-z0-9._-]+","_");
+        int run=1;
+        File file = new File(dir,name+"-"+run+".hgrm");
+        while (file.exists())
+            file=new File(dir,name+"-"+(++run)+".hgrm");
+        try (PrintStream out = new PrintStream(file))
+        {
+            getTotal().outputPercentileDistribution(out,1000.0);
+        }
+        return file;
+    }
+
+    /**
+     * Print the total percentiles, write the distribution file and emit the
+     * percentiles as a {@link Measurement}.
+     */
+    public void report()
+    {
+        try
+        {
+            Histogram total = getTotal();
+            System.err.printf("%s latency %s%n",_name,toString(total));
+            System.err.printf("%s distribution written to %s%n",_name,write());
+            if (total.getTotalCount()>0)
+                measure(_name,total).emit();
+        }
+        catch(FileNotFoundException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param benchmark The benchmark name
+     * @param histogram A histogram of latencies in ns
+     * @return A measurement of the mean, the percentiles up to p99.99 and the max in us
+     */
+    public static Measurement measure(String benchmark, Histogram histogram)
+    {
+        return new Measurement(benchmark)
+            .latency("mean",histogram.getMean())
+            .latency("p50",histogram.getValueAtPercentile(50))
+            .latency("p90",histogram.getValueAtPercentile(90))
+            .latency("p99",histogram.getValueAtPercentile(99))
+            .latency("p99.9",histogram.getValueAtPercentile(99.9))
+            .latency("p99.99",histogram.getValueAtPercentile(99.99))
+            .latency("max",histogram.getMaxValue());
+    }
+
+    public static String toString(Histogram histogram)
+    {
+        return String.format("count=%,d mean=%,.0fus p50=%,dus p90=%,dus p99=%,dus p99.9=%,dus p99.99=%,dus max=%,dus",
+            histogram.getTotalCount(),
+            histogram.getMean()/1000,
+            TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(50)),
+            TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(90)),
+            TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99)),
+            TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.9)),
+            TimeUnit.NANOSECONDS.toMicros(histogram.getValueAtPercentile(99.99)),
+            TimeUnit.NANOSECONDS.toMicros(histogram.getMaxValue()));
+    }
+
+    private static class ThreadRecorder
+    {
+        final Thread _thread;
+        final SingleWriterRecorder _recorder = new SingleWriterRecorder(HIGHEST,3);
+
+        ThreadRecorder(Thread thread)
+        {
+            _thread=thread;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s}",_name,toString(getTotal()));
+    }
+}
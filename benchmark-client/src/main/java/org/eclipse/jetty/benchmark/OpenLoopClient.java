@@ -0,0 +1,418 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.URIUtil;
+
+/**
+ * An open-loop load generator.
+ * <p>
+ * Unlike {@link SerialClient}, which only sends the next request once the previous
+ * response has arrived, requests are issued on a fixed schedule regardless of how
+ * fast the server responds. Latency is measured from the time a request was
+ * <em>intended</em> to be sent, so a stalled server is charged for every request
+ * that queued up behind the stall (no coordinated omission).
+ * <p>
+ * All connections are driven from a single {@link Selector} thread and requests are
+ * pipelined on a connection when it still has responses outstanding.
+ * <p>
+ * When launched by a {@link BenchmarkCoordinator}, the warmup and measurement phases
+ * are synchronised with the other client JVMs and results are reported to the
+ * coordinator instead of with <code>/benchmark/start</code> and <code>/benchmark/stop</code>
+ * requests.
+ * <p>
+ * Usage: <code>OpenLoopClient [rate] [connections] [seconds] [CONSTANT|POISSON|RAMP] [steps] [host] [port]</code>
+ */
+public class OpenLoopClient
+{
+    public enum Schedule
+    {
+        /** Requests are evenly spaced at 1/rate */
+        CONSTANT,
+        /** Exponentially distributed gaps with a mean of 1/rate */
+        POISSON,
+        /** Constant spacing, with the rate stepped from rate/steps up to rate */
+        RAMP
+    }
+
+    private final String start =
+        "GET /benchmark/start HTTP/1.1\r\n"+
+        "Host: localhost:8080\r\n"+
+        "Connection: close\r\n"+
+        "\r\n";
+
+    private final String request =
+        "GET /context/hello/info HTTP/1.1\r\n"+
+        "Host: localhost:8080\r\n"+
+        "User-Agent: benchmark\r\n"+
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"+
+        "Referer: http://testhost/test\r\n"+
+        "\r\n";
+
+    private final InetSocketAddress address;
+    private final Coordination coordination;
+    private final ByteBuffer requestBuf;
+    private final ByteBuffer responseBuf;
+    private final Random random = new Random();
+    private Selector selector;
+    private Connection[] connections;
+    private int next;
+
+    private long sent;
+    private long completed;
+    private long totalSent;
+    private long totalCompleted;
+    private long maxLag;
+    private LatencyRecorder latency;
+
+    public OpenLoopClient(String host, int port, Coordination coordination)
+    {
+        address = new InetSocketAddress(host,port);
+        this.coordination = coordination;
+        requestBuf = BufferUtil.allocateDirect(4096);
+        BufferUtil.flipToFill(requestBuf);
+        BufferUtil.put(BufferUtil.toBuffer(request),requestBuf);
+        BufferUtil.flipToFlush(requestBuf,0);
+
+        responseBuf = BufferUtil.allocateDirect(64*1024);
+    }
+
+    public void start(String name, int count) throws IOException
+    {
+        if (coordination==null)
+            control(start);
+        latency = new LatencyRecorder(name);
+
+        selector = Selector.open();
+        connections = new Connection[count];
+        for (int i=0;i<connections.length;i++)
+        {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            connections[i]=new Connection(channel);
+            connections[i].key=channel.register(selector,SelectionKey.OP_READ,connections[i]);
+        }
+    }
+
+    public void stop(String test,long count,long of) throws IOException
+    {
+        for (Connection connection : connections)
+            connection.channel.close();
+        selector.close();
+        connections=null;
+        selector=null;
+
+        latency.report();
+
+        if (coordination==null)
+            control("GET "+URIUtil.encodePath("/benchmark/stop/ "+test+" "+count+" of "+of)+" HTTP/1.1\r\n"+
+                "Host: localhost:8080\r\n"+
+                "Connection: close\r\n"+
+                "\r\n");
+    }
+
+    private void control(String message) throws IOException
+    {
+        SocketChannel control = SocketChannel.open(address);
+        control.write(BufferUtil.toBuffer(message));
+        while (control.isOpen())
+        {
+            BufferUtil.clear(responseBuf);
+            int pos=BufferUtil.flipToFill(responseBuf);
+            if (control.read(responseBuf)==-1)
+                control.close();
+            BufferUtil.flipToFlush(responseBuf,pos);
+        }
+    }
+
+    /**
+     * Generate load at the given rate for the given duration.
+     * @param schedule How to space requests
+     * @param rate The (final) request rate in requests/s
+     * @param steps The number of rate steps for a {@link Schedule#RAMP} schedule
+     * @param duration The duration in ms
+     * @return The number of responses received, without the responses still outstanding.
+     * @see #drain()
+     * @see #getSent()
+     */
+    public long run(Schedule schedule, int rate, int steps, long duration) throws Exception
+    {
+        if (schedule!=Schedule.RAMP)
+            steps=1;
+        long stepNanos = TimeUnit.MILLISECONDS.toNanos(duration)/steps;
+
+        totalSent=0;
+        totalCompleted=0;
+        long begin = System.nanoTime();
+        long intended = begin;
+        for (int step=1;step<=steps;step++)
+        {
+            // At least 1/s, as the first steps of a ramp to a low rate round down to 0
+            int stepRate = schedule==Schedule.RAMP?(int)Math.max(1,(long)rate*step/steps):rate;
+            long end = begin + step*stepNanos;
+
+            sent=0;
+            completed=0;
+            maxLag=0;
+
+            while (true)
+            {
+                long now = System.nanoTime();
+
+                // Send every request that is due, catching up if we fell behind
+                while (intended<=now && intended<end)
+                {
+                    maxLag=Math.max(maxLag,now-intended);
+                    send(intended);
+                    intended+=interval(schedule,stepRate);
+                }
+
+                if (now>=end)
+                    break;
+
+                long wait = TimeUnit.NANOSECONDS.toMillis(Math.min(intended,end)-now);
+                if (wait>0)
+                    selector.select(wait);
+                else
+                    selector.selectNow();
+                process();
+            }
+            totalSent+=sent;
+            totalCompleted+=completed;
+
+            System.err.printf("%s rate=%,d/s sent=%,d completed=%,d maxLag=%,dus latency %s%n",
+                schedule,stepRate,sent,completed,TimeUnit.NANOSECONDS.toMicros(maxLag),
+                LatencyRecorder.toString(latency.snapshot()));
+        }
+        return totalCompleted;
+    }
+
+    /**
+     * Wait up to 5s for the responses still outstanding after {@link #run(Schedule, int, int, long)}.
+     * @return The number of responses received, with the drained responses.
+     */
+    public long drain() throws IOException
+    {
+        completed=0;
+        long deadline = System.nanoTime()+TimeUnit.SECONDS.toNanos(5);
+        while (outstanding()>0 && System.nanoTime()<deadline)
+        {
+            selector.select(100);
+            process();
+        }
+        totalCompleted+=completed;
+        System.err.printf("drained %,d, %,d outstanding%n",completed,outstanding());
+        return totalCompleted;
+    }
+
+    public long getSent()
+    {
+        return totalSent;
+    }
+
+    public LatencyRecorder getLatency()
+    {
+        return latency;
+    }
+
+    private long interval(Schedule schedule, int rate)
+    {
+        long mean = TimeUnit.SECONDS.toNanos(1)/rate;
+        if (schedule==Schedule.POISSON)
+            return (long)(-Math.log(1.0-random.nextDouble())*mean);
+        return mean;
+    }
+
+    private long outstanding()
+    {
+        long outstanding=0;
+        for (Connection connection : connections)
+            outstanding+=connection.size;
+        return outstanding;
+    }
+
+    private void send(long intended) throws IOException
+    {
+        // Prefer the next idle connection, else pipeline on the next connection
+        Connection connection=null;
+        for (int i=0;i<connections.length;i++)
+        {
+            Connection c=connections[(next+i)%connections.length];
+            if (c.size==0 && c.channel.isOpen())
+            {
+                connection=c;
+                break;
+            }
+        }
+        if (connection==null)
+            connection=connections[next%connections.length];
+        next=(next+1)%connections.length;
+
+        if (!connection.channel.isOpen())
+            return;
+
+        sent++;
+        connection.offer(intended);
+        connection.unwritten++;
+        if ((connection.key.interestOps()&SelectionKey.OP_WRITE)==0)
+            connection.flush();
+    }
+
+    private void process() throws IOException
+    {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext())
+        {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection)key.attachment();
+            if (!key.isValid())
+                continue;
+            if (key.isWritable())
+                connection.flush();
+            if (key.isValid() && key.isReadable())
+                connection.fill();
+        }
+    }
+
+    private class Connection
+    {
+        final SocketChannel channel;
+        final ByteBuffer out = requestBuf.duplicate();
+        final ResponseFramer framer = new ResponseFramer();
+        SelectionKey key;
+        int unwritten;
+
+        // FIFO of intended send times of requests awaiting a response
+        long[] queue = new long[64];
+        int head;
+        int size;
+
+        Connection(SocketChannel channel)
+        {
+            this.channel=channel;
+        }
+
+        void offer(long intended)
+        {
+            if (size==queue.length)
+            {
+                long[] grown = new long[queue.length*2];
+                for (int i=0;i<size;i++)
+                    grown[i]=queue[(head+i)%queue.length];
+                queue=grown;
+                head=0;
+            }
+            queue[(head+size)%queue.length]=intended;
+            size++;
+        }
+
+        long poll()
+        {
+            long intended=queue[head];
+            head=(head+1)%queue.length;
+            size--;
+            return intended;
+        }
+
+        void flush() throws IOException
+        {
+            while (unwritten>0)
+            {
+                channel.write(out);
+                if (out.hasRemaining())
+                {
+                    key.interestOps(SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+                    return;
+                }
+                out.position(0);
+                unwritten--;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void fill() throws IOException
+        {
+            while (true)
+            {
+                BufferUtil.clear(responseBuf);
+                int pos=BufferUtil.flipToFill(responseBuf);
+                int len=channel.read(responseBuf);
+                BufferUtil.flipToFlush(responseBuf,pos);
+                int responses=framer.parse(responseBuf);
+                if (len<0)
+                    responses+=framer.eof();
+
+                long now=System.nanoTime();
+                for (int i=0;i<responses && size>0;i++)
+                {
+                    completed++;
+                    latency.record(now-poll());
+                }
+
+                if (len<0)
+                {
+                    System.err.printf("closed with %d outstanding%n",size);
+                    key.cancel();
+                    channel.close();
+                    size=0;
+                    return;
+                }
+                if (len==0)
+                    return;
+            }
+        }
+    }
+
+    public static void main(String... args) throws Exception
+    {
+        int rate = args.length>0?Integer.parseInt(args[0]):10000;
+        int connections = args.length>1?Integer.parseInt(args[1]):16;
+        int seconds = args.length>2?Integer.parseInt(args[2]):10;
+        Schedule schedule = args.length>3?Schedule.valueOf(args[3]):Schedule.CONSTANT;
+        int steps = args.length>4?Integer.parseInt(args[4]):10;
+        String host = args.length>5?args[5]:"localhost";
+        int port = args.length>6?Integer.parseInt(args[6]):8080;
+
+        Coordination coordination = Coordination.connect();
+        OpenLoopClient bm = new OpenLoopClient(host,port,coordination);
+
+        if (coordination!=null)
+            coordination.await("warmup");
+        System.err.printf("Warmup...%n");
+        bm.start("OpenLoopWarmup",connections);
+        bm.run(Schedule.CONSTANT,Math.max(1,rate/10),1,TimeUnit.SECONDS.toMillis(seconds));
+        long done=bm.drain();
+        bm.stop("Open Loop Warmup",done,bm.getSent());
+
+        // The coordinator measures from when every client is connected to when the last has sent its last request
+        bm.start("OpenLoop-"+schedule+"-"+rate,connections);
+        if (coordination!=null)
+            coordination.await("measure");
+        System.err.printf("Measuring...%n");
+        bm.run(schedule,rate,steps,TimeUnit.SECONDS.toMillis(seconds));
+        if (coordination!=null)
+            coordination.ready("measured");
+        done=bm.drain();
+        bm.stop("Open Loop "+schedule+" "+rate+"/s",done,bm.getSent());
+
+        if (coordination!=null)
+        {
+            coordination.report("sent",bm.getSent());
+            coordination.report("completed",done);
+            coordination.report("latency",bm.getLatency().getTotal());
+            coordination.await("end");
+            coordination.close();
+        }
+    }
+}
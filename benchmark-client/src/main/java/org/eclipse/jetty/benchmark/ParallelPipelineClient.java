@@ -3,25 +3,42 @@ package org.eclipse.jetty.benchmark;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.URI;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.URIUtil;
 
+/**
+ * Pipelining client over many connections.
+ * <p>
+ * Connections are non-blocking and are shared between a number of selector threads,
+ * so that thousands of connections can be driven per thread. Each connection keeps
+ * up to <code>depth</code> requests in flight: a new request is only written once a
+ * response frees a slot, and write interest is only registered while the kernel
+ * send buffer is full, so the client applies back-pressure rather than queueing
+ * without bound.
+ * <p>
+ * Usage: <code>ParallelPipelineClient [connections] [selectors] [depth]</code>
+ */
 public class ParallelPipelineClient
 {
-    private final String start = 
+    private final String start =
         "GET /benchmark/start HTTP/1.1\r\n"+
         "Host: benchmarkControl:8080\r\n"+
         "Connection: close\r\n"+
         "\r\n";
-    
-    private final String request = 
+
+    private final String request =
         "GET /context/hello/info HTTP/1.1\r\n"+
         "Host: localhost:8080\r\n"+
         "User-Agent: benchmark\r\n"+
@@ -31,24 +48,39 @@ public class ParallelPipelineClient
         "Referer: http://testhost/test\r\n"+
         "\r\n";
 
+    private final InetSocketAddress address = new InetSocketAddress("localhost",8080);
+    private final int connections;
+    private final int depth;
     private final ByteBuffer requestBuf;
     private final ByteBuffer responseBuf;
-    private SocketChannel[] client;
-        
-    public ParallelPipelineClient()
+    private final LatencyRecorder latency = new LatencyRecorder("ParallelPipelineClient");
+    private final SelectorThread[] selectors;
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicLong inflight = new AtomicLong();
+    private volatile AtomicLong remaining = new AtomicLong();
+    private volatile CountDownLatch responses = new CountDownLatch(0);
+
+    public ParallelPipelineClient(int connections, int selectors, int depth)
     {
-        requestBuf = BufferUtil.allocateDirect(4096);
+        this.connections=connections;
+        this.depth=depth;
+        this.selectors=new SelectorThread[selectors];
+
+        // The request repeated depth times, so a whole pipeline can be written at once
+        byte[] bytes = request.getBytes();
+        requestBuf = BufferUtil.allocateDirect(bytes.length*depth);
         BufferUtil.flipToFill(requestBuf);
-        BufferUtil.put(BufferUtil.toBuffer(request),requestBuf);
+        for (int i=0;i<depth;i++)
+            requestBuf.put(bytes);
         BufferUtil.flipToFlush(requestBuf,0);
-        
+
         responseBuf = BufferUtil.allocateDirect(64*1024);
     }
-    
-    public void start() throws IOException
+
+    public void start() throws IOException, InterruptedException
     {
         System.err.println("Start");
-        SocketChannel control = SocketChannel.open(new InetSocketAddress("localhost",8080));
+        SocketChannel control = SocketChannel.open(address);
         control.write(BufferUtil.toBuffer(start));
         while (control.isOpen())
         {
@@ -56,24 +88,36 @@ public class ParallelPipelineClient
             int pos=BufferUtil.flipToFill(responseBuf);
             if (control.read(responseBuf)==-1)
                 control.close();
-            BufferUtil.flipToFlush(responseBuf,pos); 
+            BufferUtil.flipToFlush(responseBuf,pos);
         }
-        
-        client = new SocketChannel[8];
-        for (int i=0;i<client.length;i++)
-            client[i]=SocketChannel.open(new InetSocketAddress("localhost",8080));
+
+        CountDownLatch connected = new CountDownLatch(connections);
+        for (int s=0;s<selectors.length;s++)
+            selectors[s]=new SelectorThread(s);
+        for (int i=0;i<connections;i++)
+            selectors[i%selectors.length].connect(connected);
+        for (SelectorThread selector : selectors)
+            selector.start();
+        connected.await();
+        System.err.printf("Connected %,d connections on %d selectors%n",open.get(),selectors.length);
     }
-    
-    public void stop(String test,int count,int of) throws IOException
+
+    public void stop(String test,long count,long of) throws IOException, InterruptedException
     {
         System.err.println("Stop "+test+" "+count+" of "+of);
-        String stop = 
+
+        // Nothing more to send, even from the connections that close with requests in flight
+        remaining=new AtomicLong();
+        for (SelectorThread selector : selectors)
+            selector.shutdown();
+
+        String stop =
             "GET "+URIUtil.encodePath("/benchmark/stop/ "+test+" "+count+" of "+of)+" HTTP/1.1\r\n"+
             "Host: benchmarkControl:8080\r\n"+
             "Connection: close\r\n"+
             "\r\n";
-        
-        SocketChannel control = SocketChannel.open(new InetSocketAddress("localhost",8080));
+
+        SocketChannel control = SocketChannel.open(address);
         control.write(BufferUtil.toBuffer(stop));
         while (control.isOpen())
         {
@@ -81,103 +125,309 @@ public class ParallelPipelineClient
             int pos=BufferUtil.flipToFill(responseBuf);
             if (control.read(responseBuf)==-1)
                 control.close();
-            BufferUtil.flipToFlush(responseBuf,pos); 
+            BufferUtil.flipToFlush(responseBuf,pos);
         }
 
-        for (int i=0;i<client.length;i++)
-            if (client[i]!=null && client[i].isOpen())
-                client[i].close();
-        client=null;
+        latency.report();
+        latency.reset();
     }
-    
-    public int requestResponse(final int count) throws Exception
+
+    public long requestResponse(final long count) throws Exception
     {
         System.err.println("requesting "+count);
-        new Thread()
+        CountDownLatch latch = new CountDownLatch((int)Math.min(count,Integer.MAX_VALUE));
+        responses=latch;
+        remaining=new AtomicLong(count);
+        for (SelectorThread selector : selectors)
+            selector.kick();
+
+        while (!latch.await(1,TimeUnit.SECONDS))
         {
-            @Override
-            public void run()
+            if (open.get()==0)
             {
-                try
+                System.err.println("All connections closed");
+                break;
+            }
+            // The requests of a closed connection go back to the budget, so this only
+            // happens if the latch missed responses, but the client must not spin on it
+            if (remaining.get()<=0 && inflight.get()==0)
+            {
+                System.err.println("No requests left to send");
+                break;
+            }
+        }
+        return count-latch.getCount();
+    }
+
+    private class SelectorThread extends Thread
+    {
+        final Selector _selector;
+        final List<Connection> _connections = new ArrayList<>();
+        final ByteBuffer _buffer = BufferUtil.allocateDirect(64*1024);
+        volatile boolean _running=true;
+        volatile boolean _kick;
+
+        SelectorThread(int id) throws IOException
+        {
+            super("selector-"+id);
+            _selector=Selector.open();
+        }
+
+        void connect(CountDownLatch connected) throws IOException
+        {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel,connected);
+            connection._key=channel.register(_selector,SelectionKey.OP_CONNECT,connection);
+            _connections.add(connection);
+            if (channel.connect(address))
+                connection.connected();
+        }
+
+        void kick()
+        {
+            if (!_running)
+                return;
+            _kick=true;
+            _selector.wakeup();
+        }
+
+        void shutdown() throws InterruptedException
+        {
+            _running=false;
+            _selector.wakeup();
+            join();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (_running)
                 {
-                    for (int i=0;i<count;i++)
+                    _selector.select();
+
+                    if (_kick)
                     {
-                        int c=i%client.length;
-                        if (!client[c].isOpen())
-                            break;
-                        client[c].write(requestBuf.duplicate());
+                        _kick=false;
+                        for (Connection connection : _connections)
+                            connection.send();
+                    }
+
+                    Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection)key.attachment();
+                        try
+                        {
+                            if (key.isConnectable())
+                                connection.connected();
+                            else
+                            {
+                                if (key.isWritable())
+                                    connection.flush();
+                                if (key.isValid() && key.isReadable())
+                                    connection.fill(_buffer);
+                            }
+                        }
+                        catch(IOException e)
+                        {
+                            e.printStackTrace();
+                            connection.close();
+                        }
                     }
                 }
-                catch(Exception e)
+            }
+            catch(Exception e)
+            {
+                e.printStackTrace();
+            }
+            finally
+            {
+                for (Connection connection : _connections)
+                    connection.close();
+                try
+                {
+                    _selector.close();
+                }
+                catch(IOException e)
                 {
                     e.printStackTrace();
                 }
             }
-        }.start();
-        
-        final CountDownLatch responses = new CountDownLatch(count);
-        
-        for (int i=0;i<client.length;i++)
+        }
+    }
+
+    private class Connection
+    {
+        final SocketChannel _channel;
+        final ByteBuffer _out = requestBuf.duplicate();
+        final ResponseFramer _framer = new ResponseFramer();
+        final int _length = requestBuf.remaining()/depth;
+        final CountDownLatch _connected;
+        SelectionKey _key;
+
+        // Ring of send times for requests in flight
+        final long[] _sent = new long[Integer.highestOneBit(depth*2-1)];
+        int _head;
+        int _outstanding;
+        int _unwritten;
+
+        Connection(SocketChannel channel, CountDownLatch connected)
+        {
+            _channel=channel;
+            _connected=connected;
+            _out.limit(0);
+        }
+
+        void connected() throws IOException
+        {
+            try
+            {
+                _channel.finishConnect();
+                _key.interestOps(SelectionKey.OP_READ);
+                open.incrementAndGet();
+            }
+            finally
+            {
+                _connected.countDown();
+            }
+        }
+
+        /**
+         * Claim requests until the pipeline is full, then write them.
+         */
+        void send() throws IOException
+        {
+            if (!_channel.isConnected())
+                return;
+            AtomicLong budget=remaining;
+            while (_outstanding<depth && claim(budget))
+            {
+                _sent[(_head+_outstanding)&(_sent.length-1)]=System.nanoTime();
+                _outstanding++;
+                _unwritten++;
+                inflight.incrementAndGet();
+            }
+            flush();
+        }
+
+        /**
+         * Take a request from the budget without taking it below 0, so that requests
+         * returned by a closed connection are not absorbed by failed claims.
+         */
+        private boolean claim(AtomicLong budget)
+        {
+            while (true)
+            {
+                long r=budget.get();
+                if (r<=0)
+                    return false;
+                if (budget.compareAndSet(r,r-1))
+                    return true;
+            }
+        }
+
+        void flush() throws IOException
         {
-            final int c=i;
-            final ByteBuffer buf = BufferUtil.allocateDirect(64*1024);
-            
-            new Thread()
+            while (true)
             {
-                @Override
-                public void run()
+                if (!_out.hasRemaining())
                 {
-                    try
-                    {
-                        while (client[c].isOpen() && responses.getCount()>0)
-                        {
-                            BufferUtil.clear(buf);
-                            String s="";
+                    if (_unwritten==0)
+                        break;
+                    _out.limit(_unwritten*_length).position(0);
+                    _unwritten=0;
+                }
+                _channel.write(_out);
+                if (_out.hasRemaining())
+                {
+                    // Send buffer full, so wait for the server to read
+                    _key.interestOps(SelectionKey.OP_READ|SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            _key.interestOps(SelectionKey.OP_READ);
+        }
 
-                            while (!s.contains("</html>"))
-                            {
-                                int pos=BufferUtil.flipToFill(buf);
-                                if (client[c].read(buf)==-1)
-                                {
-                                    client[c].close();
-                                    break;
-                                }
-                                BufferUtil.flipToFlush(buf,pos);  
-                                s=BufferUtil.toString(buf);
-                            }
-                            int index=0;
-                            while (true)
-                            {
-                                index=s.indexOf("</html>",index);
-                                if (index<0)
-                                    break;
-                                responses.countDown();
-                                index+=7;
-                            }
-                        }
-                    }
-                    catch(AsynchronousCloseException e)
-                    {
-                        
-                    }
-                    catch(Exception e)
+        void fill(ByteBuffer buffer) throws IOException
+        {
+            while (true)
+            {
+                BufferUtil.clear(buffer);
+                int pos=BufferUtil.flipToFill(buffer);
+                int len=_channel.read(buffer);
+                BufferUtil.flipToFlush(buffer,pos);
+                int completed=_framer.parse(buffer);
+                if (len==-1)
+                    completed+=_framer.eof();
+
+                long now=System.nanoTime();
+                CountDownLatch latch=responses;
+                for (int i=0;i<completed && _outstanding>0;i++)
+                {
+                    latency.record(now-_sent[_head]);
+                    _head=(_head+1)&(_sent.length-1);
+                    _outstanding--;
+                    inflight.decrementAndGet();
+                    latch.countDown();
+                }
+
+                if (len==-1)
+                {
+                    close();
+                    return;
+                }
+                if (len==0)
+                    break;
+            }
+            send();
+        }
+
+        void close()
+        {
+            try
+            {
+                if (_channel.isOpen())
+                {
+                    if (_channel.isConnected())
+                        open.decrementAndGet();
+                    _key.cancel();
+                    _channel.close();
+
+                    // Return the requests that will never be answered to the budget,
+                    // and kick the other connections to send them
+                    if (_outstanding>0)
                     {
-                        e.printStackTrace();
+                        remaining.addAndGet(_outstanding);
+                        inflight.addAndGet(-_outstanding);
+                        _outstanding=0;
+                        _unwritten=0;
+                        for (SelectorThread selector : selectors)
+                            selector.kick();
                     }
-                    
                 }
-            }.start();
+            }
+            catch(IOException e)
+            {
+                e.printStackTrace();
+            }
         }
-        
-        responses.await();
-        return count;
     }
-        
+
     public static void main(String... args) throws Exception
     {
-        int COUNT;
-        int done;
-        ParallelPipelineClient bm = new ParallelPipelineClient();
+        int connections = args.length>0?Integer.parseInt(args[0]):8;
+        int selectors = args.length>1?Integer.parseInt(args[1]):Math.max(1,Runtime.getRuntime().availableProcessors()/2);
+        int depth = args.length>2?Integer.parseInt(args[2]):16;
+
+        long COUNT;
+        long done;
+        ParallelPipelineClient bm = new ParallelPipelineClient(connections,selectors,depth);
 
         COUNT=10000;
         bm.start();
@@ -5,6 +5,7 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.eclipse.jetty.toolchain.test.BenchmarkHelper;
 import org.eclipse.jetty.util.BufferUtil;
@@ -12,6 +13,9 @@ import org.eclipse.jetty.util.URIUtil;
 
 public class PipelineClient
 {
+    // The most requests in flight, as their send times are kept in a ring of this size
+    private static final int DEPTH = 1<<16;
+
     private final String start = 
         "GET /benchmark/start HTTP/1.1\r\n"+
         "Host: benchmarkControl:8080\r\n"+
@@ -30,6 +34,12 @@ public class PipelineClient
 
     private final ByteBuffer requestBuf;
     private final ByteBuffer responseBuf;
+    private final LatencyRecorder latency = new LatencyRecorder("PipelineClient");
+    private final ResponseFramer framer = new ResponseFramer();
+    // Send times of requests in flight, indexed by request number
+    private final AtomicLongArray sent = new AtomicLongArray(DEPTH);
+    // Responses received, so that the writer does not overwrite the send time of a request in flight
+    private volatile int received;
     private SocketChannel client;
         
     public PipelineClient()
@@ -82,11 +92,17 @@ public class PipelineClient
         if (client.isOpen())
             client.close();
         client=null;
+
+        System.err.printf("%,d responses with %,d body bytes%n",framer.getResponses(),framer.getBodyBytes());
+        framer.reset();
+        latency.report();
+        latency.reset();
     }
     
     public int requestResponse(final int count) throws Exception
     {
         System.err.println("requesting "+count);
+        received=0;
         new Thread()
         {
             @Override
@@ -96,6 +112,9 @@ public class PipelineClient
                 {
                     for (int i=0;client.isOpen() && i<count;i++)
                     {
+                        while (i-received>=DEPTH && client.isOpen())
+                            Thread.yield();
+                        sent.lazySet(i&(DEPTH-1),System.nanoTime());
                         client.write(requestBuf.duplicate());
                     }
                 }
@@ -110,25 +129,23 @@ public class PipelineClient
         while (client.isOpen() && responses<count)
         {
             BufferUtil.clear(responseBuf);
-            String s="";
-            
-            while (!s.contains("</html>"))
+            int pos=BufferUtil.flipToFill(responseBuf);
+            int len=client.read(responseBuf);
+            BufferUtil.flipToFlush(responseBuf,pos);
+            int completed=framer.parse(responseBuf);
+            if (len==-1)
             {
-                int pos=BufferUtil.flipToFill(responseBuf);
-                if (client.read(responseBuf)==-1)
-                    client.close();
-                BufferUtil.flipToFlush(responseBuf,pos);  
-                s=BufferUtil.toString(responseBuf);
+                client.close();
+                completed+=framer.eof();
             }
-            int index=0;
-            while (true)
+
+            long now=System.nanoTime();
+            for (int i=0;i<completed;i++)
             {
-                index=s.indexOf("</html>",index);
-                if (index<0)
-                    break;
+                latency.record(now-sent.get(responses&(DEPTH-1)));
                 responses++;
-                index+=7;
             }
+            received=responses;
         }
         return responses;
     }
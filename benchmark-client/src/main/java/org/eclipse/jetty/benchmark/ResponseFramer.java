@@ -0,0 +1,357 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental HTTP/1.1 response framer.
+ * <p>
+ * Finds response boundaries in a stream of (possibly pipelined) responses without
+ * converting buffers to Strings. The status line and the <code>Content-Length</code>
+ * and <code>Transfer-Encoding</code> headers are parsed directly from the
+ * {@link ByteBuffer}, and state is kept between calls so that a response may be
+ * split at any byte boundary over any number of reads. Responses without a
+ * length are delimited by EOF, see {@link #eof()}.
+ * <p>
+ * The framer does not allocate after construction and is not thread safe.
+ */
+public class ResponseFramer
+{
+    enum State
+    {
+        START, VERSION, STATUS, REASON,
+        HEADER, HEADER_NAME, HEADER_VALUE, HEADER_SKIP,
+        CONTENT, CHUNK_SIZE, CHUNK_EXTENSION, CHUNK, CHUNK_END, TRAILER, EOF_CONTENT
+    }
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes();
+    private static final byte[] CHUNKED = "chunked".getBytes();
+
+    private State _state = State.START;
+    private int _status;
+    private byte[] _header;
+    private int _match;
+    private long _contentLength;
+    private boolean _chunked;
+    private long _remaining;
+    private int _line;
+
+    private long _responses;
+    private long _bodyBytes;
+
+    /**
+     * Parse all the bytes remaining in the buffer.
+     * @param buffer The buffer in flush mode, which is fully consumed.
+     * @return The number of responses completed by this buffer
+     */
+    public int parse(ByteBuffer buffer)
+    {
+        int completed=0;
+        int i=buffer.position();
+        int limit=buffer.limit();
+
+        while (i<limit)
+        {
+            switch (_state)
+            {
+                case CONTENT:
+                case CHUNK:
+                {
+                    int chunk=(int)Math.min(limit-i,_remaining);
+                    i+=chunk;
+                    _remaining-=chunk;
+                    _bodyBytes+=chunk;
+                    if (_remaining==0)
+                    {
+                        if (_state==State.CHUNK)
+                            _state=State.CHUNK_END;
+                        else
+                            completed+=complete();
+                    }
+                    continue;
+                }
+
+                case EOF_CONTENT:
+                    _bodyBytes+=limit-i;
+                    i=limit;
+                    continue;
+
+                default:
+                    break;
+            }
+
+            byte b=buffer.get(i++);
+            switch (_state)
+            {
+                case START:
+                    if (b=='\r' || b=='\n')
+                        break;
+                    _status=0;
+                    _contentLength=-1;
+                    _chunked=false;
+                    _state=State.VERSION;
+                    break;
+
+                case VERSION:
+                    if (b==' ')
+                        _state=State.STATUS;
+                    break;
+
+                case STATUS:
+                    if (b>='0' && b<='9')
+                        _status=_status*10+(b-'0');
+                    else if (b==' ')
+                        _state=State.REASON;
+                    else if (b=='\n')
+                        _state=State.HEADER;
+                    else if (b!='\r')
+                        throw new IllegalStateException("Bad status "+(char)b);
+                    break;
+
+                case REASON:
+                    if (b=='\n')
+                        _state=State.HEADER;
+                    break;
+
+                case HEADER:
+                    if (b=='\r')
+                        break;
+                    if (b=='\n')
+                    {
+                        completed+=headerComplete();
+                        break;
+                    }
+                    b=lowerCase(b);
+                    _header=b==CONTENT_LENGTH[0]?CONTENT_LENGTH:b==TRANSFER_ENCODING[0]?TRANSFER_ENCODING:null;
+                    _match=1;
+                    _state=_header==null?State.HEADER_SKIP:State.HEADER_NAME;
+                    break;
+
+                case HEADER_NAME:
+                    if (b==':')
+                    {
+                        if (_match==_header.length)
+                        {
+                            _match=0;
+                            if (_header==CONTENT_LENGTH)
+                                _contentLength=0;
+                            _state=State.HEADER_VALUE;
+                        }
+                        else
+                            _state=State.HEADER_SKIP;
+                    }
+                    else if (b=='\n')
+                        _state=State.HEADER;
+                    else if (_match<_header.length && lowerCase(b)==_header[_match])
+                        _match++;
+                    else
+                        _state=State.HEADER_SKIP;
+                    break;
+
+                case HEADER_VALUE:
+                    if (b=='\n')
+                    {
+                        _state=State.HEADER;
+                        break;
+                    }
+                    if (_header==CONTENT_LENGTH)
+                    {
+                        if (b>='0' && b<='9')
+                        {
+                            if (_contentLength>(Long.MAX_VALUE-9)/10)
+                                throw new IllegalStateException("Content-Length overflow");
+                            _contentLength=_contentLength*10+(b-'0');
+                        }
+                        else if (b!=' ' && b!='\t' && b!='\r')
+                            throw new IllegalStateException("Bad Content-Length "+(char)b);
+                    }
+                    else
+                    {
+                        // Look for chunked, which must be the last transfer coding
+                        b=lowerCase(b);
+                        if (_match==CHUNKED.length)
+                        {
+                            if (b!=' ' && b!='\t' && b!='\r')
+                                _match=0;
+                        }
+                        else if (b==CHUNKED[_match])
+                            _match++;
+                        else
+                            _match=b==CHUNKED[0]?1:0;
+                        _chunked=_match==CHUNKED.length;
+                    }
+                    break;
+
+                case HEADER_SKIP:
+                    if (b=='\n')
+                        _state=State.HEADER;
+                    break;
+
+                case CHUNK_SIZE:
+                {
+                    int digit=hex(b);
+                    if (digit>=0)
+                    {
+                        if (_remaining>Long.MAX_VALUE>>4)
+                            throw new IllegalStateException("Chunk size overflow");
+                        _remaining=(_remaining<<4)+digit;
+                    }
+                    else if (b==';')
+                        _state=State.CHUNK_EXTENSION;
+                    else if (b=='\n')
+                        chunkSize();
+                    else if (b!=' ' && b!='\t' && b!='\r')
+                        throw new IllegalStateException("Bad chunk size "+(char)b);
+                    break;
+                }
+
+                case CHUNK_EXTENSION:
+                    if (b=='\n')
+                        chunkSize();
+                    break;
+
+                case CHUNK_END:
+                    if (b=='\n')
+                    {
+                        _remaining=0;
+                        _state=State.CHUNK_SIZE;
+                    }
+                    else if (b!='\r')
+                        throw new IllegalStateException("Bad chunk end "+(char)b);
+                    break;
+
+                case TRAILER:
+                    if (b=='\n')
+                    {
+                        if (_line==0)
+                            completed+=complete();
+                        _line=0;
+                    }
+                    else if (b!='\r')
+                        _line++;
+                    break;
+
+                default:
+                    throw new IllegalStateException(_state.toString());
+            }
+        }
+
+        buffer.position(limit);
+        return completed;
+    }
+
+    /**
+     * Signal that the connection has been closed.
+     * @return 1 if this completed a response delimited by EOF, else 0.
+     */
+    public int eof()
+    {
+        if (_state==State.EOF_CONTENT)
+            return complete();
+        return 0;
+    }
+
+    private int headerComplete()
+    {
+        // Interim responses are not counted
+        if (_status>=100 && _status<200 && _status!=101)
+        {
+            _state=State.START;
+            return 0;
+        }
+
+        if (_status==204 || _status==304)
+            return complete();
+
+        if (_chunked)
+        {
+            _remaining=0;
+            _state=State.CHUNK_SIZE;
+            return 0;
+        }
+
+        if (_contentLength==0)
+            return complete();
+
+        if (_contentLength>0)
+        {
+            _remaining=_contentLength;
+            _state=State.CONTENT;
+            return 0;
+        }
+
+        _state=State.EOF_CONTENT;
+        return 0;
+    }
+
+    private void chunkSize()
+    {
+        if (_remaining==0)
+        {
+            _line=0;
+            _state=State.TRAILER;
+        }
+        else
+            _state=State.CHUNK;
+    }
+
+    private int complete()
+    {
+        _responses++;
+        _state=State.START;
+        return 1;
+    }
+
+    private static byte lowerCase(byte b)
+    {
+        return (b>='A' && b<='Z')?(byte)(b+('a'-'A')):b;
+    }
+
+    private static int hex(byte b)
+    {
+        if (b>='0' && b<='9')
+            return b-'0';
+        if (b>='a' && b<='f')
+            return b-'a'+10;
+        if (b>='A' && b<='F')
+            return b-'A'+10;
+        return -1;
+    }
+
+    /**
+     * @return The status of the current or last response
+     */
+    public int getStatus()
+    {
+        return _status;
+    }
+
+    /**
+     * @return The total number of responses completed
+     */
+    public long getResponses()
+    {
+        return _responses;
+    }
+
+    /**
+     * @return The total number of body bytes seen (excluding chunk framing)
+     */
+    public long getBodyBytes()
+    {
+        return _bodyBytes;
+    }
+
+    public void reset()
+    {
+        _state=State.START;
+        _responses=0;
+        _bodyBytes=0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,status=%d,responses=%d,bodyBytes=%d}",getClass().getSimpleName(),hashCode(),_state,_status,_responses,_bodyBytes);
+    }
+}
@@ -28,6 +28,8 @@ public class SerialClient
 
     private final ByteBuffer requestBuf;
     private final ByteBuffer responseBuf;
+    private final LatencyRecorder latency = new LatencyRecorder("SerialClient");
+    private final ResponseFramer framer = new ResponseFramer();
     private SocketChannel client;
         
     public SerialClient()
@@ -78,6 +80,11 @@ public class SerialClient
         if (client.isOpen())
             client.close();
         client=null;
+
+        System.err.printf("%,d responses with %,d body bytes%n",framer.getResponses(),framer.getBodyBytes());
+        framer.reset();
+        latency.report();
+        latency.reset();
     }
     
     public int requestResponse(int count) throws Exception
@@ -85,16 +92,23 @@ public class SerialClient
         int i=0;
         for (;client.isOpen() && i<count;i++)
         {
+            long begin=System.nanoTime();
             client.write(requestBuf.duplicate());
-            BufferUtil.clear(responseBuf);
-            do
+            int responses=0;
+            while (responses==0 && client.isOpen())
             {
+                BufferUtil.clear(responseBuf);
                 int pos=BufferUtil.flipToFill(responseBuf);
-                if (client.read(responseBuf)==-1)
+                int len=client.read(responseBuf);
+                BufferUtil.flipToFlush(responseBuf,pos);
+                responses+=framer.parse(responseBuf);
+                if (len==-1)
+                {
                     client.close();
-                BufferUtil.flipToFlush(responseBuf,pos);            
+                    responses+=framer.eof();
+                }
             }
-            while (!BufferUtil.toString(responseBuf).contains("</html>"));
+            latency.record(System.nanoTime()-begin);
         }
         return i;
     }
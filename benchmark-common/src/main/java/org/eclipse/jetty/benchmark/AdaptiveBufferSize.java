@@ -0,0 +1,165 @@
+package org.eclipse.jetty.benchmark;
+
+/**
+ * Chooses the size of the buffer for the next read of a connection from the sizes of its
+ * recent reads, and keeps a histogram of those sizes and of how much of the buffers they used.
+ * <p>
+ * The sizes are powers of 2 from a minimum to a maximum. A read that fills its buffer means
+ * that more bytes were waiting, so the size doubles at once, saving the reads of bulk
+ * connections. It only halves after a run of reads that would all have fitted in a
+ * quarter of the buffer, so that an idle or chatty connection does not pin a large buffer,
+ * without a single short read shrinking the buffer of a bulk connection.
+ * <p>
+ * An instance is used by the thread reading the connection, and is not thread safe.
+ * <pre>
+ * ByteBuffer buffer=pool.acquire(sizes.getSize(),false);
+ * int len=endp.fill(buffer);
+ * if (len&gt;0)
+ *     sizes.filled(len,buffer.capacity());
+ * </pre>
+ */
+public class AdaptiveBufferSize
+{
+    private static final int SHRINK_AFTER=8;
+
+    private final int _min;
+    private final int _max;
+    private final long[] _histogram = new long[32];
+    private int _size;
+    private int _small;
+    private int _fills;
+    private long _filled;
+    private long _capacity;
+    private int _grows;
+    private int _shrinks;
+
+    public AdaptiveBufferSize()
+    {
+        this(512,64*1024,4096);
+    }
+
+    /**
+     * @param min The minimum size, a power of 2
+     * @param max The maximum size, a power of 2
+     * @param initial The size of the first buffer, a power of 2 between the minimum and the maximum
+     */
+    public AdaptiveBufferSize(int min, int max, int initial)
+    {
+        _min=min;
+        _max=max;
+        _size=initial;
+    }
+
+    /**
+     * @return The size of the buffer to read into next
+     */
+    public int getSize()
+    {
+        return _size;
+    }
+
+    /**
+     * Record a read and adapt the size to it.
+     * @param length The number of bytes read, more than 0
+     * @param capacity The capacity of the buffer read into, which may be more than the size asked for
+     */
+    public void filled(int length, int capacity)
+    {
+        _fills++;
+        _filled+=length;
+        _capacity+=capacity;
+        // Bucket n counts the reads of more than 2^(n-1) and at most 2^n bytes
+        _histogram[32-Integer.numberOfLeadingZeros(length-1)]++;
+
+        if (length>=capacity)
+        {
+            _small=0;
+            if (_size<_max)
+            {
+                _size<<=1;
+                _grows++;
+            }
+        }
+        else if (length<=_size>>2 && _size>_min)
+        {
+            if (++_small==SHRINK_AFTER)
+            {
+                _small=0;
+                _size>>=1;
+                _shrinks++;
+            }
+        }
+        else
+        {
+            _small=0;
+        }
+    }
+
+    public int getFills()
+    {
+        return _fills;
+    }
+
+    public long getFilled()
+    {
+        return _filled;
+    }
+
+    /**
+     * @return The percentage of the capacity of the buffers read into that was filled
+     */
+    public double getUtilisation()
+    {
+        return _capacity==0?0:100.0*_filled/_capacity;
+    }
+
+    /**
+     * @return The number of reads of each size, eg <code>&lt;=1KB:12 &lt;=2KB:3</code>
+     */
+    public String getHistogram()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int n=0;n<_histogram.length;n++)
+        {
+            if (_histogram[n]==0)
+                continue;
+            if (builder.length()>0)
+                builder.append(' ');
+            builder.append("<=").append(toSize(1L<<n)).append(':').append(_histogram[n]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Emit the reads of a connection as the <code>utilisation</code>, <code>fill</code> and
+     * <code>fills&lt;=<i>size</i></code> metrics of the <code>EchoFills</code> benchmark.
+     * @param server The name of the server, eg its class
+     */
+    public void emit(String server)
+    {
+        Measurement measurement = new Measurement("EchoFills")
+            .param("server",server)
+            .metric("utilisation",getUtilisation(),"%",true)
+            .metric("fill",_fills==0?0:(double)_filled/_fills,"B",true);
+        for (int n=0;n<_histogram.length;n++)
+            if (_histogram[n]>0)
+                measurement.metric("fills<="+toSize(1L<<n),_histogram[n],"fills",false);
+        measurement.emit();
+    }
+
+    private static String toSize(long size)
+    {
+        if (size>=1024*1024)
+            return (size>>20)+"MB";
+        if (size>=1024)
+            return (size>>10)+"KB";
+        return size+"B";
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Filled %d bytes in %d fills, %.1f%% of the buffers used, buffer %s grown %d shrunk %d times",
+            _filled,_fills,getUtilisation(),toSize(_size),_grows,_shrinks);
+    }
+}
@@ -0,0 +1,22 @@
+package org.eclipse.jetty.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The bytes allocated by a thread, for the benchmarks that report the garbage or the
+ * footprint of the code under test as the difference of two readings.
+ */
+public class Allocation
+{
+    /**
+     * @return The bytes allocated by the current thread so far, or 0 if the JVM cannot tell.
+     */
+    public static long allocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+}
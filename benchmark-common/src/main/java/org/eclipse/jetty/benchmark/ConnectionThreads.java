@@ -0,0 +1,72 @@
+package org.eclipse.jetty.benchmark;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * The executors that the thread per connection servers hand each accepted connection to:
+ * a new platform thread per connection, or a new virtual thread per connection.
+ * <p>
+ * Virtual threads are parked rather than blocked by the reads and writes of a blocking
+ * channel, so a server can keep the simple blocking code of a thread per connection for
+ * many more connections than there can be platform threads. They need Java 21, while the
+ * servers are built for Java 7 and 8, so the executor is looked up by reflection.
+ */
+public class ConnectionThreads
+{
+    public static final String PLATFORM="platform";
+    public static final String VIRTUAL="virtual";
+
+    /**
+     * @param mode {@link #PLATFORM} or {@link #VIRTUAL}
+     * @return An executor that runs each task in a new thread of that kind
+     * @throws IllegalStateException if virtual threads are asked for but this JVM has none
+     */
+    public static Executor newExecutor(String mode)
+    {
+        if (PLATFORM.equals(mode))
+        {
+            return new Executor()
+            {
+                @Override
+                public void execute(Runnable task)
+                {
+                    new Thread(task).start();
+                }
+            };
+        }
+        if (VIRTUAL.equals(mode))
+        {
+            try
+            {
+                return (Executor)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            }
+            catch (NoSuchMethodException e)
+            {
+                throw new IllegalStateException("No virtual threads in Java "+System.getProperty("java.version")+", they need Java 21");
+            }
+            catch (IllegalAccessException | InvocationTargetException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown connection threads: "+mode);
+    }
+
+    /**
+     * @return True if this JVM has virtual threads
+     */
+    public static boolean hasVirtualThreads()
+    {
+        try
+        {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+}
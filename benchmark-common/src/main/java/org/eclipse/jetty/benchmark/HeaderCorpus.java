@@ -0,0 +1,263 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A corpus of pipelined requests with realistic headers, to evaluate the header cache of the parser.
+ * <p>
+ * The corpus is either {@link #synthetic(int, int, double, long) generated}, with headers
+ * whose values are drawn from a Zipf distribution of a given cardinality, or
+ * {@link #load(File) loaded} from a HAR file exported by a browser or proxy, or from a
+ * capture of raw requests. Bodies are not kept, so every request is sent as header only.
+ */
+public class HeaderCorpus
+{
+    private static final String[] ACCEPT =
+    {
+        "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8",
+        "*/*",
+        "application/json, text/javascript, */*; q=0.01",
+        "image/webp,*/*",
+        "text/css,*/*;q=0.1"
+    };
+
+    private static final String[] LANGUAGES =
+    {
+        "en-US,en;q=0.5",
+        "en-GB,en;q=0.8",
+        "de-DE,de;q=0.8,en-US;q=0.5,en;q=0.3",
+        "fr-FR,fr;q=0.8,en-US;q=0.5,en;q=0.3",
+        "it-IT,it;q=0.8,en-US;q=0.5,en;q=0.3"
+    };
+
+    private final String _name;
+    private final byte[] _bytes;
+    private final int _requests;
+    private final int _fields;
+
+    private HeaderCorpus(String name, List<List<String[]>> requests)
+    {
+        _name=name;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int fields=0;
+        for (List<String[]> request : requests)
+        {
+            StringBuilder builder = new StringBuilder();
+            String[] line=request.get(0);
+            builder.append(line[0]).append(' ').append(line[1]).append(" HTTP/1.1\r\n");
+            for (String[] field : request.subList(1,request.size()))
+            {
+                // Bodies are not kept
+                if ("Content-Length".equalsIgnoreCase(field[0]) || "Transfer-Encoding".equalsIgnoreCase(field[0]))
+                    continue;
+                builder.append(field[0]).append(": ").append(field[1]).append("\r\n");
+                fields++;
+            }
+            builder.append("\r\n");
+            byte[] bytes=builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+            out.write(bytes,0,bytes.length);
+        }
+        _bytes=out.toByteArray();
+        _requests=requests.size();
+        _fields=fields;
+    }
+
+    /**
+     * Generate a corpus of browser like requests.
+     * <p>
+     * The path, <code>User-Agent</code>, <code>Cookie</code>, <code>Referer</code> and
+     * <code>X-Forwarded-For</code> each take one of <code>cardinality</code> values,
+     * <code>Accept</code> and <code>Accept-Language</code> one of a handful, and
+     * <code>X-Request-Id</code> is unique to each request.
+     * @param requests The number of requests
+     * @param cardinality The number of distinct values of the variable headers
+     * @param skew The exponent of the Zipf distribution of the values, 0 for uniform
+     * @param seed The random seed
+     */
+    public static HeaderCorpus synthetic(int requests, int cardinality, double skew, long seed)
+    {
+        Random random = new Random(seed);
+        Zipf values = new Zipf(cardinality,skew,random);
+        Zipf accept = new Zipf(ACCEPT.length,skew,random);
+        Zipf language = new Zipf(LANGUAGES.length,skew,random);
+
+        List<List<String[]>> corpus = new ArrayList<>();
+        for (int i=0;i<requests;i++)
+        {
+            List<String[]> request = new ArrayList<>();
+            request.add(new String[]{"GET","/context/page/"+values.next()});
+            request.add(new String[]{"Host","localhost:8080"});
+            int agent=values.next();
+            request.add(new String[]{"User-Agent",String.format(
+                "Mozilla/5.0 (X11; Linux x86_64; rv:%d.%d) Gecko/20100101 Firefox/%d.%d",30+agent%10,agent/10,30+agent%10,agent/10)});
+            request.add(new String[]{"Accept",ACCEPT[accept.next()]});
+            request.add(new String[]{"Accept-Language",LANGUAGES[language.next()]});
+            request.add(new String[]{"Accept-Encoding","gzip, deflate"});
+            int session=values.next();
+            request.add(new String[]{"Cookie",String.format(
+                "JSESSIONID=%016x; _ga=GA1.2.%d.1431330000; theme=%s",session*0x9E3779B97F4A7C15L,session,session%2==0?"light":"dark")});
+            request.add(new String[]{"Referer","http://localhost:8080/context/page/"+values.next()});
+            int client=values.next();
+            request.add(new String[]{"X-Forwarded-For",String.format("10.%d.%d.%d",client>>16&0xFF,client>>8&0xFF,client&0xFF)});
+            request.add(new String[]{"X-Request-Id",String.format("%016x%016x",random.nextLong(),random.nextLong())});
+            request.add(new String[]{"Connection","keep-alive"});
+            corpus.add(request);
+        }
+        return new HeaderCorpus(String.format("synthetic-%d-%s",cardinality,skew),corpus);
+    }
+
+    /**
+     * Load a corpus from a file.
+     * <p>
+     * A <code>.har</code> or <code>.json</code> file is read as a HAR: the method, URL and
+     * headers of the request of every entry are replayed, with the HTTP/2 pseudo headers
+     * dropped and <code>:authority</code> used as the <code>Host</code> if there is none.
+     * Any other file is read as raw requests, each terminated by a blank line.
+     * @param file The file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file cannot be parsed
+     */
+    public static HeaderCorpus load(File file) throws IOException
+    {
+        String content = new String(Files.readAllBytes(file.toPath()),StandardCharsets.UTF_8);
+        String name = file.getName();
+        if (name.endsWith(".har") || name.endsWith(".json"))
+            return new HeaderCorpus(name,har(content));
+        return new HeaderCorpus(name,raw(content));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<String[]>> har(String json)
+    {
+        Map<String,Object> log = (Map<String,Object>)((Map<String,Object>)new JsonParser(json).parse()).get("log");
+        List<List<String[]>> corpus = new ArrayList<>();
+        for (Object entry : (List<Object>)log.get("entries"))
+        {
+            Map<String,Object> har = (Map<String,Object>)((Map<String,Object>)entry).get("request");
+            URI uri = URI.create((String)har.get("url"));
+            String path = uri.getRawPath()==null||uri.getRawPath().isEmpty()?"/":uri.getRawPath();
+            if (uri.getRawQuery()!=null)
+                path+="?"+uri.getRawQuery();
+
+            List<String[]> request = new ArrayList<>();
+            request.add(new String[]{(String)har.get("method"),path});
+            String authority=uri.getRawAuthority();
+            boolean host=false;
+            for (Object header : (List<Object>)har.get("headers"))
+            {
+                String name=(String)((Map<String,Object>)header).get("name");
+                String value=(String)((Map<String,Object>)header).get("value");
+                if (name.startsWith(":"))
+                {
+                    if (":authority".equals(name))
+                        authority=value;
+                    continue;
+                }
+                host|="Host".equalsIgnoreCase(name);
+                request.add(new String[]{name,value});
+            }
+            if (!host && authority!=null)
+                request.add(1,new String[]{"Host",authority});
+            corpus.add(request);
+        }
+        return corpus;
+    }
+
+    private static List<List<String[]>> raw(String text)
+    {
+        List<List<String[]>> corpus = new ArrayList<>();
+        List<String[]> request = null;
+        for (String line : text.split("\r?\n"))
+        {
+            if (line.isEmpty())
+            {
+                if (request!=null)
+                    corpus.add(request);
+                request=null;
+            }
+            else if (request==null)
+            {
+                String[] parts=line.split(" ");
+                if (parts.length<2)
+                    throw new IllegalArgumentException("Bad request line: "+line);
+                request = new ArrayList<>();
+                request.add(new String[]{parts[0],parts[1]});
+            }
+            else
+            {
+                int colon=line.indexOf(':');
+                if (colon<=0)
+                    throw new IllegalArgumentException("Bad header: "+line);
+                request.add(new String[]{line.substring(0,colon).trim(),line.substring(colon+1).trim()});
+            }
+        }
+        if (request!=null)
+            corpus.add(request);
+        return corpus;
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    public byte[] getBytes()
+    {
+        return _bytes;
+    }
+
+    public int getRequests()
+    {
+        return _requests;
+    }
+
+    /**
+     * @return The total number of header fields in the corpus
+     */
+    public int getFields()
+    {
+        return _fields;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s,requests=%d,fields=%d,bytes=%d}",getClass().getSimpleName(),_name,_requests,_fields,_bytes.length);
+    }
+
+    /**
+     * Draws ranks 0 to n-1 with probability proportional to 1/(rank+1)<sup>s</sup>.
+     */
+    static class Zipf
+    {
+        final double[] _cdf;
+        final Random _random;
+
+        Zipf(int n, double s, Random random)
+        {
+            _cdf=new double[n];
+            _random=random;
+            double sum=0;
+            for (int i=0;i<n;i++)
+                _cdf[i]=sum+=1/Math.pow(i+1,s);
+            for (int i=0;i<n;i++)
+                _cdf[i]/=sum;
+        }
+
+        int next()
+        {
+            int rank=Arrays.binarySearch(_cdf,_random.nextDouble());
+            return Math.min(_cdf.length-1,rank<0?-rank-1:rank);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the hex of the chunk size lines of the chunked transfer encoding and of the
+ * <code>%XX</code> escapes of URIs from heap or direct {@link ByteBuffer}s.
+ * <p>
+ * A digit is converted without branching on its range, as <code>HexToDecimalBenchmark</code>
+ * does, with <code>(b&amp;0x1F)+((b&gt;&gt;6)*0x19)-0x10</code>, which gives the value of
+ * <code>0-9</code>, <code>A-F</code> and <code>a-f</code> alike. As other bytes give values
+ * too, the range checks are folded into a mask that turns the value of a byte that is not a
+ * hex digit into -1, which an escape or a chunk size then only has to test once. The two
+ * digits of an escape are converted together.
+ */
+public class HexParser
+{
+    /**
+     * @param b A byte, from 0 to 255
+     * @return The value of the hex digit, or -1 if the byte is not a hex digit
+     */
+    public static int hex(int b)
+    {
+        int value=(b&0x1F)+((b>>6)*0x19)-0x10;
+        int digit=b-'0';
+        int letter=(b|0x20)-'a';
+        // All ones if 0<=digit<=9 or 0<=letter<=5
+        int valid=~((digit|9-digit)>>31)|~((letter|5-letter)>>31);
+        return value&valid|~valid;
+    }
+
+    /**
+     * The same as <code>hex(hi)&lt;&lt;4|hex(lo)</code>, with the two digits converted and
+     * checked at once in the 16 bit lanes of an int, which are wide enough for the sums
+     * of the range checks not to carry into each other.
+     * @param hi The byte of the high digit, from 0 to 255
+     * @param lo The byte of the low digit, from 0 to 255
+     * @return The value of the two hex digits, or a negative value if either is not a hex digit
+     */
+    public static int hex(int hi, int lo)
+    {
+        int x=hi|lo<<16;
+        int y=x|0x00200020;
+        // Bit 7 of a lane is set if its byte is in 0-9, or in a-f once lower cased
+        int valid=((x+0x00500050)&~(x+0x00460046)|(y+0x001F001F)&~(y+0x00190019))&0x00800080;
+        int value=(x&0x001F001F)+((x>>6)&0x00030003)*0x19-0x00100010;
+        return (value&0xF)<<4|(value>>>16&0xF)|-(valid^0x00800080)>>31;
+    }
+
+    /**
+     * Parse a chunk size line, ie the hex size, then optional spaces and chunk extensions,
+     * then CRLF (or a lone LF), from the position of the buffer.
+     * <p>
+     * The extensions are skipped, including quoted values with <code>;</code> or escaped
+     * quotes in them. If the line is complete, the position is moved after it, otherwise it
+     * is unchanged, so that the line is parsed again once more bytes have been read.
+     * @param buffer The buffer
+     * @return The chunk size, or -1 if the line is not complete
+     * @throws IllegalArgumentException if the line is not a valid chunk size line, or if the
+     * size does not fit in a long
+     */
+    public static long parseChunkSize(ByteBuffer buffer)
+    {
+        int i=buffer.position();
+        int limit=buffer.limit();
+        long size=0;
+        long overflow=0;
+        int start=i;
+        for (;i<limit;i++)
+        {
+            int h=hex(buffer.get(i)&0xFF);
+            if (h<0)
+                break;
+            // The top 5 bits must be clear before each shift for the size to stay positive,
+            // which is checked once after the digits
+            overflow|=size;
+            size=size<<4|h;
+        }
+        if (i==limit)
+            return -1;
+        if (i==start)
+            throw new IllegalArgumentException(String.format("Bad chunk size byte 0x%02x",buffer.get(i)));
+        if ((overflow&0xF800000000000000L)!=0)
+            throw new IllegalArgumentException("Chunk size overflow");
+
+        boolean quoted=false;
+        boolean extensions=false;
+        for (;i<limit;i++)
+        {
+            byte b=buffer.get(i);
+            if (quoted)
+            {
+                if (b=='\\')
+                    i++;
+                else if (b=='"')
+                    quoted=false;
+                else if (b=='\r' || b=='\n')
+                    throw new IllegalArgumentException("Unterminated chunk extension value");
+            }
+            else if (b=='\n')
+            {
+                buffer.position(i+1);
+                return size;
+            }
+            else if (b=='\r')
+            {
+                if (i+1==limit)
+                    return -1;
+                if (buffer.get(i+1)!='\n')
+                    throw new IllegalArgumentException("Bad chunk size line end");
+                buffer.position(i+2);
+                return size;
+            }
+            else if (b==';')
+            {
+                extensions=true;
+            }
+            else if (b=='"' && extensions)
+            {
+                quoted=true;
+            }
+            else if (!extensions && b!=' ' && b!='\t')
+            {
+                throw new IllegalArgumentException(String.format("Bad chunk size byte 0x%02x",b));
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Percent decode the bytes from the position to the limit of a buffer into another
+     * buffer, which may be a duplicate of the same bytes, as the decoded bytes are never
+     * ahead of the encoded ones.
+     * @param in The encoded bytes, whose position is moved to the limit
+     * @param out The buffer to put the decoded bytes into, with at least as much space
+     * remaining as there are encoded bytes
+     * @throws IllegalArgumentException if a <code>%</code> is not followed by 2 hex digits
+     */
+    public static void percentDecode(ByteBuffer in, ByteBuffer out)
+    {
+        if (in.hasArray() && out.hasArray())
+        {
+            int from=in.arrayOffset()+in.position();
+            int to=in.arrayOffset()+in.limit();
+            int o=out.arrayOffset()+out.position();
+            o=percentDecode(in.array(),from,to,out.array(),o);
+            out.position(o-out.arrayOffset());
+            in.position(in.limit());
+            return;
+        }
+
+        int i=in.position();
+        int limit=in.limit();
+        int o=out.position();
+        while (i<limit)
+        {
+            byte b=in.get(i);
+            if (b=='%')
+            {
+                if (i+2>=limit)
+                    throw new IllegalArgumentException("Incomplete % escape");
+                int value=hex(in.get(i+1)&0xFF,in.get(i+2)&0xFF);
+                if (value<0)
+                    throw new IllegalArgumentException("Bad % escape");
+                out.put(o++,(byte)value);
+                i+=3;
+            }
+            else
+            {
+                out.put(o++,b);
+                i++;
+            }
+        }
+        out.position(o);
+        in.position(limit);
+    }
+
+    private static int percentDecode(byte[] in, int from, int to, byte[] out, int offset)
+    {
+        int o=offset;
+        int i=from;
+        while (i<to)
+        {
+            byte b=in[i];
+            if (b=='%')
+            {
+                if (i+2>=to)
+                    throw new IllegalArgumentException("Incomplete % escape");
+                int value=hex(in[i+1]&0xFF,in[i+2]&0xFF);
+                if (value<0)
+                    throw new IllegalArgumentException("Bad % escape");
+                out[o++]=(byte)value;
+                i+=3;
+            }
+            else
+            {
+                out[o++]=b;
+                i++;
+            }
+        }
+        return o;
+    }
+}
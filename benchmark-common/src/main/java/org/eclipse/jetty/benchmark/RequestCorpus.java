@@ -0,0 +1,161 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A corpus of pipelined HTTP/1.1 requests, as the parser sees them on a keep-alive connection.
+ * <p>
+ * The corpus cycles through a browser GET, a POST with a Content-Length body and
+ * a POST with a chunked body (only the GET if the body size is 0), concatenated into
+ * a single array. {@link #split(Split)} gives the lengths of the chunks the corpus
+ * is delivered in, to simulate TCP segmentation of the stream.
+ */
+public class RequestCorpus
+{
+    public enum Split
+    {
+        /** The whole corpus in one buffer */
+        NONE,
+        /** Random chunks of 1 to {@link RequestCorpus#MTU} bytes */
+        RANDOM,
+        /** One byte at a time */
+        BYTE,
+        /** Chunks of {@link RequestCorpus#MTU} bytes */
+        MTU
+    }
+
+    /** A typical TCP payload size on ethernet */
+    public static final int MTU = 1460;
+
+    private static final String GET =
+        "GET /context/hello/info HTTP/1.1\r\n"+
+        "Host: localhost:8080\r\n"+
+        "User-Agent: benchmark\r\n"+
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"+
+        "Accept-Language: en-US,en;q=0.5\r\n"+
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Referer: http://testhost/test\r\n"+
+        "\r\n";
+
+    private final byte[] _bytes;
+    private final int _requests;
+    private final long _seed;
+
+    /**
+     * @param requests The number of requests
+     * @param bodySize The size of the POST bodies, or 0 for only GETs
+     * @param seed The seed of the random splits
+     */
+    public RequestCorpus(int requests, int bodySize, long seed)
+    {
+        _requests=requests;
+        _seed=seed;
+
+        char[] chars = new char[bodySize];
+        Arrays.fill(chars,'x');
+        String body = new String(chars);
+        int half = bodySize/2;
+
+        StringBuilder post = new StringBuilder();
+        post.append("POST /context/hello/form HTTP/1.1\r\n");
+        post.append("Host: localhost:8080\r\n");
+        post.append("User-Agent: benchmark\r\n");
+        post.append("Content-Type: application/x-www-form-urlencoded\r\n");
+        post.append("Content-Length: ").append(bodySize).append("\r\n");
+        post.append("\r\n");
+        post.append(body);
+
+        StringBuilder chunked = new StringBuilder();
+        chunked.append("POST /context/hello/upload HTTP/1.1\r\n");
+        chunked.append("Host: localhost:8080\r\n");
+        chunked.append("User-Agent: benchmark\r\n");
+        chunked.append("Content-Type: application/octet-stream\r\n");
+        chunked.append("Transfer-Encoding: chunked\r\n");
+        chunked.append("\r\n");
+        // Empty chunks are skipped, as a chunk of size 0 is the last chunk
+        if (half>0)
+            chunked.append(Integer.toHexString(half)).append("\r\n").append(body,0,half).append("\r\n");
+        if (bodySize>half)
+            chunked.append(Integer.toHexString(bodySize-half)).append("\r\n").append(body,half,bodySize).append("\r\n");
+        chunked.append("0\r\n\r\n");
+
+        byte[][] kinds = bodySize==0
+            ?new byte[][]{GET.getBytes(StandardCharsets.ISO_8859_1)}
+            :new byte[][]{GET.getBytes(StandardCharsets.ISO_8859_1),
+                post.toString().getBytes(StandardCharsets.ISO_8859_1),
+                chunked.toString().getBytes(StandardCharsets.ISO_8859_1)};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i=0;i<requests;i++)
+        {
+            byte[] request=kinds[i%kinds.length];
+            out.write(request,0,request.length);
+        }
+        _bytes=out.toByteArray();
+    }
+
+    public byte[] getBytes()
+    {
+        return _bytes;
+    }
+
+    public int getRequests()
+    {
+        return _requests;
+    }
+
+    /**
+     * @param split How to split the corpus
+     * @return The lengths of the chunks, which sum to the corpus length.
+     */
+    public int[] split(Split split)
+    {
+        int length=_bytes.length;
+        switch(split)
+        {
+            case NONE:
+                return new int[]{length};
+
+            case BYTE:
+            {
+                int[] chunks = new int[length];
+                Arrays.fill(chunks,1);
+                return chunks;
+            }
+
+            case MTU:
+            {
+                int[] chunks = new int[(length+MTU-1)/MTU];
+                Arrays.fill(chunks,MTU);
+                chunks[chunks.length-1]=length-(chunks.length-1)*MTU;
+                return chunks;
+            }
+
+            case RANDOM:
+            {
+                Random random = new Random(_seed);
+                int[] chunks = new int[length];
+                int count=0;
+                for (int remaining=length;remaining>0;)
+                {
+                    int chunk=Math.min(remaining,1+random.nextInt(MTU));
+                    chunks[count++]=chunk;
+                    remaining-=chunk;
+                }
+                return Arrays.copyOf(chunks,count);
+            }
+
+            default:
+                throw new IllegalArgumentException(split.toString());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{requests=%d,bytes=%d}",getClass().getSimpleName(),_requests,_bytes.length);
+    }
+}
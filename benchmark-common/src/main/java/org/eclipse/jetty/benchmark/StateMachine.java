@@ -0,0 +1,313 @@
+package org.eclipse.jetty.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A lock free state machine, with the state and its flags packed in a single <code>int</code>
+ * that is updated by CAS, driven by a declarative {@link Table} of transitions. It is modelled
+ * on lifecycles such as those of <code>HttpChannelState</code> and of the fill interest of
+ * <code>AbstractConnection</code>.
+ * <p>
+ * Firing an event is a volatile read of the state, a load from the table and, only if
+ * the state changes, a CAS, which is retried from the new state if another thread changed
+ * it first. There are no state objects to allocate or dispatch on.
+ */
+public class StateMachine
+{
+    private static final AtomicIntegerFieldUpdater<StateMachine> __state =
+        AtomicIntegerFieldUpdater.newUpdater(StateMachine.class,"_state");
+
+    private final Table _table;
+    private volatile int _state;
+
+    public StateMachine(Table table)
+    {
+        _table=table;
+    }
+
+    public Table getTable()
+    {
+        return _table;
+    }
+
+    /**
+     * @param event The index of the event, from {@link Table#event(String)}
+     * @return The index of the action of the transition taken, from {@link Table#action(String)}
+     * @throws IllegalStateException if the event is not legal in the current state
+     */
+    public int fire(int event)
+    {
+        int[] transitions=_table._transitions;
+        int base=event<<_table._bits;
+        while (true)
+        {
+            int state=_state;
+            int transition=transitions[base+state];
+            if (transition==0)
+                throw new IllegalStateException(_table._events.get(event)+" in "+_table.toString(state));
+            int next=Table.next(transition);
+            if (next==state || __state.compareAndSet(this,state,next))
+                return Table.action(transition);
+            onCasFailure(state,event);
+        }
+    }
+
+    /**
+     * Called by a thread that lost the race to update the state, before it retries.
+     * @param state The packed state that was expected
+     * @param event The event being fired
+     */
+    protected void onCasFailure(int state, int event)
+    {
+    }
+
+    /**
+     * @return The packed state and flags
+     */
+    public int get()
+    {
+        return _state;
+    }
+
+    /**
+     * @return The index of the state, without its flags
+     */
+    public int getState()
+    {
+        return _state&_table._stateMask;
+    }
+
+    public boolean isSet(int flag)
+    {
+        return (_state&(1<<_table._stateBits+flag))!=0;
+    }
+
+    public void reset()
+    {
+        _state=0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _table.toString(_state);
+    }
+
+    /**
+     * The transitions of a state machine, built once and then shared by all its instances.
+     * <p>
+     * The table is built from rules such as
+     * <pre>
+     * on("unhandle","DISPATCHED+ASYNC","ASYNC_WAIT-ASYNC","WAIT")
+     * </pre>
+     * which reads: on the unhandle event, from the DISPATCHED state with the ASYNC flag
+     * set, go to the ASYNC_WAIT state, clear the ASYNC flag and return the WAIT action.
+     * A state of <code>*</code> matches any state (or keeps it), flags that are not named
+     * match either way (or are kept), and later rules override earlier ones, so defaults
+     * go first. An event with no rule for the current state is illegal. The events and
+     * actions are numbered in their order of first appearance; action 0 is NONE.
+     * <p>
+     * The initial state is the first state, with no flags set.
+     */
+    public static class Table
+    {
+        private static final int DEFINED = 1<<31;
+        private static final int NEXT = 0xFFFF;
+        private static final int ACTION_SHIFT = 16;
+        private static final Pattern SPEC = Pattern.compile("([+-]?)([\\w*]+)");
+
+        private final String _name;
+        private final List<String> _states;
+        private final List<String> _flags;
+        private final List<String> _events = new ArrayList<>();
+        private final List<String> _actions = new ArrayList<>();
+        private final int _stateBits;
+        private final int _stateMask;
+        private final int _bits;
+        private int[] _transitions = new int[0];
+
+        /**
+         * @param name The name of the machine
+         * @param states The states, the first of which is the initial state
+         * @param flags The flags that may be combined with any state
+         */
+        public Table(String name, String[] states, String... flags)
+        {
+            _name=name;
+            _states=Arrays.asList(states);
+            _flags=Arrays.asList(flags);
+            _stateBits=32-Integer.numberOfLeadingZeros(Math.max(1,states.length-1));
+            _stateMask=(1<<_stateBits)-1;
+            _bits=_stateBits+flags.length;
+            if (_bits>16)
+                throw new IllegalArgumentException("Too many states and flags for "+name);
+            _actions.add("NONE");
+        }
+
+        public Table on(String event, String from, String to)
+        {
+            return on(event,from,to,"NONE");
+        }
+
+        /**
+         * @param event The event
+         * @param from The state and flags to match, eg <code>DISPATCHED+ASYNC</code>
+         * @param to The state to go to and the flags to set or clear, eg <code>ASYNC_WAIT-ASYNC</code>
+         * @param action The action to return
+         * @return This table
+         */
+        public Table on(String event, String from, String to, String action)
+        {
+            int e=index(_events,event);
+            if (e==_events.size())
+            {
+                _events.add(event);
+                _transitions=Arrays.copyOf(_transitions,_events.size()<<_bits);
+            }
+            int a=index(_actions,action);
+            if (a==_actions.size())
+            {
+                if (a>0xFF)
+                    throw new IllegalArgumentException("Too many actions for "+_name);
+                _actions.add(action);
+            }
+
+            int[] f=parse(from);
+            int[] t=parse(to);
+            for (int state=0;state<_states.size();state++)
+            {
+                if (f[0]>=0 && f[0]!=state)
+                    continue;
+                for (int flags=0;flags<1<<_flags.size();flags++)
+                {
+                    if ((flags&f[1])!=f[1] || (flags&f[2])!=0)
+                        continue;
+                    int next=(t[0]>=0?t[0]:state)|((flags|t[1])&~t[2])<<_stateBits;
+                    _transitions[(e<<_bits)+(state|flags<<_stateBits)]=DEFINED|a<<ACTION_SHIFT|next;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return The state, or -1 for any, the flags that are set and the flags that are cleared
+         */
+        private int[] parse(String spec)
+        {
+            int[] parsed = new int[3];
+            Matcher matcher=SPEC.matcher(spec);
+            int end=0;
+            while (matcher.find())
+            {
+                if (matcher.start()!=end)
+                    throw new IllegalArgumentException("Bad state "+spec);
+                end=matcher.end();
+                String sign=matcher.group(1);
+                String name=matcher.group(2);
+                if (sign.isEmpty())
+                {
+                    if (matcher.start()!=0)
+                        throw new IllegalArgumentException("Bad state "+spec);
+                    parsed[0]="*".equals(name)?-1:indexOf(_states,name,spec);
+                }
+                else
+                {
+                    parsed["+".equals(sign)?1:2]|=1<<indexOf(_flags,name,spec);
+                }
+            }
+            if (end!=spec.length() || end==0)
+                throw new IllegalArgumentException("Bad state "+spec);
+            return parsed;
+        }
+
+        private static int indexOf(List<String> names, String name, String spec)
+        {
+            int i=names.indexOf(name);
+            if (i<0)
+                throw new IllegalArgumentException("Unknown "+name+" in "+spec);
+            return i;
+        }
+
+        private static int index(List<String> names, String name)
+        {
+            int i=names.indexOf(name);
+            return i<0?names.size():i;
+        }
+
+        /**
+         * For machines that keep the state elsewhere than in a {@link StateMachine}.
+         * @return The transition of the event from the packed state, or 0 if it is illegal
+         * @see #next(int)
+         * @see #action(int)
+         */
+        public int transition(int event, int state)
+        {
+            return _transitions[(event<<_bits)+state];
+        }
+
+        /**
+         * @return The packed state to go to
+         */
+        public static int next(int transition)
+        {
+            return transition&NEXT;
+        }
+
+        /**
+         * @return The index of the action to return
+         */
+        public static int action(int transition)
+        {
+            return transition>>>ACTION_SHIFT&0xFF;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * @return The index of the event
+         * @throws IllegalArgumentException if there is no rule for the event
+         */
+        public int event(String name)
+        {
+            return indexOf(_events,name,_name);
+        }
+
+        public List<String> getEvents()
+        {
+            return _events;
+        }
+
+        public int action(String name)
+        {
+            return indexOf(_actions,name,_name);
+        }
+
+        public String getAction(int action)
+        {
+            return _actions.get(action);
+        }
+
+        public String toString(int state)
+        {
+            StringBuilder builder = new StringBuilder(_states.get(state&_stateMask));
+            for (int f=0;f<_flags.size();f++)
+                if ((state&(1<<_stateBits+f))!=0)
+                    builder.append('+').append(_flags.get(f));
+            return builder.toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s{%s,flags=%s,events=%s}",_name,_states,_flags,_events);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Unmasks WebSocket payloads in place, of heap or direct buffers, from any phase of the mask.
+ * <p>
+ * The phase is the index in the mask of the first byte, ie the number of payload bytes of
+ * the frame already unmasked modulo 4, so a frame that spans several reads is unmasked by
+ * passing the phase returned for the previous read.
+ * <p>
+ * The bytes are unmasked a <code>long</code> at a time with {@link ByteBuffer#getLong(int)} and
+ * {@link ByteBuffer#putLong(int,long)}: a prologue of single bytes up to an 8 byte boundary
+ * (assuming that the memory of a direct buffer or the first element of an array is aligned),
+ * the longs with the mask repeated twice in the byte order of the buffer, then an epilogue of
+ * single bytes. Before Java 9, <code>getLong</code> of a heap buffer assembles the bytes one
+ * at a time, so there heap buffers are unmasked in their array 4 bytes at a time instead.
+ */
+public class Unmasker
+{
+    private static final boolean HEAP_LONGS = !System.getProperty("java.specification.version","1.").startsWith("1.");
+
+    /**
+     * @param buffer The buffer to unmask between its position and limit, which are unchanged
+     * @param mask The 4 bytes of the mask
+     * @param phase The index in the mask of the byte at the position
+     * @return The index in the mask of the byte after the limit
+     */
+    public static int unmask(ByteBuffer buffer, byte[] mask, int phase)
+    {
+        return unmask(buffer,(mask[0]&0xFF)<<24|(mask[1]&0xFF)<<16|(mask[2]&0xFF)<<8|(mask[3]&0xFF),phase);
+    }
+
+    /**
+     * @param buffer The buffer to unmask between its position and limit, which are unchanged
+     * @param mask The mask, as the big endian int of its 4 bytes
+     * @param phase The index in the mask of the byte at the position
+     * @return The index in the mask of the byte after the limit
+     */
+    public static int unmask(ByteBuffer buffer, int mask, int phase)
+    {
+        int from=buffer.position();
+        int to=buffer.limit();
+        // The mask rotated so that its first byte is the one for the position
+        int rotated=Integer.rotateLeft(mask,(phase&3)<<3);
+        if (!buffer.hasArray())
+            unmaskLongs(buffer,from,to,rotated,0);
+        else if (HEAP_LONGS)
+            unmaskLongs(buffer,from,to,rotated,buffer.arrayOffset());
+        else
+            unmask(buffer.array(),buffer.arrayOffset()+from,buffer.arrayOffset()+to,rotated);
+        return (phase+to-from)&3;
+    }
+
+    private static void unmask(byte[] array, int from, int to, int mask)
+    {
+        byte m0=(byte)(mask>>>24);
+        byte m1=(byte)(mask>>>16);
+        byte m2=(byte)(mask>>>8);
+        byte m3=(byte)mask;
+        int i=from;
+        for (;i+4<=to;i+=4)
+        {
+            array[i]^=m0;
+            array[i+1]^=m1;
+            array[i+2]^=m2;
+            array[i+3]^=m3;
+        }
+        if (i<to)
+            array[i++]^=m0;
+        if (i<to)
+            array[i++]^=m1;
+        if (i<to)
+            array[i]^=m2;
+    }
+
+    private static void unmaskLongs(ByteBuffer buffer, int from, int to, int mask, int offset)
+    {
+        int i=from;
+        int m=mask;
+        for (;i<to && (offset+i&7)!=0;i++)
+        {
+            buffer.put(i,(byte)(buffer.get(i)^(m>>>24)));
+            m=Integer.rotateLeft(m,8);
+        }
+
+        if (i+8<=to)
+        {
+            long word=(m&0xFFFFFFFFL)<<32|(m&0xFFFFFFFFL);
+            if (buffer.order()==ByteOrder.LITTLE_ENDIAN)
+                word=Long.reverseBytes(word);
+            for (;i+16<=to;i+=16)
+            {
+                buffer.putLong(i,buffer.getLong(i)^word);
+                buffer.putLong(i+8,buffer.getLong(i+8)^word);
+            }
+            if (i+8<=to)
+            {
+                buffer.putLong(i,buffer.getLong(i)^word);
+                i+=8;
+            }
+        }
+
+        // Whole longs are whole cycles of the mask, so the epilogue continues from the same phase
+        for (;i<to;i++)
+        {
+            buffer.put(i,(byte)(buffer.get(i)^(m>>>24)));
+            m=Integer.rotateLeft(m,8);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A validating UTF-8 decoder for text that arrives in pieces, such as the frames and reads
+ * of a WebSocket text message, that appends the chars to a reusable StringBuilder or char
+ * array without copying the bytes.
+ * <p>
+ * Each call consumes all the bytes given: a sequence split between two calls is kept as the
+ * code point decoded so far and the number of bytes still expected. Runs of ASCII bytes are
+ * decoded with a tight loop, and the whole 2 and 3 byte sequences of heap buffers at once.
+ * Overlong encodings, surrogates, code points above U+10FFFF and misplaced continuation
+ * bytes are rejected as they are seen, as the WebSocket protocol requires, and
+ * {@link #complete()} rejects a message that ends inside a sequence.
+ * <p>
+ * A decoder is not thread safe; it is reused by calling {@link #reset()}, or after
+ * {@link #complete()}.
+ */
+public class Utf8Decoder
+{
+    private final char[] _chars = new char[1024];
+    private int _codePoint;
+    private int _remaining;
+    private int _lower;
+    private int _upper;
+
+    /**
+     * Decode the bytes from the position to the limit of the buffer, whose position is
+     * moved to the limit.
+     * @param buffer The bytes
+     * @param builder The builder to append the chars to
+     * @throws IllegalArgumentException if the bytes are not valid UTF-8
+     */
+    public void decode(ByteBuffer buffer, StringBuilder builder)
+    {
+        int from=buffer.position();
+        int limit=buffer.limit();
+        while (from<limit)
+        {
+            // A byte gives at most 2 chars, and only when it ends a 4 byte sequence
+            int to=Math.min(limit,from+_chars.length-1);
+            int length=decode(buffer,from,to,_chars,0);
+            builder.append(_chars,0,length);
+            from=to;
+        }
+        buffer.position(limit);
+    }
+
+    /**
+     * Decode the bytes from the position to the limit of the buffer, whose position is
+     * moved to the limit.
+     * @param buffer The bytes
+     * @param chars The array to decode into, with room for at least one more char than there are bytes
+     * @param offset The index in the array of the first char
+     * @return The index in the array after the last char
+     * @throws IllegalArgumentException if the bytes are not valid UTF-8
+     */
+    public int decode(ByteBuffer buffer, char[] chars, int offset)
+    {
+        int o=decode(buffer,buffer.position(),buffer.limit(),chars,offset);
+        buffer.position(buffer.limit());
+        return o;
+    }
+
+    private int decode(ByteBuffer buffer, int from, int to, char[] chars, int offset)
+    {
+        if (buffer.hasArray())
+        {
+            int base=buffer.arrayOffset();
+            return decode(buffer.array(),base+from,base+to,chars,offset);
+        }
+
+        int o=offset;
+        int i=from;
+        while (i<to)
+        {
+            byte b=buffer.get(i);
+            if (b>=0 && _remaining==0)
+            {
+                chars[o++]=(char)b;
+                for (i++;i<to && (b=buffer.get(i))>=0;i++)
+                    chars[o++]=(char)b;
+            }
+            else
+            {
+                o=next(b&0xFF,chars,o);
+                i++;
+            }
+        }
+        return o;
+    }
+
+    private int decode(byte[] array, int from, int to, char[] chars, int offset)
+    {
+        int o=offset;
+        int i=from;
+        while (i<to)
+        {
+            byte b=array[i];
+            if (_remaining==0)
+            {
+                if (b>=0)
+                {
+                    chars[o++]=(char)b;
+                    for (i++;i<to && (b=array[i])>=0;i++)
+                        chars[o++]=(char)b;
+                    continue;
+                }
+
+                // Whole 2 and 3 byte sequences are decoded at once
+                int u=b&0xFF;
+                if (u>=0xC2 && u<0xE0 && i+1<to)
+                {
+                    int u1=array[i+1]&0xFF;
+                    if ((u1&0xC0)==0x80)
+                    {
+                        chars[o++]=(char)((u&0x1F)<<6|u1&0x3F);
+                        i+=2;
+                        continue;
+                    }
+                }
+                else if (u>=0xE0 && u<0xF0 && i+2<to)
+                {
+                    int u1=array[i+1]&0xFF;
+                    int u2=array[i+2]&0xFF;
+                    if (u1>=(u==0xE0?0xA0:0x80) && u1<=(u==0xED?0x9F:0xBF) && (u2&0xC0)==0x80)
+                    {
+                        chars[o++]=(char)((u&0x0F)<<12|(u1&0x3F)<<6|u2&0x3F);
+                        i+=3;
+                        continue;
+                    }
+                }
+            }
+            o=next(b&0xFF,chars,o);
+            i++;
+        }
+        return o;
+    }
+
+    /**
+     * Decode the next byte of a sequence that is split, invalid or of 4 bytes.
+     */
+    private int next(int u, char[] chars, int o)
+    {
+        if (_remaining==0)
+        {
+            _lower=0x80;
+            _upper=0xBF;
+            if (u<0x80)
+            {
+                chars[o++]=(char)u;
+            }
+            else if (u<0xC2)
+            {
+                // A continuation byte, or an overlong 2 byte sequence
+                throw notUtf8(u);
+            }
+            else if (u<0xE0)
+            {
+                _codePoint=u&0x1F;
+                _remaining=1;
+            }
+            else if (u<0xF0)
+            {
+                // Not overlong, and not a surrogate
+                if (u==0xE0)
+                    _lower=0xA0;
+                else if (u==0xED)
+                    _upper=0x9F;
+                _codePoint=u&0x0F;
+                _remaining=2;
+            }
+            else if (u<0xF5)
+            {
+                // Not overlong, and not above U+10FFFF
+                if (u==0xF0)
+                    _lower=0x90;
+                else if (u==0xF4)
+                    _upper=0x8F;
+                _codePoint=u&0x07;
+                _remaining=3;
+            }
+            else
+            {
+                throw notUtf8(u);
+            }
+            return o;
+        }
+
+        if (u<_lower || u>_upper)
+            throw notUtf8(u);
+        _lower=0x80;
+        _upper=0xBF;
+        _codePoint=_codePoint<<6|u&0x3F;
+        if (--_remaining==0)
+        {
+            if (_codePoint<0x10000)
+            {
+                chars[o++]=(char)_codePoint;
+            }
+            else
+            {
+                chars[o++]=Character.highSurrogate(_codePoint);
+                chars[o++]=Character.lowSurrogate(_codePoint);
+            }
+        }
+        return o;
+    }
+
+    private IllegalArgumentException notUtf8(int b)
+    {
+        reset();
+        return new IllegalArgumentException(String.format("Not valid UTF8! byte 0x%02x",b));
+    }
+
+    /**
+     * @return True if the bytes decoded so far do not end inside a sequence
+     */
+    public boolean isComplete()
+    {
+        return _remaining==0;
+    }
+
+    /**
+     * End the text, eg at the last frame of a message, so that the decoder can be reused.
+     * @throws IllegalArgumentException if the text ends inside a sequence
+     */
+    public void complete()
+    {
+        if (_remaining!=0)
+        {
+            reset();
+            throw new IllegalArgumentException("Not valid UTF8! incomplete sequence");
+        }
+    }
+
+    public void reset()
+    {
+        _codePoint=0;
+        _remaining=0;
+    }
+}
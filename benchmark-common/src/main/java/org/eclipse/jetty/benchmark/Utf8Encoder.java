@@ -0,0 +1,164 @@
+package org.eclipse.jetty.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes a String as UTF-8 straight into a heap or direct {@link ByteBuffer}, without the
+ * byte[] of <code>String.getBytes()</code> or the CharBuffer and per char <code>put</code> of
+ * a <code>CharsetEncoder</code>.
+ * <p>
+ * Runs of ASCII chars are copied with a tight loop that only checks the space left once per run.
+ * Other chars are encoded as 2 or 3 bytes, surrogate pairs as the 4 bytes of their code point
+ * and unpaired surrogates as <code>'?'</code>, as <code>String.getBytes()</code> does.
+ * <p>
+ * The encoding stops when the buffer is full, without splitting the bytes of a char, and
+ * returns the index of the next char to encode, so that it can resume from there once the
+ * buffer has been flushed (which must leave room for at least the 4 bytes of a code point):
+ * <pre>
+ * int index=0;
+ * while ((index=Utf8Encoder.encode(string,index,buffer))&lt;string.length())
+ *     flush(buffer);
+ * </pre>
+ */
+public class Utf8Encoder
+{
+    /**
+     * @param string The string to encode
+     * @param index The index of the first char to encode
+     * @param buffer The buffer to encode into, from its position, which is advanced
+     * @return The index of the next char to encode, which is the length of the string if
+     * all the chars have been encoded
+     */
+    public static int encode(String string, int index, ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+            return encode(string,index,buffer,buffer.array(),buffer.arrayOffset());
+        return encodeDirect(string,index,buffer);
+    }
+
+    private static int encode(String string, int index, ByteBuffer buffer, byte[] array, int offset)
+    {
+        int length=string.length();
+        int p=offset+buffer.position();
+        int limit=offset+buffer.limit();
+        int i=index;
+        while (i<length)
+        {
+            char c=string.charAt(i);
+            if (c<0x80)
+            {
+                if (p==limit)
+                    break;
+                int end=i+Math.min(length-i,limit-p);
+                array[p++]=(byte)c;
+                for (i++;i<end;i++)
+                {
+                    c=string.charAt(i);
+                    if (c>=0x80)
+                        break;
+                    array[p++]=(byte)c;
+                }
+            }
+            else if (c<0x800)
+            {
+                if (limit-p<2)
+                    break;
+                array[p++]=(byte)(0xC0|c>>6);
+                array[p++]=(byte)(0x80|c&0x3F);
+                i++;
+            }
+            else if (!Character.isSurrogate(c))
+            {
+                if (limit-p<3)
+                    break;
+                array[p++]=(byte)(0xE0|c>>12);
+                array[p++]=(byte)(0x80|c>>6&0x3F);
+                array[p++]=(byte)(0x80|c&0x3F);
+                i++;
+            }
+            else if (Character.isHighSurrogate(c) && i+1<length && Character.isLowSurrogate(string.charAt(i+1)))
+            {
+                if (limit-p<4)
+                    break;
+                int code=Character.toCodePoint(c,string.charAt(i+1));
+                array[p++]=(byte)(0xF0|code>>18);
+                array[p++]=(byte)(0x80|code>>12&0x3F);
+                array[p++]=(byte)(0x80|code>>6&0x3F);
+                array[p++]=(byte)(0x80|code&0x3F);
+                i+=2;
+            }
+            else
+            {
+                if (p==limit)
+                    break;
+                array[p++]='?';
+                i++;
+            }
+        }
+        buffer.position(p-offset);
+        return i;
+    }
+
+    private static int encodeDirect(String string, int index, ByteBuffer buffer)
+    {
+        int length=string.length();
+        int p=buffer.position();
+        int limit=buffer.limit();
+        int i=index;
+        while (i<length)
+        {
+            char c=string.charAt(i);
+            if (c<0x80)
+            {
+                if (p==limit)
+                    break;
+                int end=i+Math.min(length-i,limit-p);
+                buffer.put(p++,(byte)c);
+                for (i++;i<end;i++)
+                {
+                    c=string.charAt(i);
+                    if (c>=0x80)
+                        break;
+                    buffer.put(p++,(byte)c);
+                }
+            }
+            else if (c<0x800)
+            {
+                if (limit-p<2)
+                    break;
+                buffer.put(p++,(byte)(0xC0|c>>6));
+                buffer.put(p++,(byte)(0x80|c&0x3F));
+                i++;
+            }
+            else if (!Character.isSurrogate(c))
+            {
+                if (limit-p<3)
+                    break;
+                buffer.put(p++,(byte)(0xE0|c>>12));
+                buffer.put(p++,(byte)(0x80|c>>6&0x3F));
+                buffer.put(p++,(byte)(0x80|c&0x3F));
+                i++;
+            }
+            else if (Character.isHighSurrogate(c) && i+1<length && Character.isLowSurrogate(string.charAt(i+1)))
+            {
+                if (limit-p<4)
+                    break;
+                int code=Character.toCodePoint(c,string.charAt(i+1));
+                buffer.put(p++,(byte)(0xF0|code>>18));
+                buffer.put(p++,(byte)(0x80|code>>12&0x3F));
+                buffer.put(p++,(byte)(0x80|code>>6&0x3F));
+                buffer.put(p++,(byte)(0x80|code&0x3F));
+                i+=2;
+            }
+            else
+            {
+                if (p==limit)
+                    break;
+                buffer.put(p++,(byte)'?');
+                i++;
+            }
+        }
+        buffer.position(p);
+        return i;
+    }
+}
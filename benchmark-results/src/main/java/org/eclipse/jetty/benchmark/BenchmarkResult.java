@@ -0,0 +1,298 @@
+package org.eclipse.jetty.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single measured value, in the result schema shared by all the benchmarks.
+ * <p>
+ * A result identifies the benchmark, its parameters and the metric measured, the
+ * Jetty version it was measured against and a free label for the run (eg a commit
+ * id). Results are written one per line either as JSON:
+ * <pre>
+ * {"timestamp":1431330000000,"label":"9.3","version":"9.3.0.v20150612","benchmark":"Servlet31AsyncIOEcho",
+ *  "params":{"path":"/async","length":"1024"},"metric":"throughput","unit":"req/s","better":"higher","value":10234.5}
+ * </pre>
+ * or as CSV with the columns of {@link #CSV_HEADER}, where the parameters are
+ * joined as <code>name=value;name=value</code>.
+ * <p>
+ * Repeated runs of a benchmark produce repeated results with the same
+ * {@link #getKey() key}, which are the samples compared by {@link ResultComparator}.
+ *
+ * @see Measurement
+ * @see ResultWriter
+ */
+public class BenchmarkResult
+{
+    public static final String CSV_HEADER = "timestamp,label,version,benchmark,params,metric,unit,better,value";
+
+    private final long _timestamp;
+    private final String _label;
+    private final String _version;
+    private final String _benchmark;
+    private final Map<String,String> _params;
+    private final String _metric;
+    private final String _unit;
+    private final boolean _higherIsBetter;
+    private final double _value;
+
+    public BenchmarkResult(long timestamp, String label, String version, String benchmark, Map<String,String> params,
+        String metric, String unit, boolean higherIsBetter, double value)
+    {
+        _timestamp=timestamp;
+        _label=label;
+        _version=version;
+        _benchmark=benchmark;
+        _params=Collections.unmodifiableMap(new LinkedHashMap<>(params));
+        _metric=metric;
+        _unit=unit;
+        _higherIsBetter=higherIsBetter;
+        _value=value;
+    }
+
+    public long getTimestamp()
+    {
+        return _timestamp;
+    }
+
+    public String getLabel()
+    {
+        return _label;
+    }
+
+    public String getVersion()
+    {
+        return _version;
+    }
+
+    public String getBenchmark()
+    {
+        return _benchmark;
+    }
+
+    public Map<String,String> getParams()
+    {
+        return _params;
+    }
+
+    public String getMetric()
+    {
+        return _metric;
+    }
+
+    public String getUnit()
+    {
+        return _unit;
+    }
+
+    public boolean isHigherBetter()
+    {
+        return _higherIsBetter;
+    }
+
+    public double getValue()
+    {
+        return _value;
+    }
+
+    /**
+     * @return The benchmark, parameters and metric, which identify comparable results.
+     */
+    public String getKey()
+    {
+        StringBuilder key = new StringBuilder(_benchmark);
+        if (!_params.isEmpty())
+            key.append('[').append(joinParams()).append(']');
+        return key.append(' ').append(_metric).toString();
+    }
+
+    private String joinParams()
+    {
+        StringBuilder joined = new StringBuilder();
+        for (Map.Entry<String,String> param : _params.entrySet())
+        {
+            if (joined.length()>0)
+                joined.append(';');
+            joined.append(param.getKey()).append('=').append(param.getValue());
+        }
+        return joined.toString();
+    }
+
+    public String toJson()
+    {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(_timestamp);
+        json.append(",\"label\":"); quote(json,_label);
+        json.append(",\"version\":"); quote(json,_version);
+        json.append(",\"benchmark\":"); quote(json,_benchmark);
+        json.append(",\"params\":{");
+        boolean first=true;
+        for (Map.Entry<String,String> param : _params.entrySet())
+        {
+            if (!first)
+                json.append(',');
+            first=false;
+            quote(json,param.getKey());
+            json.append(':');
+            quote(json,param.getValue());
+        }
+        json.append("},\"metric\":"); quote(json,_metric);
+        json.append(",\"unit\":"); quote(json,_unit);
+        json.append(",\"better\":").append(_higherIsBetter?"\"higher\"":"\"lower\"");
+        json.append(",\"value\":").append(Double.isNaN(_value)||Double.isInfinite(_value)?"null":Double.toString(_value));
+        return json.append('}').toString();
+    }
+
+    public String toCsv()
+    {
+        StringBuilder csv = new StringBuilder();
+        csv.append(_timestamp).append(',');
+        csv.append(csv(_label)).append(',');
+        csv.append(csv(_version)).append(',');
+        csv.append(csv(_benchmark)).append(',');
+        csv.append(csv(joinParams())).append(',');
+        csv.append(csv(_metric)).append(',');
+        csv.append(csv(_unit)).append(',');
+        csv.append(_higherIsBetter?"higher":"lower").append(',');
+        csv.append(_value);
+        return csv.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s %s=%.3f%s",_label,getKey(),_value,_unit);
+    }
+
+    /**
+     * Parse a line written by {@link #toJson()} or {@link #toCsv()}.
+     * @param line The line
+     * @return The result, or null for a blank line or the CSV header.
+     * @throws IllegalArgumentException if the line cannot be parsed
+     */
+    public static BenchmarkResult parse(String line)
+    {
+        line=line.trim();
+        if (line.isEmpty() || line.equals(CSV_HEADER))
+            return null;
+        if (line.charAt(0)=='{')
+            return parseJson(line);
+        return parseCsv(line);
+    }
+
+    private static BenchmarkResult parseJson(String line)
+    {
+        Map<String,Object> fields = new JsonParser(line).parseObject();
+        @SuppressWarnings("unchecked")
+        Map<String,String> params = (Map<String,String>)fields.get("params");
+        Object value=fields.get("value");
+        return new BenchmarkResult(
+            ((Number)fields.get("timestamp")).longValue(),
+            (String)fields.get("label"),
+            (String)fields.get("version"),
+            (String)fields.get("benchmark"),
+            params==null?Collections.<String,String>emptyMap():params,
+            (String)fields.get("metric"),
+            (String)fields.get("unit"),
+            "higher".equals(fields.get("better")),
+            value==null?Double.NaN:((Number)value).doubleValue());
+    }
+
+    private static BenchmarkResult parseCsv(String line)
+    {
+        List<String> columns = new ArrayList<>();
+        StringBuilder column = new StringBuilder();
+        boolean quoted=false;
+        for (int i=0;i<line.length();i++)
+        {
+            char c=line.charAt(i);
+            if (quoted)
+            {
+                if (c=='"' && i+1<line.length() && line.charAt(i+1)=='"')
+                    column.append(line.charAt(++i));
+                else if (c=='"')
+                    quoted=false;
+                else
+                    column.append(c);
+            }
+            else if (c=='"')
+                quoted=true;
+            else if (c==',')
+            {
+                columns.add(column.toString());
+                column.setLength(0);
+            }
+            else
+                column.append(c);
+        }
+        columns.add(column.toString());
+        if (columns.size()!=9)
+            throw new IllegalArgumentException("Expected 9 columns: "+line);
+
+        Map<String,String> params = new LinkedHashMap<>();
+        for (String param : columns.get(4).split(";"))
+        {
+            int eq=param.indexOf('=');
+            if (eq>0)
+                params.put(param.substring(0,eq),param.substring(eq+1));
+        }
+        return new BenchmarkResult(
+            Long.parseLong(columns.get(0)),
+            columns.get(1),
+            columns.get(2),
+            columns.get(3),
+            params,
+            columns.get(5),
+            columns.get(6),
+            "higher".equals(columns.get(7)),
+            Double.parseDouble(columns.get(8)));
+    }
+
+    private static void quote(StringBuilder json, String value)
+    {
+        if (value==null)
+        {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i=0;i<value.length();i++)
+        {
+            char c=value.charAt(i);
+            switch(c)
+            {
+                case '"':
+                case '\\':
+                    json.append('\\').append(c);
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c<0x20)
+                        json.append(String.format("\\u%04x",(int)c));
+                    else
+                        json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String csv(String value)
+    {
+        if (value==null)
+            return "";
+        if (value.indexOf(',')<0 && value.indexOf('"')<0 && value.indexOf('\n')<0)
+            return value;
+        return '"'+value.replace("\"","\"\"")+'"';
+    }
+}
@@ -0,0 +1,178 @@
+package org.eclipse.jetty.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON to read back the results written by {@link BenchmarkResult#toJson()}
+ * and to import HAR files.
+ * <p>
+ * Objects are parsed as {@link LinkedHashMap}s, arrays as {@link List}s and numbers
+ * as {@link Double}s.
+ */
+public class JsonParser
+{
+    private final String _json;
+    private int _i;
+
+    public JsonParser(String json)
+    {
+        _json=json;
+    }
+
+    /**
+     * @return The value of the whole document
+     * @throws IllegalArgumentException if the document is not valid JSON
+     */
+    public Object parse()
+    {
+        Object value=parseValue();
+        while (_i<_json.length() && Character.isWhitespace(_json.charAt(_i)))
+            _i++;
+        if (_i<_json.length())
+            throw new IllegalArgumentException("Unexpected '"+_json.charAt(_i)+"' at "+_i);
+        return value;
+    }
+
+    public Map<String,Object> parseObject()
+    {
+        Map<String,Object> object = new LinkedHashMap<>();
+        expect('{');
+        if (peek()=='}')
+        {
+            _i++;
+            return object;
+        }
+        while (true)
+        {
+            String name=parseString();
+            expect(':');
+            object.put(name,parseValue());
+            char c=next();
+            if (c=='}')
+                return object;
+            if (c!=',')
+                throw new IllegalArgumentException("Expected , or } at "+_i+": "+_json);
+        }
+    }
+
+    List<Object> parseArray()
+    {
+        List<Object> array = new ArrayList<>();
+        expect('[');
+        if (peek()==']')
+        {
+            _i++;
+            return array;
+        }
+        while (true)
+        {
+            array.add(parseValue());
+            char c=next();
+            if (c==']')
+                return array;
+            if (c!=',')
+                throw new IllegalArgumentException("Expected , or ] at "+_i+": "+_json);
+        }
+    }
+
+    Object parseValue()
+    {
+        char c=peek();
+        if (c=='"')
+            return parseString();
+        if (c=='{')
+            return parseObject();
+        if (c=='[')
+            return parseArray();
+        if (_json.startsWith("null",_i))
+        {
+            _i+=4;
+            return null;
+        }
+        if (_json.startsWith("true",_i))
+        {
+            _i+=4;
+            return Boolean.TRUE;
+        }
+        if (_json.startsWith("false",_i))
+        {
+            _i+=5;
+            return Boolean.FALSE;
+        }
+        int start=_i;
+        while (_i<_json.length() && "+-0123456789.eE".indexOf(_json.charAt(_i))>=0)
+            _i++;
+        if (start==_i)
+            throw new IllegalArgumentException("Unexpected '"+c+"' at "+_i+": "+_json);
+        return Double.valueOf(_json.substring(start,_i));
+    }
+
+    String parseString()
+    {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+        while (true)
+        {
+            if (_i>=_json.length())
+                throw new IllegalArgumentException("Unterminated string: "+_json);
+            char c=_json.charAt(_i++);
+            if (c=='"')
+                return value.toString();
+            if (c!='\\')
+            {
+                value.append(c);
+                continue;
+            }
+            c=_json.charAt(_i++);
+            switch(c)
+            {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    value.append((char)Integer.parseInt(_json.substring(_i,_i+4),16));
+                    _i+=4;
+                    break;
+                default:
+                    value.append(c);
+            }
+        }
+    }
+
+    char peek()
+    {
+        while (_i<_json.length() && Character.isWhitespace(_json.charAt(_i)))
+            _i++;
+        if (_i>=_json.length())
+            throw new IllegalArgumentException("Unexpected end: "+_json);
+        return _json.charAt(_i);
+    }
+
+    char next()
+    {
+        char c=peek();
+        _i++;
+        return c;
+    }
+
+    void expect(char c)
+    {
+        if (next()!=c)
+            throw new IllegalArgumentException("Expected '"+c+"' at "+(_i-1)+": "+_json);
+    }
+}
@@ -0,0 +1,111 @@
+package org.eclipse.jetty.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the metrics of one run of a benchmark and emits them as {@link BenchmarkResult}s.
+ * <pre>
+ * new Measurement("Servlet31AsyncIOEcho")
+ *     .param("path",path)
+ *     .param("length",length)
+ *     .elapsed(elapsed)
+ *     .throughput(iterations,elapsed,"req/s")
+ *     .emit();
+ * </pre>
+ */
+public class Measurement
+{
+    private final String _benchmark;
+    private final Map<String,String> _params = new LinkedHashMap<>();
+    private final List<Metric> _metrics = new ArrayList<>();
+
+    public Measurement(String benchmark)
+    {
+        _benchmark=benchmark;
+    }
+
+    public Measurement param(String name, Object value)
+    {
+        _params.put(name,String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * @param name The metric name
+     * @param value The value
+     * @param unit The unit of the value
+     * @param higherIsBetter True if a higher value is an improvement (eg throughput), false if it is a regression (eg latency)
+     * @return this measurement
+     */
+    public Measurement metric(String name, double value, String unit, boolean higherIsBetter)
+    {
+        _metrics.add(new Metric(name,value,unit,higherIsBetter));
+        return this;
+    }
+
+    /**
+     * @param nanos The elapsed time in ns, recorded as the <code>elapsed</code> metric in ms.
+     * @return this measurement
+     */
+    public Measurement elapsed(long nanos)
+    {
+        return metric("elapsed",nanos/1_000_000.0,"ms",false);
+    }
+
+    /**
+     * @param operations The number of operations completed
+     * @param nanos The time taken in ns
+     * @param unit The unit of the rate, eg <code>req/s</code>
+     * @return this measurement
+     */
+    public Measurement throughput(long operations, long nanos, String unit)
+    {
+        return metric("throughput",nanos>0?operations*(double)TimeUnit.SECONDS.toNanos(1)/nanos:Double.NaN,unit,true);
+    }
+
+    /**
+     * @param name The metric name, eg <code>p99</code>
+     * @param nanos The latency in ns, recorded in us.
+     * @return this measurement
+     */
+    public Measurement latency(String name, double nanos)
+    {
+        return metric(name,nanos/1000.0,"us",false);
+    }
+
+    /**
+     * Emit the metrics to the {@link ResultWriter#getDefault() default writer}.
+     */
+    public void emit()
+    {
+        emit(ResultWriter.getDefault());
+    }
+
+    public void emit(ResultWriter writer)
+    {
+        long now=System.currentTimeMillis();
+        for (Metric metric : _metrics)
+            writer.write(new BenchmarkResult(now,writer.getLabel(),writer.getVersion(),_benchmark,_params,
+                metric._name,metric._unit,metric._higherIsBetter,metric._value));
+    }
+
+    private static class Metric
+    {
+        final String _name;
+        final double _value;
+        final String _unit;
+        final boolean _higherIsBetter;
+
+        Metric(String name, double value, String unit, boolean higherIsBetter)
+        {
+            _name=name;
+            _value=value;
+            _unit=unit;
+            _higherIsBetter=higherIsBetter;
+        }
+    }
+}
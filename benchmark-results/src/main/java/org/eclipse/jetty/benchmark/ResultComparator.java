@@ -0,0 +1,308 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares result files written by {@link ResultWriter} and flags significant regressions.
+ * <p>
+ * The first file (or with a single file, the first label in it) is the baseline and
+ * every other file or label is compared against it, eg Jetty 8 vs 9.2 vs 9.3 or one
+ * commit against another. Results with the same {@link BenchmarkResult#getKey() key}
+ * are the samples of a metric; a change is significant when Welch's t-test rejects
+ * equal means at the chosen level and the relative change exceeds the threshold.
+ * A significant change in the wrong direction (lower throughput, higher latency)
+ * is a regression. Metrics with fewer than 2 samples on either side are shown but
+ * are never flagged.
+ * <p>
+ * Usage: <code>ResultComparator [--alpha=0.05] [--threshold=2] [label=]baseline.json [label=]candidate.json...</code>
+ * where the threshold is a percentage. Each file is labelled by its path, as the modules all
+ * write <code>target/benchmark-results.json</code>, unless it is given a label, eg
+ * <code>9.2=bench-9-server/target/benchmark-results.json</code>. The exit status is 1 if
+ * any regression is found.
+ */
+public class ResultComparator
+{
+    public enum Verdict
+    {
+        SAME(""), IMPROVED("improved"), REGRESSION("REGRESSION"), UNKNOWN("?");
+
+        final String _text;
+
+        Verdict(String text)
+        {
+            _text=text;
+        }
+    }
+
+    private final double _alpha;
+    private final double _threshold;
+    private final Map<String,Map<String,Samples>> _sides = new LinkedHashMap<>();
+
+    /**
+     * @param alpha The significance level of the t-test
+     * @param threshold The minimum relative change (eg 0.02) that is flagged
+     */
+    public ResultComparator(double alpha, double threshold)
+    {
+        _alpha=alpha;
+        _threshold=threshold;
+    }
+
+    public void add(String side, BenchmarkResult result)
+    {
+        Map<String,Samples> samples=_sides.get(side);
+        if (samples==null)
+        {
+            samples=new LinkedHashMap<>();
+            _sides.put(side,samples);
+        }
+        Samples metric=samples.get(result.getKey());
+        if (metric==null)
+        {
+            metric=new Samples(result.isHigherBetter(),result.getUnit());
+            samples.put(result.getKey(),metric);
+        }
+        if (!Double.isNaN(result.getValue()))
+            metric.add(result.getValue());
+    }
+
+    /**
+     * Load a result file.
+     * @param file The file
+     * @param side The side to add the results to, or null to use the label of each result.
+     */
+    public void load(File file, String side) throws IOException
+    {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line=in.readLine())!=null)
+            {
+                BenchmarkResult result=BenchmarkResult.parse(line);
+                if (result!=null)
+                    add(side==null?result.getLabel():side,result);
+            }
+        }
+    }
+
+    /**
+     * Print a comparison of every side against the first.
+     * @param out Where to print
+     * @return The number of regressions found
+     */
+    public int compare(PrintStream out)
+    {
+        List<String> sides = new ArrayList<>(_sides.keySet());
+        if (sides.size()<2)
+        {
+            out.println("Nothing to compare: "+sides);
+            return 0;
+        }
+
+        int regressions=0;
+        Map<String,Samples> baseline=_sides.get(sides.get(0));
+        for (String side : sides.subList(1,sides.size()))
+        {
+            out.printf("%n%s vs %s (alpha=%s threshold=%.1f%%)%n",side,sides.get(0),_alpha,_threshold*100);
+            out.printf("%-60s %24s %24s %8s %8s%n","","baseline","candidate","change","p");
+            for (Map.Entry<String,Samples> entry : _sides.get(side).entrySet())
+            {
+                Samples base=baseline.get(entry.getKey());
+                if (base==null)
+                    continue;
+                Samples candidate=entry.getValue();
+                double change=(candidate.mean()-base.mean())/base.mean();
+                double p=welch(base,candidate);
+                Verdict verdict=verdict(base,candidate,change,p);
+                if (verdict==Verdict.REGRESSION)
+                    regressions++;
+                out.printf("%-60s %24s %24s %+7.1f%% %8.4f %s%n",entry.getKey(),base,candidate,change*100,p,verdict._text);
+            }
+        }
+        out.printf("%n%d regressions%n",regressions);
+        return regressions;
+    }
+
+    private Verdict verdict(Samples base, Samples candidate, double change, double p)
+    {
+        if (base.size()<2 || candidate.size()<2 || Double.isNaN(p))
+            return Verdict.UNKNOWN;
+        if (p>=_alpha || Math.abs(change)<_threshold)
+            return Verdict.SAME;
+        boolean better=candidate.isHigherBetter()?change>0:change<0;
+        return better?Verdict.IMPROVED:Verdict.REGRESSION;
+    }
+
+    /**
+     * Welch's unequal variances t-test.
+     * @return The two sided p-value of the means being equal
+     */
+    static double welch(Samples a, Samples b)
+    {
+        int na=a.size();
+        int nb=b.size();
+        if (na<2 || nb<2)
+            return Double.NaN;
+        double va=a.variance()/na;
+        double vb=b.variance()/nb;
+        double se2=va+vb;
+        if (se2==0)
+            return a.mean()==b.mean()?1.0:0.0;
+        double t=(b.mean()-a.mean())/Math.sqrt(se2);
+        double df=se2*se2/(va*va/(na-1)+vb*vb/(nb-1));
+        return incompleteBeta(df/2,0.5,df/(df+t*t));
+    }
+
+    /**
+     * The regularized incomplete beta function I<sub>x</sub>(a,b), by continued fraction.
+     */
+    static double incompleteBeta(double a, double b, double x)
+    {
+        if (x<=0)
+            return 0;
+        if (x>=1)
+            return 1;
+        double front=Math.exp(logGamma(a+b)-logGamma(a)-logGamma(b)+a*Math.log(x)+b*Math.log(1-x));
+        if (x<(a+1)/(a+b+2))
+            return front*continuedFraction(a,b,x)/a;
+        return 1-front*continuedFraction(b,a,1-x)/b;
+    }
+
+    private static double continuedFraction(double a, double b, double x)
+    {
+        final double tiny=1e-300;
+        double c=1;
+        double d=1-(a+b)*x/(a+1);
+        d=1/(Math.abs(d)<tiny?tiny:d);
+        double h=d;
+        for (int m=1;m<=300;m++)
+        {
+            int m2=2*m;
+            double aa=m*(b-m)*x/((a-1+m2)*(a+m2));
+            d=1+aa*d;
+            d=1/(Math.abs(d)<tiny?tiny:d);
+            c=1+aa/c;
+            c=Math.abs(c)<tiny?tiny:c;
+            h*=d*c;
+
+            aa=-(a+m)*(a+b+m)*x/((a+m2)*(a+1+m2));
+            d=1+aa*d;
+            d=1/(Math.abs(d)<tiny?tiny:d);
+            c=1+aa/c;
+            c=Math.abs(c)<tiny?tiny:c;
+            double delta=d*c;
+            h*=delta;
+            if (Math.abs(delta-1)<1e-12)
+                break;
+        }
+        return h;
+    }
+
+    /**
+     * Lanczos approximation of ln(&Gamma;(x)).
+     */
+    private static double logGamma(double x)
+    {
+        final double[] cof={76.18009172947146,-86.50532032941677,24.01409824083091,
+            -1.231739572450155,0.1208650973866179e-2,-0.5395239384953e-5};
+        double y=x;
+        double tmp=x+5.5;
+        tmp-=(x+0.5)*Math.log(tmp);
+        double series=1.000000000190015;
+        for (double c : cof)
+            series+=c/++y;
+        return -tmp+Math.log(2.5066282746310005*series/x);
+    }
+
+    static class Samples
+    {
+        final boolean _higherIsBetter;
+        final String _unit;
+        int _n;
+        double _mean;
+        double _m2;
+
+        Samples(boolean higherIsBetter, String unit)
+        {
+            _higherIsBetter=higherIsBetter;
+            _unit=unit;
+        }
+
+        void add(double value)
+        {
+            // Welford's online mean and variance
+            _n++;
+            double delta=value-_mean;
+            _mean+=delta/_n;
+            _m2+=delta*(value-_mean);
+        }
+
+        boolean isHigherBetter()
+        {
+            return _higherIsBetter;
+        }
+
+        int size()
+        {
+            return _n;
+        }
+
+        double mean()
+        {
+            return _mean;
+        }
+
+        double variance()
+        {
+            return _n>1?_m2/(_n-1):0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%.2f+-%.2f %s (%d)",_mean,Math.sqrt(variance()),_unit,_n);
+        }
+    }
+
+    public static void main(String... args) throws Exception
+    {
+        double alpha=0.05;
+        double threshold=0.02;
+        List<File> files = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (String arg : args)
+        {
+            if (arg.startsWith("--alpha="))
+                alpha=Double.parseDouble(arg.substring(8));
+            else if (arg.startsWith("--threshold="))
+                threshold=Double.parseDouble(arg.substring(12))/100;
+            else
+            {
+                int eq=arg.indexOf('=');
+                files.add(new File(eq<0?arg:arg.substring(eq+1)));
+                labels.add(eq<0?files.get(files.size()-1).getPath():arg.substring(0,eq));
+            }
+        }
+        if (files.isEmpty())
+        {
+            System.err.println("Usage: ResultComparator [--alpha=0.05] [--threshold=2] [label=]baseline.json [label=]candidate.json...");
+            System.exit(2);
+        }
+
+        ResultComparator comparator = new ResultComparator(alpha,threshold);
+        for (int i=0;i<files.size();i++)
+            comparator.load(files.get(i),files.size()==1?null:labels.get(i));
+        if (comparator.compare(System.out)>0)
+            System.exit(1);
+    }
+}
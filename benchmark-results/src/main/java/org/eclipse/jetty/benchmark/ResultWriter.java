@@ -0,0 +1,108 @@
+package org.eclipse.jetty.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Appends {@link BenchmarkResult}s to a result file, one per line.
+ * <p>
+ * The {@link #getDefault() default writer} is configured by system properties:
+ * <dl>
+ * <dt>benchmark.results</dt><dd>The result file (default <code>target/benchmark-results.json</code>).
+ * A file ending in <code>.csv</code> is written as CSV, otherwise as JSON lines.</dd>
+ * <dt>benchmark.version</dt><dd>The Jetty version measured (default the version of the Jetty server on the classpath)</dd>
+ * <dt>benchmark.label</dt><dd>A label for the run, eg a commit id (default the version)</dd>
+ * </dl>
+ * Results are appended, so repeated runs into the same file accumulate the samples
+ * that {@link ResultComparator} tests for significance.
+ */
+public class ResultWriter
+{
+    private static ResultWriter __default;
+
+    private final File _file;
+    private final boolean _csv;
+    private final String _label;
+    private final String _version;
+
+    public static synchronized ResultWriter getDefault()
+    {
+        if (__default==null)
+        {
+            String version=System.getProperty("benchmark.version",jettyVersion());
+            __default=new ResultWriter(new File(System.getProperty("benchmark.results","target/benchmark-results.json")),
+                System.getProperty("benchmark.label",version),version);
+        }
+        return __default;
+    }
+
+    /**
+     * @return The version of the Jetty server on the classpath, or "unknown".
+     */
+    public static String jettyVersion()
+    {
+        try
+        {
+            // Server.getVersion() is common to Jetty 8 and 9
+            Object version=Class.forName("org.eclipse.jetty.server.Server").getMethod("getVersion").invoke(null);
+            if (version!=null)
+                return version.toString();
+        }
+        catch(Exception e)
+        {
+            // No server on the classpath
+        }
+        return "unknown";
+    }
+
+    public ResultWriter(File file, String label, String version)
+    {
+        _file=file;
+        _csv=file.getName().endsWith(".csv");
+        _label=label;
+        _version=version;
+    }
+
+    public File getFile()
+    {
+        return _file;
+    }
+
+    public String getLabel()
+    {
+        return _label;
+    }
+
+    public String getVersion()
+    {
+        return _version;
+    }
+
+    public synchronized void write(BenchmarkResult result)
+    {
+        File dir=_file.getAbsoluteFile().getParentFile();
+        if (dir!=null)
+            dir.mkdirs();
+        boolean header=_csv && _file.length()==0;
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(_file,true),StandardCharsets.UTF_8)))
+        {
+            if (header)
+                out.println(BenchmarkResult.CSV_HEADER);
+            out.println(_csv?result.toCsv():result.toJson());
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s,%s,%s}",getClass().getSimpleName(),_file,_label,_version);
+    }
+}
@@ -118,6 +118,11 @@ public class HttpClient8SerialThroughputTest
         long end = System.nanoTime();
         long elapsed = TimeUnit.NANOSECONDS.toMillis(end - begin);
         logger.info("{} requests in {} ms, {} req/s", iterations, elapsed, elapsed > 0 ? iterations * 1000 / elapsed : -1);
+        new Measurement("HttpClientSerialThroughput")
+                .param("iterations", iterations)
+                .elapsed(end - begin)
+                .throughput(iterations, end - begin, "req/s")
+                .emit();
 
         for (String failure : failures)
             System.err.println("FAILED: "+failure);
@@ -143,6 +143,16 @@ public class WebSocketClientTest8
             long elapsed = TimeUnit.NANOSECONDS.toMillis(end - begin);
             logger.info("iterations={}, pause={}ms, sends={} echos={} size={}: sent={} recv={} in {} ms", 
                 iterations,pauseMS,sends, echos, size, iterations*sends,iterations*sends*echos, elapsed-(iterations*pauseMS));
+            long busy = end - begin - TimeUnit.MILLISECONDS.toNanos(iterations*pauseMS);
+            new Measurement("WebSocketEcho")
+                .param("iterations", iterations)
+                .param("pause", pauseMS)
+                .param("sends", sends)
+                .param("echos", echos)
+                .param("size", size)
+                .elapsed(busy)
+                .throughput((long)iterations*sends*echos, busy, "msgs/s")
+                .emit();
         }
         finally
         {
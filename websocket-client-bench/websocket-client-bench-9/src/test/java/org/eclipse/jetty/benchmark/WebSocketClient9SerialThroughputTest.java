@@ -133,6 +133,12 @@ public class WebSocketClient9SerialThroughputTest
         long end = System.nanoTime();
         long elapsed = TimeUnit.NANOSECONDS.toMillis(end - begin);
         logger.info("{} messages in {} ms, {} msgs/s", iterations, elapsed, elapsed > 0 ? iterations * 1000 / elapsed : -1);
+        new Measurement("WebSocketSerialThroughput")
+                .param("api", "jetty")
+                .param("length", chars.length)
+                .elapsed(end - begin)
+                .throughput(iterations, end - begin, "msgs/s")
+                .emit();
     }
 
     protected void perform(Session session, char[] chars, int currentRun, int iterations) throws IOException
@@ -163,6 +163,12 @@ public class JSRAsyncWebSocketClientSerialThroughputTest
         long end = System.nanoTime();
         long elapsed = TimeUnit.NANOSECONDS.toMillis(end - begin);
         logger.info("{} messages in {} ms, {} msgs/s", iterations, elapsed, elapsed > 0 ? iterations * 1000 / elapsed : -1);
+        new Measurement("WebSocketSerialThroughput")
+                .param("api", getClass().getSimpleName())
+                .param("length", chars.length)
+                .elapsed(end - begin)
+                .throughput(iterations, end - begin, "msgs/s")
+                .emit();
     }
 
     protected void test(Session session, String message, SendHandler callback)